@@ -0,0 +1,44 @@
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Outcome of an appeal returned by the appeal service.
+ * Only the result and the new sentence are sent, the message is formatted by the client.
+ **/
+public class AppealOutcome implements Externalizable {
+
+  private static final long serialVersionUID = 1L;
+
+  private boolean appealPassed;
+  private int newSentence;
+
+  public AppealOutcome() {
+  }
+
+  public AppealOutcome(boolean appealPassed, int newSentence) {
+    this.appealPassed = appealPassed;
+    this.newSentence = newSentence;
+  }
+
+  public boolean hasAppealPassed() {
+    return appealPassed;
+  }
+
+  public int getNewSentence() {
+    return newSentence;
+  }
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    out.writeBoolean(appealPassed);
+    out.writeInt(newSentence);
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException {
+    appealPassed = in.readBoolean();
+    newSentence = in.readInt();
+  }
+}
@@ -0,0 +1,243 @@
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Queue of the appeals waiting to be decided.
+ * Each case has its own lane and the appeals of a lane are decided one at a time, in the order
+ * they were submitted, by a fixed pool of workers. A submission returns a ticket straight away
+ * and the outcome is collected with the ticket once it is ready. Tickets are drawn at random,
+ * so the outcome of another prisoner cannot be collected by guessing its ticket.
+ * Each prisoner may only submit appeals at a limited rate, and an appeal submitted while another
+ * of the same prisoner is still waiting gets the ticket of the waiting one.
+ **/
+public class AppealQueue implements AutoCloseable {
+
+  public static final int BUCKET_CAPACITY = 3; /*Appeals a prisoner can submit at once. */
+  public static final long REFILL_INTERVAL_MILLIS = 10_000; /*Time for a prisoner to earn one more appeal. */
+  private static final long OUTCOME_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10); /*Outcomes are dropped after this. */
+  private static final int SUBMISSIONS_PER_PURGE = 1024;
+  private static final long TICKET_MASK = (1L << 48) - 1; /*Top bits are left free for ClusterRouter to tag the node. */
+
+  private final ExecutorService workers;
+  private final BiFunction<Integer, Integer, AppealOutcome> appealDecider; /*Decides an appeal of (case ID, prisoner ID). */
+  private final Map<Integer, CaseLane> lanes = new ConcurrentHashMap<>();
+  private final Map<Long, Ticket> tickets = new ConcurrentHashMap<>();
+  private final Map<Long, Ticket> waitingAppeals = new ConcurrentHashMap<>(); /*Appeals not started, by prisoner. */
+  private final Map<Long, TokenBucket> rateLimits = new ConcurrentHashMap<>();
+  private final AtomicLong submissions = new AtomicLong();
+  private final SecureRandom ticketRandom = new SecureRandom();
+
+  /**
+   * An appeal that has been submitted.
+   **/
+  private static class Ticket {
+    private final long ticketNumber;
+    private final int caseID;
+    private final int prisonerID;
+    private final CompletableFuture<AppealOutcome> outcome = new CompletableFuture<>();
+    private volatile long completionTime;
+
+    Ticket(long ticketNumber, int caseID, int prisonerID) {
+      this.ticketNumber = ticketNumber;
+      this.caseID = caseID;
+      this.prisonerID = prisonerID;
+    }
+  }
+
+  /**
+   * Appeals of one case. At most one worker drains a lane at a time.
+   * A lane is removed once it is empty, so only cases with appeals waiting have one.
+   **/
+  private class CaseLane implements Runnable {
+    private final int caseID;
+    private final Queue<Ticket> pendingAppeals = new ArrayDeque<>();
+    private boolean removed;
+
+    CaseLane(int caseID) {
+      this.caseID = caseID;
+    }
+
+    /*Returns false if the lane has been removed and a new one must be used. */
+    synchronized boolean add(Ticket ticket) {
+      if (removed) {
+        return false;
+      }
+      pendingAppeals.add(ticket);
+      if (pendingAppeals.size() == 1) {
+        workers.execute(this); /*Lane was idle. */
+      }
+      return true;
+    }
+
+    /*Drops the ticket just decided, if any, and returns the next one. Removes the lane once it is empty.
+     *Done in one step so that an appeal added in between cannot start a second worker. */
+    synchronized Ticket next(Ticket finished) {
+      if (finished != null) {
+        pendingAppeals.poll();
+      }
+      Ticket ticket = pendingAppeals.peek();
+      if (ticket == null) {
+        removed = true;
+        lanes.remove(caseID, this);
+      }
+      return ticket;
+    }
+
+    @Override
+    public void run() {
+      /*The ticket stays in the lane while it is decided, so new appeals do not start another worker. */
+      Ticket ticket = null;
+      while ((ticket = next(ticket)) != null) {
+        /*No longer waiting, so a new appeal of the prisoner gets its own ticket. */
+        waitingAppeals.remove(prisonerKey(ticket.caseID, ticket.prisonerID), ticket);
+        try {
+          ticket.outcome.complete(appealDecider.apply(ticket.caseID, ticket.prisonerID));
+        } catch (RuntimeException e) {
+          ticket.outcome.completeExceptionally(e);
+        }
+        ticket.completionTime = System.currentTimeMillis();
+      }
+    }
+  }
+
+  /**
+   * Token bucket holding the appeals a prisoner may still submit.
+   **/
+  private static class TokenBucket {
+    private double tokens = BUCKET_CAPACITY;
+    private long lastRefill = System.currentTimeMillis();
+
+    synchronized boolean tryTake() {
+      refill();
+      if (tokens < 1) {
+        return false;
+      }
+      tokens--;
+      return true;
+    }
+
+    /*Gives back a token taken for an appeal that was not queued. */
+    synchronized void refund() {
+      tokens = Math.min(BUCKET_CAPACITY, tokens + 1);
+    }
+
+    synchronized boolean isFull() {
+      refill();
+      return tokens >= BUCKET_CAPACITY;
+    }
+
+    private void refill() {
+      long now = System.currentTimeMillis();
+      tokens = Math.min(BUCKET_CAPACITY, tokens + (double) (now - lastRefill) / REFILL_INTERVAL_MILLIS);
+      lastRefill = now;
+    }
+  }
+
+  /**
+   * Object constructor. Starts the given number of workers.
+   **/
+  public AppealQueue(int numberOfWorkers, BiFunction<Integer, Integer, AppealOutcome> appealDecider) {
+    if (numberOfWorkers <= 0) {
+      throw new IllegalArgumentException("Number of workers is not valid!");
+    }
+    this.appealDecider = appealDecider;
+    this.workers = Executors.newFixedThreadPool(numberOfWorkers, runnable -> {
+      Thread workerThread = new Thread(runnable, "appeal-worker");
+      workerThread.setDaemon(true);
+      return workerThread;
+    });
+  }
+
+  /**
+   * Method used to submit an appeal. Returns the ticket used to collect the outcome.
+   * Throws IllegalStateException if the prisoner has submitted too many appeals.
+   **/
+  public long submit(int caseID, int prisonerID) {
+    Long prisonerKey = prisonerKey(caseID, prisonerID);
+    Ticket waitingTicket = waitingAppeals.get(prisonerKey);
+    if (waitingTicket != null) {
+      return waitingTicket.ticketNumber;
+    }
+    TokenBucket rateLimit = rateLimits.computeIfAbsent(prisonerKey, key -> new TokenBucket());
+    if (!rateLimit.tryTake()) {
+      throw new IllegalStateException("Too many appeals. Try again later.");
+    }
+    /*The ticket can be collected before it is shared with other submissions of the prisoner. */
+    Ticket newTicket = registerTicket(caseID, prisonerID);
+    waitingTicket = waitingAppeals.putIfAbsent(prisonerKey, newTicket);
+    if (waitingTicket != null) {
+      /*Another thread submitted the same appeal first, so this one only shares its ticket and costs nothing. */
+      tickets.remove(newTicket.ticketNumber, newTicket);
+      rateLimit.refund();
+      return waitingTicket.ticketNumber;
+    }
+    while (!lanes.computeIfAbsent(caseID, CaseLane::new).add(newTicket)) {
+      /*Lane was removed after it was found. */
+    }
+    if (submissions.incrementAndGet() % SUBMISSIONS_PER_PURGE == 0) {
+      purge();
+    }
+    return newTicket.ticketNumber;
+  }
+
+  /**
+   * Creates a ticket with a random number not in use and registers it.
+   **/
+  private Ticket registerTicket(int caseID, int prisonerID) {
+    while (true) {
+      Ticket ticket = new Ticket(ticketRandom.nextLong() & TICKET_MASK, caseID, prisonerID);
+      if (tickets.putIfAbsent(ticket.ticketNumber, ticket) == null) {
+        return ticket;
+      }
+    }
+  }
+
+  /**
+   * Method used to wait for the outcome of an appeal. Returns null if it is not ready once the timeout expires.
+   * Appeals that were merged share a ticket, so an outcome can be collected more than once until it expires.
+   **/
+  public AppealOutcome awaitOutcome(long ticketNumber, long timeoutMillis) throws InterruptedException {
+    Ticket ticket = tickets.get(ticketNumber);
+    if (ticket == null) {
+      throw new IllegalArgumentException("Ticket is not valid!");
+    }
+    try {
+      return ticket.outcome.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      return null;
+    } catch (ExecutionException e) {
+      /*Only runtime exceptions are stored in the outcome. */
+      throw (RuntimeException) e.getCause();
+    }
+  }
+
+  /**
+   * Removes the outcomes that have expired and the buckets that are full again,
+   * as a full bucket is the same as a new one.
+   **/
+  private void purge() {
+    long oldestKept = System.currentTimeMillis() - OUTCOME_TTL_MILLIS;
+    tickets.values().removeIf(ticket -> ticket.completionTime != 0 && ticket.completionTime < oldestKept);
+    rateLimits.values().removeIf(TokenBucket::isFull);
+  }
+
+  private static long prisonerKey(int caseID, int prisonerID) {
+    return ((long) caseID << 32) | (prisonerID & 0xFFFFFFFFL);
+  }
+
+  @Override
+  public void close() {
+    workers.shutdown();
+  }
+}
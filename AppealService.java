@@ -6,5 +6,18 @@ import java.rmi.RemoteException;
  **/
 public interface AppealService extends Remote {
 
-  String requestAppeal(int caseID, int prisonerID) throws RemoteException;
+  /**
+   * Submits an appeal and waits for its outcome.
+   **/
+  AppealOutcome requestAppeal(int caseID, int prisonerID) throws RemoteException;
+
+  /**
+   * Submits an appeal to be decided later. Returns the ticket used to collect the outcome.
+   **/
+  long submitAppeal(int caseID, int prisonerID) throws RemoteException;
+
+  /**
+   * Waits for the outcome of a submitted appeal. Returns null if it is not ready once the timeout expires.
+   **/
+  AppealOutcome awaitAppealOutcome(long ticket, long timeoutMillis) throws RemoteException;
 }
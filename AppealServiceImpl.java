@@ -1,5 +1,4 @@
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.Objects;
 
 
@@ -8,29 +7,62 @@ import java.util.Objects;
  * This class is responsible for implementing the additional functionality of the court appeal service.
  * Prisoners can appeal for a sentence reduction and this is randomly granted to them.
  * They can then receive a reduction in their sentence if successful.
+ * Appeals are decided by the workers of the appeal queue, one at a time for each case.
  *
  **/
-public class AppealServiceImpl extends UnicastRemoteObject implements AppealService {
+public class AppealServiceImpl implements AppealService {
+
+  public static final int DEFAULT_WORKERS = 4; /*Threads deciding appeals. */
+  private static final long MAX_WAIT_MILLIS = 30000; /*Longest time a request is held waiting for an outcome. */
 
   /*Private variables*/
   private PrisonerDatabaseHandler dbHandler;
+  private final AppealQueue appealQueue;
+  private final SentenceCache sentenceCache; /*Sentences cached by the prosecutor service. Not used if not set. */
+  private final StatisticsCollector statistics; /*Totals of the appeals. Not used if not set. */
 
   /**
    * This is a constructor this implementation class.
    *
    **/
-  public AppealServiceImpl(PrisonerDatabaseHandler dbHandler) throws RemoteException {
-    super();
+  public AppealServiceImpl(PrisonerDatabaseHandler dbHandler) {
+    this(dbHandler, DEFAULT_WORKERS);
+  }
+
+  /**
+   * Constructor setting the number of threads deciding appeals.
+   **/
+  public AppealServiceImpl(PrisonerDatabaseHandler dbHandler, int numberOfWorkers) {
+    this(dbHandler, numberOfWorkers, null);
+  }
+
+  /**
+   * Constructor for an appeal service that invalidates the sentences it changes in the cache.
+   **/
+  public AppealServiceImpl(PrisonerDatabaseHandler dbHandler, int numberOfWorkers, SentenceCache sentenceCache) {
+    this(dbHandler, numberOfWorkers, sentenceCache, null);
+  }
+
+  /**
+   * Constructor for an appeal service that also counts every decided appeal in the statistics.
+   **/
+  public AppealServiceImpl(PrisonerDatabaseHandler dbHandler, int numberOfWorkers, SentenceCache sentenceCache,
+                           StatisticsCollector statistics) {
     this.dbHandler = dbHandler;
+    this.sentenceCache = sentenceCache;
+    this.statistics = statistics;
     Objects.requireNonNull(this.dbHandler); /*Ensure the object is never null*/
+    this.appealQueue = new AppealQueue(numberOfWorkers, this::decideAppeal);
   }
 
   /**
    * This method randomly decides on the outcome of the appeal.
    **/
-  private boolean considerAppeal() {
+  private boolean considerAppeal(CaseView caseFound, int prisonerID) {
     boolean appealAccepted;
-    if (Math.random() < 0.5) {
+    long drawKey = RandomSource.drawKey(caseFound.getCaseID(), prisonerID, RandomSource.APPEAL_STREAM,
+        caseFound.nextAppealNumber(prisonerID));
+    if (RandomSource.current().nextBoolean(drawKey, 0.5)) {
       appealAccepted = false;
     } else {
       appealAccepted = true;
@@ -41,32 +73,92 @@ public class AppealServiceImpl extends UnicastRemoteObject implements AppealServ
   /**
    * This method is reponsible for handling the prisoner's appeal request.
    * It requires all of the users' details and once the decision has been,
-   * it reduces the sentence if necessary and outputs the outcome to the user.
+   * it reduces the sentence if necessary and returns the outcome to the user.
+   **/
+  @Override
+  public AppealOutcome requestAppeal(int caseID, int prisonerID) throws RemoteException, IllegalArgumentException {
+    long ticket = submitAppeal(caseID, prisonerID);
+    AppealOutcome appealOutcome;
+    do {
+      appealOutcome = awaitAppealOutcome(ticket, MAX_WAIT_MILLIS);
+    }
+    while (appealOutcome == null && !Thread.currentThread().isInterrupted());
+    if (appealOutcome == null) {
+      throw new RemoteException("Interrupted while waiting for the appeal");
+    }
+    return appealOutcome;
+  }
+
+  /**
+   * Method used to queue the prisoner's appeal. Returns the ticket of the appeal.
    **/
   @Override
-  public String requestAppeal(int caseID, int prisonerID) throws RemoteException, IllegalArgumentException {
-    String appealOutcome;
+  public long submitAppeal(int caseID, int prisonerID) throws RemoteException, IllegalArgumentException {
     /* Check if ID is valid. */
-    if (dbHandler.isCaseValid(caseID)) {
-      /* Randomly decide if appeal has passed */
-      if (considerAppeal()) {
-        appealOutcome = "Appeal passed! ";
-        /* Discount sentence by a year if appeal passes.*/
-        Case caseFound = dbHandler.getCase(caseID);
-        caseFound.reducePrisonSentence(prisonerID, 1);
-        int newSentence = caseFound.getPrisonerSentence(prisonerID);
-        if (newSentence == 0) {
-          /*He is free to go.*/
-          appealOutcome += "You are a free to go!";
-        } else {
-          appealOutcome += "You have to serve " + newSentence + " years.";
+    if (!dbHandler.isCaseValid(caseID) || prisonerID < 0 || prisonerID >= Case.NUMBER_PRISONERS) {
+      throw new IllegalArgumentException("Case ID is not valid");
+    }
+    /* Archived cases are past their appeal window. */
+    if (dbHandler.isCaseArchived(caseID)) {
+      throw new IllegalStateException("The appeal window of this case has closed.");
+    }
+    return appealQueue.submit(caseID, prisonerID);
+  }
+
+  /**
+   * Holds the request until the appeal is decided or the timeout expires.
+   **/
+  @Override
+  public AppealOutcome awaitAppealOutcome(long ticket, long timeoutMillis) throws RemoteException, IllegalArgumentException {
+    long timeout = Math.min(Math.max(timeoutMillis, 0), MAX_WAIT_MILLIS);
+    try {
+      return appealQueue.awaitOutcome(ticket, timeout);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   * Decides an appeal. Run by the appeal queue, never at the same time as another appeal of the case.
+   **/
+  private AppealOutcome decideAppeal(int caseID, int prisonerID) {
+    AppealOutcome appealOutcome;
+    CaseView caseFound = dbHandler.getCase(caseID);
+    /* Check if ID is valid. */
+    if (caseFound != null) {
+      /* Randomly decide if appeal has passed. Discount sentence by a year if appeal passes.*/
+      if (considerAppeal(caseFound, prisonerID) && reduceSentence(caseFound, prisonerID)) {
+        if (sentenceCache != null) {
+          /*After the reduction, so a sentence read before it cannot be cached again. */
+          sentenceCache.invalidate(caseID, prisonerID);
         }
+        appealOutcome = new AppealOutcome(true, caseFound.getPrisonerSentence(prisonerID));
       } else {
-        appealOutcome = "Appeal request failed.";
+        appealOutcome = new AppealOutcome(false, 0);
       }
     } else {
       throw new IllegalArgumentException("Case ID is not valid");
     }
+    if (statistics != null) {
+      statistics.recordAppeal(appealOutcome.hasAppealPassed(), appealOutcome.getNewSentence());
+    }
     return appealOutcome;
   }
+
+  /**
+   * Reduces the sentence by a year. Returns false if the case was archived after the appeal was submitted,
+   * so the appeal is not accepted, on both backends.
+   **/
+  private boolean reduceSentence(CaseView caseFound, int prisonerID) {
+    try {
+      caseFound.reducePrisonSentence(prisonerID, 1);
+      return true;
+    } catch (IllegalStateException e) {
+      if (!dbHandler.isCaseArchived(caseFound.getCaseID())) {
+        throw e; /*E.g. the case is being handed off. */
+      }
+      return false;
+    }
+  }
 }
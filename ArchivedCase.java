@@ -0,0 +1,110 @@
+/**
+ * View of a finished case moved to the CaseArchive.
+ * Only the record of the case is kept, so the sentences can still be read but nothing can be changed.
+ */
+public class ArchivedCase extends CaseView {
+
+    private final int caseID;
+    private final long record;
+
+    public ArchivedCase(int caseID, long record) {
+        this.caseID = caseID;
+        this.record = record;
+    }
+
+    @Override
+    public int getCaseID() {
+        return caseID;
+    }
+
+    /**
+     * Rounds are not kept in the archive, so an iterated case is reported as a single round.
+     **/
+    @Override
+    public int getTotalRounds() {
+        return 1;
+    }
+
+    private void validatePrisonerID(int prisonerID) {
+        if (prisonerID < 0 || prisonerID >= Case.NUMBER_PRISONERS) {
+            throw new IllegalArgumentException("ID is not valid.");
+        }
+    }
+
+    /**
+     * The decision has been made, so like any finished case no decision is accepted.
+     **/
+    @Override
+    public boolean logPrisonerDecision(int prisonerID, boolean betrayedPartner) {
+        throw new IllegalArgumentException("Index is out of bounds!");
+    }
+
+    @Override
+    public void reducePrisonSentence(int prisonerID, int sentenceReduction) {
+        throw new IllegalStateException("Case " + getCaseID() + " no longer accepts changes!");
+    }
+
+    @Override
+    public boolean isSentencingAvailable() {
+        return true;
+    }
+
+    @Override
+    Case.caseStatus getStatus() {
+        return Case.caseStatus.DECISION_MADE;
+    }
+
+    @Override
+    public void registerSentenceListener(int prisonerID, SentenceListener listener) {
+        validatePrisonerID(prisonerID);
+        if (listener == null) {
+            throw new IllegalArgumentException("ID is not valid.");
+        }
+        SentenceNotifier.notifyListener(listener, getCaseID(), prisonerID);
+    }
+
+    @Override
+    public boolean awaitSentencing(long timeoutMillis) {
+        return true;
+    }
+
+    /**
+     * Rounds are not kept in the archive, so an iterated case reports the last round only.
+     **/
+    @Override
+    public int getRoundsPlayed() {
+        return 1;
+    }
+
+    @Override
+    public boolean hasBetrayedInRound(int prisonerID, int round) {
+        validatePrisonerID(prisonerID);
+        if (round != 0) {
+            throw new IllegalArgumentException("Round is not in the history!");
+        }
+        return CaseRecord.hasBetrayed(record, prisonerID);
+    }
+
+    /**
+     * Archived cases are past their appeal window, so no appeal is drawn for them.
+     **/
+    @Override
+    int nextAppealNumber(int prisonerID) {
+        throw new IllegalStateException("The appeal window of this case has closed.");
+    }
+
+    @Override
+    public int getPrisonerSentence(int prisonerID) {
+        validatePrisonerID(prisonerID);
+        return CaseRecord.getSentence(record, prisonerID);
+    }
+
+    @Override
+    public int[] getSentences() {
+        int[] sentences = new int[Case.NUMBER_PRISONERS];
+        for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+            sentences[prisonerID] = CaseRecord.getSentence(record, prisonerID);
+        }
+        return sentences;
+    }
+}
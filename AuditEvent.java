@@ -0,0 +1,53 @@
+/**
+ * This class represents one entry of the audit log.
+ * It is created on the RMI thread and written to disk by the audit writer.
+ **/
+public class AuditEvent {
+
+  private final long timestamp;
+  private final int caseID;
+  private final int prisonerID;
+  private final ProsecutorService.Command decision;
+  private final int[] sentences;
+
+  public AuditEvent(long timestamp, int caseID, int prisonerID, ProsecutorService.Command decision, int[] sentences) {
+    this.timestamp = timestamp;
+    this.caseID = caseID;
+    this.prisonerID = prisonerID;
+    this.decision = decision;
+    this.sentences = sentences;
+  }
+
+  /**
+   * Method used to get the line written to the audit file.
+   * Format is timestamp,caseID,prisonerID,decision,sentence of prisoner 1,sentence of prisoner 2
+   **/
+  public String toRecord() {
+    StringBuilder record = new StringBuilder(64);
+    record.append(timestamp).append(',').append(caseID).append(',').append(prisonerID).append(',').append(decision.commandName);
+    for (int sentence : sentences) {
+      record.append(',').append(sentence);
+    }
+    return record.toString();
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public int getCaseID() {
+    return caseID;
+  }
+
+  public int getPrisonerID() {
+    return prisonerID;
+  }
+
+  public ProsecutorService.Command getDecision() {
+    return decision;
+  }
+
+  public int getSentence(int prisonerID) {
+    return sentences[prisonerID];
+  }
+}
@@ -0,0 +1,128 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is responsible for recording the decisions made on the server.
+ * The RMI threads only add events to a ring buffer. A background thread takes
+ * them out in batches and appends them to the audit file.
+ **/
+public class AuditLog implements AutoCloseable {
+
+  /**
+   * What to do when the buffer is full.
+   **/
+  public enum Backpressure {
+    BLOCK, /*Wait until the writer frees a slot. */
+    DROP /*Discard the event and count it. */
+  }
+
+  private static final int BATCH_SIZE = 256; /*Most events written before a flush. */
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final AuditRingBuffer ringBuffer;
+  private final Backpressure backpressure;
+  private final BufferedWriter fileWriter;
+  private final Thread writerThread;
+  private final LongAdder droppedEvents = new LongAdder();
+  private volatile boolean running = true;
+
+  /**
+   * Object constructor. Opens the audit file in append mode and starts the writer thread.
+   **/
+  public AuditLog(Path auditFile, int capacity, Backpressure backpressure) throws IOException {
+    this.ringBuffer = new AuditRingBuffer(capacity);
+    this.backpressure = backpressure;
+    this.fileWriter = Files.newBufferedWriter(auditFile, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+    this.writerThread = new Thread(this::writeEvents, "audit-writer");
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+  }
+
+  /**
+   * Method used to record an event. Never does any I/O on the calling thread.
+   * Returns false if the event was dropped.
+   **/
+  public boolean record(AuditEvent event) {
+    if (ringBuffer.offer(event)) {
+      return true;
+    }
+    if (backpressure == Backpressure.BLOCK) {
+      /*Wait for the writer to catch up. */
+      while (!ringBuffer.offer(event)) {
+        if (!running) {
+          break;
+        }
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+      }
+      if (running) {
+        return true;
+      }
+    }
+    droppedEvents.increment();
+    return false;
+  }
+
+  /**
+   * Returns the number of events that were discarded because the buffer was full.
+   **/
+  public long getDroppedEvents() {
+    return droppedEvents.sum();
+  }
+
+  /**
+   * Loop run by the writer thread. Writes events in batches and flushes after each batch.
+   **/
+  private void writeEvents() {
+    while (running) {
+      if (writeBatch() == 0) {
+        LockSupport.parkNanos(IDLE_PARK_NANOS); /*Nothing to write. */
+      }
+    }
+    /*Write whatever is left before closing. */
+    while (writeBatch() > 0) {
+    }
+  }
+
+  /**
+   * Method used to write a single batch. Returns the number of events written.
+   **/
+  private int writeBatch() {
+    int eventsWritten = 0;
+    try {
+      AuditEvent event;
+      while (eventsWritten < BATCH_SIZE && (event = ringBuffer.poll()) != null) {
+        fileWriter.write(event.toRecord());
+        fileWriter.newLine();
+        eventsWritten++;
+      }
+      if (eventsWritten > 0) {
+        fileWriter.flush();
+      }
+    } catch (IOException e) {
+      System.err.println("Unable to write audit log: " + e.getMessage());
+    }
+    return eventsWritten;
+  }
+
+  /**
+   * Stops the writer thread once all queued events are written and closes the file.
+   **/
+  @Override
+  public void close() throws IOException {
+    running = false;
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    fileWriter.close();
+  }
+}
@@ -0,0 +1,78 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer used to pass audit events to the writer thread.
+ * Any number of threads can add events but only one thread may take them out.
+ * Each slot has a sequence number that tells producers and the consumer whose turn it is.
+ **/
+public class AuditRingBuffer {
+
+  private final int mask;
+  private final AtomicReferenceArray<AuditEvent> slots;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong(); /*Next position to write to. */
+  private long head; /*Next position to read from. Only used by the consumer. */
+
+  /**
+   * Object constructor. The capacity is rounded up to a power of two.
+   **/
+  public AuditRingBuffer(int capacity) {
+    if (capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Capacity is not valid!");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int index = 0; index < size; index++) {
+      sequences.set(index, index);
+    }
+  }
+
+  /**
+   * Method used to add an event. Returns false straight away if the buffer is full.
+   **/
+  public boolean offer(AuditEvent event) {
+    while (true) {
+      long position = tail.get();
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        /*Slot is free. Claim it. */
+        if (tail.compareAndSet(position, position + 1)) {
+          slots.lazySet(index, event);
+          sequences.lazySet(index, position + 1); /*Publish to the consumer. */
+          return true;
+        }
+      } else if (difference < 0) {
+        /*Consumer has not freed the slot yet. */
+        return false;
+      }
+      /*Another producer claimed the slot. Try the next one. */
+    }
+  }
+
+  /**
+   * Method used by the consumer to take an event. Returns null if the buffer is empty.
+   **/
+  public AuditEvent poll() {
+    int index = (int) head & mask;
+    if (sequences.get(index) != head + 1) {
+      return null;
+    }
+    AuditEvent event = slots.get(index);
+    slots.lazySet(index, null);
+    sequences.lazySet(index, head + mask + 1); /*Hand the slot back to the producers. */
+    head++;
+    return event;
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+}
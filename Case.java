@@ -1,25 +1,74 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * This class represents a prison case where there are two prisoners.
  * It has an ID and ideally would be stored in a database.
  */
-public class Case {
+public class Case extends CaseView {
 
     /* Static variables */
     public static final int NUMBER_PRISONERS = 2;
     public static final int PRISONER1_ID = 0;
     public static final int PRISONER2_ID = 1;
+    public static final int SENTENCE_UNKNOWN = -1;
+    public static final int MIN_SENTENCE = 3; /*Shortest sentence given before any reduction. */
+    public static final int MAX_SENTENCE = 26; /*Longest sentence given before any reduction. */
+    public static final int MAX_ROUNDS = 1 << 20; /*Most rounds an iterated case can be played over. */
 
     /*Private parameters */
     private caseStatus currentStatus;
     private int caseID;
     private Prisoner[] prisoner = new Prisoner[NUMBER_PRISONERS];
+    private SentenceListener[] sentenceListener = new SentenceListener[NUMBER_PRISONERS];
+    private CaseJournal journal; /*Records every change of the case. Not set if the case is not persisted. */
+    private long lastJournalSequence; /*Last record appended to the journal by this case. */
+    private final int totalRounds; /*Rounds played before the sentences are given. 1 for a normal case. */
+    private int roundsPlayed;
+    private RoundHistory history; /*Decisions of the previous rounds. Only kept for iterated cases. */
+    private boolean frozen; /*Set once the case has been handed off or archived. No changes are accepted after. */
+    private boolean decisionPending; /*Decision made but not yet stored in the journal, so not shown to anyone. */
+    private volatile long finishedSince; /*Time the sweeper first saw the decision made. 0 until then. */
+    /* Status, decisions and sentences packed by CaseRecord. Written under the lock after every change and
+     * read without it, so polling never blocks and never sees a status and sentences that do not match. */
+    private volatile long state = CaseRecord.newCase();
+    /* Lock of the case. Used instead of synchronized so virtual threads waiting on it are not pinned. */
+    private final ReentrantLock caseLock = new ReentrantLock();
+    private final Condition decisionMade = caseLock.newCondition();
 
     /**
      * Object constructor.
      **/
     public Case(int caseID) {
+        this(caseID, null);
+    }
+
+    /**
+     * Object constructor for a case whose changes are recorded in the journal.
+     **/
+    public Case(int caseID, CaseJournal journal) {
+        this(caseID, journal, 1);
+    }
+
+    /**
+     * Object constructor for an iterated case, where both prisoners decide once in each round.
+     **/
+    public Case(int caseID, CaseJournal journal, int totalRounds) {
+        if (totalRounds < 1 || totalRounds > MAX_ROUNDS) {
+            throw new IllegalArgumentException("Number of rounds is not valid!");
+        }
         this.caseID = caseID;
         this.currentStatus = caseStatus.OPEN;
+        this.journal = journal;
+        this.totalRounds = totalRounds;
+        if (totalRounds > 1) {
+            this.history = new RoundHistory(totalRounds);
+        }
     }
 
     /*
@@ -36,6 +85,50 @@ public class Case {
         return caseID;
     }
 
+    public int getTotalRounds() {
+        return totalRounds;
+    }
+
+    /**
+     * Returns the number of rounds both prisoners have decided.
+     **/
+    public int getRoundsPlayed() {
+        caseLock.lock();
+        try {
+            return roundsPlayed;
+        } finally {
+            caseLock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the prisoner betrayed the partner in a round already played.
+     * Only the most recent rounds of long games are kept (see RoundHistory).
+     **/
+    public boolean hasBetrayedInRound(int prisonerID, int round) {
+        caseLock.lock();
+        try {
+            if (!accessValidation(prisonerID)) {
+                throw new IllegalArgumentException("ID is not valid.");
+            } else if (history != null) {
+                return history.hasBetrayedInRound(prisonerID, round);
+            } else if (round == 0 && roundsPlayed == 1) {
+                return prisoner[prisonerID].hasBetrayedPartner();
+            } else {
+                throw new IllegalArgumentException("Round is not in the history!");
+            }
+        } finally {
+            caseLock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the prisoner has already decided in the round being played.
+     **/
+    private boolean hasDecidedThisRound(int prisonerID) {
+        return prisoner[prisonerID] != null && prisoner[prisonerID].decidedThisRound;
+    }
+
     /**
      * Method that checks if prisoner ID is valid.
      **/
@@ -49,14 +142,67 @@ public class Case {
 
     /**
      * This methods logs the prisoners' decision (if they betrayed their partner or not).
+     * Returns once the decision has been stored in the journal. Returns true if this decision
+     * made the decision of the case, so exactly one call reports each case decided.
+     * The decision of the case is only shown, and the prisoners only told, once it is stored.
+     **/
+    public boolean logPrisonerDecision(int prisonerID, boolean betrayedPartner) {
+        long journalSequence;
+        boolean decisionMade;
+        caseLock.lock();
+        try {
+            journalSequence = recordPrisonerDecision(prisonerID, betrayedPartner);
+            decisionMade = currentStatus == caseStatus.DECISION_MADE;
+        } finally {
+            caseLock.unlock();
+        }
+        awaitJournal(journalSequence);
+        if (decisionMade) {
+            completeDecision();
+        }
+        return decisionMade;
+    }
+
+    /**
+     * Method used to show the decision of the case and wake up the prisoners once it is stored in the journal.
+     * If it could not be stored the decision is never shown.
+     **/
+    private void completeDecision() {
+        caseLock.lock();
+        try {
+            decisionPending = false;
+            publishState();
+            notifySentenceAvailable();
+        } finally {
+            caseLock.unlock();
+        }
+    }
+
+    /**
+     * Checks if the decision has been made and stored. Must be called while holding the lock of the case.
      **/
-    public synchronized void logPrisonerDecision(int prisonerID, boolean betrayedPartner) {
-        /*Check input. Only allow the prisoner to decide once. */
-        if (accessValidation(prisonerID) && prisoner[prisonerID] == null) {
-            /*Initialise prisoner depending on ID. */
-            prisoner[prisonerID] = new Prisoner(betrayedPartner);
+    private boolean isDecisionFinal() {
+        return currentStatus == caseStatus.DECISION_MADE && !decisionPending;
+    }
+
+    /**
+     * Must be called while holding the lock of the case.
+     **/
+    private long recordPrisonerDecision(int prisonerID, boolean betrayedPartner) {
+        checkNotFrozen();
+        /*Check input. Only allow the prisoner to decide once in each round. */
+        if (accessValidation(prisonerID) && currentStatus != caseStatus.DECISION_MADE && !hasDecidedThisRound(prisonerID)) {
+            if (prisoner[prisonerID] == null) {
+                /*Initialise prisoner depending on ID. */
+                prisoner[prisonerID] = new Prisoner(betrayedPartner, newSentence(caseID, prisonerID));
+            }
+            prisoner[prisonerID].decide(betrayedPartner);
+            /*The round is kept with the decision so a replay can skip decisions already in the snapshot. */
+            appendToJournal(CaseJournal.DECISION_LOGGED, prisonerID, (roundsPlayed << 1) | (betrayedPartner ? 1 : 0),
+                    prisoner[prisonerID].getYearsReceived());
             currentStatus = caseStatus.WAITING_REPLY; /*Wait for other prisoner to reply. */
-            calculateSentenceReduction(); /* Calculate the sentence reduction.*/
+            calculateSentenceReduction(true); /* Calculate the sentence reduction.*/
+            return lastJournalSequence;
         } else {
             throw new IllegalArgumentException("Index is out of bounds!");
         }
@@ -66,70 +212,466 @@ public class Case {
      * Method used to externally reduce the prison sentence by higher authority (Appeals Court).
      */
     public void reducePrisonSentence(int prisonerID, int sentenceReduction) {
-        if (accessValidation(prisonerID)) {
-            /*Reduce sentence only if access validation passes.*/
-            prisoner[prisonerID].reduceSentence(sentenceReduction);
+        awaitJournal(recordSentenceReduction(prisonerID, sentenceReduction));
+    }
+
+    private long recordSentenceReduction(int prisonerID, int sentenceReduction) {
+        caseLock.lock();
+        try {
+            checkNotFrozen();
+            if (accessValidation(prisonerID) && prisoner[prisonerID] != null) {
+                /*Reduce sentence only if access validation passes.*/
+                prisoner[prisonerID].reduceSentence(sentenceReduction);
+                publishState();
+                appendToJournal(CaseJournal.SENTENCE_REDUCED, prisonerID, prisoner[prisonerID].getYearsReceived(), 0);
+            }
+            return lastJournalSequence;
+        } finally {
+            caseLock.unlock();
+        }
+    }
+
+    /**
+     * Method used to reject a change of a case that has moved to another node or to the archive.
+     * Must be called while holding the lock of the case.
+     **/
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Case " + caseID + " no longer accepts changes!");
+        }
+    }
+
+    /**
+     * Method used to publish the state of the case. Must be called while holding the lock of the case.
+     * Nothing is published while the decision is waiting for the journal.
+     **/
+    private void publishState() {
+        if (decisionPending) {
+            return;
+        }
+        long updated = CaseRecord.withStatus(state, currentStatus);
+        for (int prisonerID = 0; prisonerID < NUMBER_PRISONERS; prisonerID++) {
+            if (prisoner[prisonerID] != null) {
+                updated = CaseRecord.withPrisoner(updated, prisonerID, prisoner[prisonerID].hasBetrayedPartner(),
+                        prisoner[prisonerID].getYearsReceived());
+            }
+        }
+        state = CaseRecord.nextVersion(updated);
+    }
+
+    /**
+     * Method used to record a change in the journal. Must be called while holding the lock of the case.
+     **/
+    private void appendToJournal(byte recordType, int prisonerID, int value1, int value2) {
+        if (journal != null) {
+            lastJournalSequence = journal.append(recordType, caseID, prisonerID, value1, value2);
+        }
+    }
+
+    /**
+     * Method used to wait until the changes of the case are durable. Called without holding the lock of the case.
+     **/
+    private void awaitJournal(long journalSequence) {
+        if (journal != null) {
+            try {
+                journal.awaitCommit(journalSequence);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Case " + caseID + " could not be stored", e);
+            }
+        }
+    }
+
+    /**
+     * Method used to poll if decision is available. Does not take the lock.
+     **/
+    public boolean isSentencingAvailable() {
+        return CaseRecord.getStatus(state) == caseStatus.DECISION_MADE;
+    }
+
+    /**
+     * Returns the current status of the case. Does not take the lock.
+     **/
+    caseStatus getStatus() {
+        return CaseRecord.getStatus(state);
+    }
+
+
+    /**
+     * Method used to register a listener that is called back once the decision is available.
+     * If the decision has already been made the listener is called straight away.
+     **/
+    public void registerSentenceListener(int prisonerID, SentenceListener listener) {
+        caseLock.lock();
+        try {
+            if (accessValidation(prisonerID) && listener != null) {
+                if (isDecisionFinal()) {
+                    SentenceNotifier.notifyListener(listener, caseID, prisonerID);
+                } else {
+                    sentenceListener[prisonerID] = listener;
+                }
+            } else {
+                throw new IllegalArgumentException("ID is not valid.");
+            }
+        } finally {
+            caseLock.unlock();
         }
     }
 
     /**
-     * Method used to poll if decision is available.
+     * Method used to wait for the decision to become available (long polling).
+     * Returns as soon as the decision is made or once the timeout expires.
      **/
-    public synchronized boolean isSentencingAvailable() {
-        if (currentStatus == caseStatus.DECISION_MADE) {
+    public boolean awaitSentencing(long timeoutMillis) throws InterruptedException {
+        if (isSentencingAvailable()) {
             return true;
-        } else {
-            return false;
+        }
+        caseLock.lock();
+        try {
+            long timeLeft = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (!isDecisionFinal() && timeLeft > 0) {
+                timeLeft = decisionMade.awaitNanos(timeLeft);
+            }
+            return isDecisionFinal();
+        } finally {
+            caseLock.unlock();
         }
     }
 
+    /**
+     * Method used to wake up all the prisoners waiting for the decision.
+     **/
+    private void notifySentenceAvailable() {
+        decisionMade.signalAll(); /*Wake up long polling requests. */
+        for (int prisonerID = 0; prisonerID < NUMBER_PRISONERS; prisonerID++) {
+            if (sentenceListener[prisonerID] != null) {
+                SentenceNotifier.notifyListener(sentenceListener[prisonerID], caseID, prisonerID);
+                sentenceListener[prisonerID] = null; /*Only notify once. */
+            }
+        }
+    }
 
     /**
      * This method processes the decision of both users and reduces the sentence accordingly.
+     * Only the round just played is computed, the earlier rounds are already in the running totals.
+     * Nothing is recorded in the journal while the case is being recovered.
      **/
-    private void calculateSentenceReduction() {
+    private void calculateSentenceReduction(boolean recordChanges) {
         /*Decision not made yet. Waiting for other prisoner. */
-        if ((currentStatus != caseStatus.DECISION_MADE) && (prisoner[PRISONER1_ID] == null || prisoner[PRISONER2_ID] == null)) {
+        if (!hasDecidedThisRound(PRISONER1_ID) || !hasDecidedThisRound(PRISONER2_ID)) {
             currentStatus = caseStatus.WAITING_REPLY;
         } else {
             /*Calculate decision. Implements table discussed. */
-            if (prisoner[PRISONER1_ID].hasBetrayedPartner()) {
-                if (prisoner[PRISONER2_ID].hasBetrayedPartner()) {
-                    prisoner[PRISONER1_ID].reduceSentence(1);
-                    prisoner[PRISONER2_ID].reduceSentence(1);
-                } else {
-                    prisoner[PRISONER1_ID].reduceSentence(3);
-                    prisoner[PRISONER2_ID].reduceSentence(2);
-                }
+            boolean prisoner1Betrayed = prisoner[PRISONER1_ID].hasBetrayedPartner();
+            boolean prisoner2Betrayed = prisoner[PRISONER2_ID].hasBetrayedPartner();
+            prisoner[PRISONER1_ID].endRound(sentenceReduction(prisoner1Betrayed, prisoner2Betrayed));
+            prisoner[PRISONER2_ID].endRound(sentenceReduction(prisoner2Betrayed, prisoner1Betrayed));
+            if (history != null) {
+                history.addRound(prisoner1Betrayed, prisoner2Betrayed);
+            }
+            roundsPlayed++;
+            if (roundsPlayed < totalRounds) {
+                currentStatus = caseStatus.OPEN; /*Wait for the decisions of the next round. */
             } else {
-                if (prisoner[PRISONER2_ID].hasBetrayedPartner()) {
-                    prisoner[PRISONER1_ID].reduceSentence(2);
-                    prisoner[PRISONER2_ID].reduceSentence(3);
-                } else {
-                    prisoner[PRISONER1_ID].reduceSentence(5);
-                    prisoner[PRISONER2_ID].reduceSentence(5);
-                }
+                /*Reduce by the average of the rounds, so the sentence stays in the same range however long the game. */
+                prisoner[PRISONER1_ID].reduceSentence(prisoner[PRISONER1_ID].getAverageReduction(totalRounds));
+                prisoner[PRISONER2_ID].reduceSentence(prisoner[PRISONER2_ID].getAverageReduction(totalRounds));
+                /*Decision has been set.*/
+                currentStatus = caseStatus.DECISION_MADE;
+            }
+        }
+        if (recordChanges && currentStatus == caseStatus.DECISION_MADE) {
+            appendToJournal(CaseJournal.SENTENCE_COMPUTED, 0, prisoner[PRISONER1_ID].getYearsReceived(), prisoner[PRISONER2_ID].getYearsReceived());
+            /*Published and notified by completeDecision once the journal has it. */
+            decisionPending = true;
+        } else {
+            publishState();
+        }
+    }
+
+    /**
+     * Returns the sentence reduction given to a prisoner depending on both decisions.
+     * Betraying a partner who cooperates gives 3 years, being betrayed 2, both betraying 1
+     * and both cooperating 5.
+     **/
+    static int sentenceReduction(boolean betrayedPartner, boolean partnerBetrayed) {
+        if (betrayedPartner) {
+            return partnerBetrayed ? 1 : 3;
+        } else {
+            return partnerBetrayed ? 2 : 5;
+        }
+    }
+
+    /**
+     * Returns a new randomly generated sentence for the prisoner of the case.
+     **/
+    static int newSentence(int caseID, int prisonerID) {
+        long drawKey = RandomSource.drawKey(caseID, prisonerID, RandomSource.SENTENCE_STREAM, 0);
+        return RandomSource.current().nextInt(drawKey, MAX_SENTENCE - MIN_SENTENCE + 1) + MIN_SENTENCE;
+    }
+
+    /**
+     * Returns the number of the next appeal of the prisoner, used to draw its outcome.
+     * Appeals are counted from the time the case was loaded.
+     **/
+    int nextAppealNumber(int prisonerID) {
+        caseLock.lock();
+        try {
+            if (!accessValidation(prisonerID) || prisoner[prisonerID] == null) {
+                return 0;
             }
-            /*Decision has been set.*/
-            currentStatus = caseStatus.DECISION_MADE;
+            return prisoner[prisonerID].appealsConsidered++;
+        } finally {
+            caseLock.unlock();
         }
     }
 
     /**
-     * Method used to get the prisoner's sentence.
+     * Method used to get the prisoner's sentence. Does not take the lock.
      */
     public int getPrisonerSentence(int prisonerID) {
-        if (accessValidation(prisonerID)) {
-            /* Get the sentence for the prisoner. */
-            return prisoner[prisonerID].getYearsReceived();
-        } else {
+        long currentState = state;
+        if (!accessValidation(prisonerID)) {
             throw new IllegalArgumentException("ID is not valid.");
+        } else if (!CaseRecord.hasDecided(currentState, prisonerID)) {
+            throw new IllegalStateException("Prisoner has not made a decision yet.");
+        } else {
+            /* Get the sentence for the prisoner. */
+            return CaseRecord.getSentence(currentState, prisonerID);
+        }
+    }
+
+    /**
+     * Method used to get the sentences of both prisoners.
+     * Sentences are only known once the decision has been made.
+     * Both sentences are read from the same state, without taking the lock.
+     */
+    public int[] getSentences() {
+        long currentState = state;
+        int[] sentences = new int[NUMBER_PRISONERS];
+        for (int prisonerID = 0; prisonerID < NUMBER_PRISONERS; prisonerID++) {
+            if (CaseRecord.getStatus(currentState) == caseStatus.DECISION_MADE) {
+                sentences[prisonerID] = CaseRecord.getSentence(currentState, prisonerID);
+            } else {
+                sentences[prisonerID] = SENTENCE_UNKNOWN;
+            }
+        }
+        return sentences;
+    }
+
+    /**
+     * Method used during recovery, or on a replica, to restore a decision read from the journal.
+     * Decisions of rounds already restored from the snapshot are skipped.
+     **/
+    void restoreDecision(int prisonerID, int round, boolean betrayedPartner, int yearsReceived) {
+        caseLock.lock();
+        try {
+            if (accessValidation(prisonerID) && round == roundsPlayed && currentStatus != caseStatus.DECISION_MADE
+                    && !hasDecidedThisRound(prisonerID)) {
+                if (prisoner[prisonerID] == null) {
+                    prisoner[prisonerID] = new Prisoner(betrayedPartner, yearsReceived);
+                }
+                prisoner[prisonerID].decide(betrayedPartner);
+                currentStatus = caseStatus.WAITING_REPLY;
+                calculateSentenceReduction(false);
+                if (currentStatus == caseStatus.DECISION_MADE) {
+                    notifySentenceAvailable(); /*Prisoners may be waiting on a replica. */
+                }
+            }
+        } finally {
+            caseLock.unlock();
+        }
+    }
+
+    /**
+     * Method used during recovery to restore a sentence read from the journal.
+     **/
+    void restoreSentence(int prisonerID, int yearsReceived) {
+        caseLock.lock();
+        try {
+            if (accessValidation(prisonerID) && prisoner[prisonerID] != null) {
+                prisoner[prisonerID].yearsReceived = yearsReceived;
+                publishState();
+            }
+        } finally {
+            caseLock.unlock();
+        }
+    }
+
+    /**
+     * Method used during recovery to restore the outcome of the case read from the journal.
+     **/
+    void restoreDecisionMade(int prisoner1Sentence, int prisoner2Sentence) {
+        caseLock.lock();
+        try {
+            if (prisoner[PRISONER1_ID] != null && prisoner[PRISONER2_ID] != null) {
+                prisoner[PRISONER1_ID].yearsReceived = prisoner1Sentence;
+                prisoner[PRISONER2_ID].yearsReceived = prisoner2Sentence;
+                currentStatus = caseStatus.DECISION_MADE;
+                publishState();
+                notifySentenceAvailable();
+            }
+        } finally {
+            caseLock.unlock();
+        }
+    }
+
+    /**
+     * Method used to write the case to a snapshot.
+     * Layout is case ID, status, number of rounds and rounds played, then a flag byte, the sentence
+     * and the total reduction of each prisoner, followed by the history of an iterated case.
+     **/
+    public void writeTo(DataOutput output) throws IOException {
+        caseLock.lock();
+        try {
+            output.writeInt(caseID);
+            output.writeByte(currentStatus.ordinal());
+            output.writeInt(totalRounds);
+            output.writeInt(roundsPlayed);
+            for (Prisoner currentPrisoner : prisoner) {
+                if (currentPrisoner == null) {
+                    output.writeByte(0);
+                    output.writeInt(0);
+                    output.writeInt(0);
+                } else {
+                    /*Bit 0 decided, bit 1 betrayed, bit 2 decided in the round being played. */
+                    output.writeByte(1 | (currentPrisoner.hasBetrayedPartner() ? 2 : 0) | (currentPrisoner.decidedThisRound ? 4 : 0));
+                    output.writeInt(currentPrisoner.getYearsReceived());
+                    output.writeInt(currentPrisoner.reductionTotal);
+                }
+            }
+            if (history != null) {
+                history.writeTo(output);
+            }
+        } finally {
+            caseLock.unlock();
+        }
+    }
+
+    /**
+     * Method used to write the case for a replica, followed by the sequence of the last journal record of the case.
+     * Both are read under the lock of the case, so the records up to that sequence are already in the written
+     * state and the replica must not apply them again.
+     **/
+    public void writeForReplica(DataOutput output) throws IOException {
+        caseLock.lock();
+        try {
+            writeTo(output);
+            output.writeLong(lastJournalSequence);
+        } finally {
+            caseLock.unlock();
+        }
+    }
+
+    /**
+     * Method used to write the case for the node it is handed off to. The case accepts no more changes
+     * once written, so none can be lost between writing it and removing it from this node.
+     **/
+    public void writeForHandoff(DataOutput output) throws IOException {
+        caseLock.lock();
+        try {
+            writeTo(output);
+            frozen = true;
+        } finally {
+            caseLock.unlock();
+        }
+    }
+
+    /**
+     * Method used to accept changes again after the handoff failed and the case stays on this node.
+     **/
+    public void cancelHandoff() {
+        caseLock.lock();
+        try {
+            frozen = false;
+        } finally {
+            caseLock.unlock();
+        }
+    }
+
+    /**
+     * Checks if the case no longer accepts changes because it was handed off or archived.
+     **/
+    boolean isFrozen() {
+        caseLock.lock();
+        try {
+            return frozen;
+        } finally {
+            caseLock.unlock();
+        }
+    }
+
+    /**
+     * Method used to freeze a finished case so it can be moved to the archive. Returns the record of the case,
+     * or CaseRecord.EMPTY if the decision has not been made. Returns once the move is stored in the journal.
+     **/
+    long archive() {
+        long archivedState;
+        long journalSequence;
+        caseLock.lock();
+        try {
+            if (frozen || !isDecisionFinal()) {
+                return CaseRecord.EMPTY;
+            }
+            frozen = true;
+            archivedState = state;
+            appendToJournal(CaseJournal.CASE_ARCHIVED, 0, (int) archivedState, 0);
+            journalSequence = lastJournalSequence;
+        } finally {
+            caseLock.unlock();
+        }
+        awaitJournal(journalSequence);
+        return archivedState;
+    }
+
+    long getFinishedSince() {
+        return finishedSince;
+    }
+
+    void setFinishedSince(long finishedSince) {
+        this.finishedSince = finishedSince;
+    }
+
+    /**
+     * Method used to read a case written by writeTo.
+     * Snapshots of version 1 only hold single round cases, without the round fields.
+     **/
+    public static Case readFrom(DataInput input, CaseJournal journal, int snapshotVersion) throws IOException {
+        int restoredCaseID = input.readInt();
+        caseStatus restoredStatus = caseStatus.values()[input.readByte()];
+        int restoredRounds = snapshotVersion >= 2 ? input.readInt() : 1;
+        Case restoredCase = new Case(restoredCaseID, journal, restoredRounds);
+        restoredCase.currentStatus = restoredStatus;
+        if (snapshotVersion >= 2) {
+            restoredCase.roundsPlayed = input.readInt();
+        } else if (restoredStatus == caseStatus.DECISION_MADE) {
+            restoredCase.roundsPlayed = 1;
         }
+        for (int prisonerID = 0; prisonerID < NUMBER_PRISONERS; prisonerID++) {
+            int flags = input.readByte();
+            int yearsReceived = input.readInt();
+            if ((flags & 1) != 0) {
+                Prisoner restoredPrisoner = new Prisoner((flags & 2) != 0, yearsReceived);
+                if (snapshotVersion >= 2) {
+                    restoredPrisoner.reductionTotal = input.readInt();
+                    restoredPrisoner.decidedThisRound = (flags & 4) != 0;
+                } else {
+                    restoredPrisoner.decidedThisRound = restoredStatus != caseStatus.DECISION_MADE;
+                }
+                restoredCase.prisoner[prisonerID] = restoredPrisoner;
+            } else if (snapshotVersion >= 2) {
+                input.readInt();
+            }
+        }
+        if (restoredCase.history != null) {
+            restoredCase.history = RoundHistory.readFrom(input, restoredRounds);
+        }
+        restoredCase.publishState();
+        return restoredCase;
     }
 
     /**
      * Class that represents one of the user, the prisoner.
-     * It contains the year and if they betrayed their partner.
+     * It contains the year and if they betrayed their partner (in the last round of an iterated case).
      * Initialised only if the prisoner has made a decision.
      */
     static class Prisoner {
@@ -151,12 +693,34 @@ public class Case {
             }
         }
 
+        /**
+         * Method used to add the reduction of the round just played.
+         **/
+        void endRound(int roundReduction) {
+            reductionTotal += roundReduction;
+            decidedThisRound = false;
+        }
+
+        /**
+         * Returns the reduction of all the rounds divided by the number of rounds, rounded to the nearest year.
+         **/
+        int getAverageReduction(int totalRounds) {
+            return (reductionTotal + totalRounds / 2) / totalRounds;
+        }
+
+        void decide(boolean betrayedPartner) {
+            this.betrayedPartner = betrayedPartner;
+            this.decidedThisRound = true;
+        }
+
         private int yearsReceived;
         private boolean betrayedPartner;
+        private boolean decidedThisRound;
+        private int reductionTotal; /*Sum of the reductions of the rounds played. */
+        private int appealsConsidered;
 
-        public Prisoner(boolean betrayedPartner) {
-            /* Randomly generate sentence.*/
-            this.yearsReceived = (int) (Math.random() * 24) + 3;
+        public Prisoner(boolean betrayedPartner, int yearsReceived) {
+            this.yearsReceived = yearsReceived;
             this.betrayedPartner = betrayedPartner;
         }
     }
@@ -0,0 +1,166 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compact store of finished cases moved out of the live cases.
+ * Each case is one long holding its ID and the state of its record (see CaseRecord) without the version,
+ * kept in an open addressing table, so an archived case costs about 16 bytes and no objects.
+ * Changes are made one at a time and cases are read without locking.
+ **/
+public class CaseArchive {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final long STATE_MASK = 0xFFFFFFFFL;
+  private static final long REMOVED = 0x2L; /*State of a removed case. Not present, so never a record, and never 0. */
+
+  private volatile AtomicLongArray slots = new AtomicLongArray(INITIAL_CAPACITY); /*Replaced when it grows. */
+  private volatile int size;
+  private int usedSlots; /*Cases and removed cases. */
+  private int maxCaseID = -1;
+
+  /**
+   * Returns the record of the archived case, or CaseRecord.EMPTY if it is not archived.
+   **/
+  public long get(int caseID) {
+    AtomicLongArray table = slots;
+    int mask = table.length() - 1;
+    for (int index = slotIndex(caseID, mask); ; index = (index + 1) & mask) {
+      long slot = table.get(index);
+      if (slot == 0) {
+        return CaseRecord.EMPTY;
+      }
+      if ((int) (slot >>> 32) == caseID) {
+        long record = slot & STATE_MASK;
+        return CaseRecord.isPresent(record) ? record : CaseRecord.EMPTY;
+      }
+    }
+  }
+
+  public boolean contains(int caseID) {
+    return get(caseID) != CaseRecord.EMPTY;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the highest ID ever archived, or -1 if none was.
+   **/
+  public synchronized int getMaxCaseID() {
+    return maxCaseID;
+  }
+
+  /**
+   * Method used to archive a case, replacing any record already archived for it.
+   **/
+  public synchronized void put(int caseID, long record) {
+    if (!CaseRecord.isPresent(record)) {
+      throw new IllegalArgumentException("Record is not valid!");
+    }
+    AtomicLongArray table = slots;
+    if ((usedSlots + 1) * 2 > table.length()) {
+      /*Readers keep using the old table until the new one is complete. Removed cases are dropped. */
+      AtomicLongArray grownTable = new AtomicLongArray(Math.max(table.length(), Integer.highestOneBit(size * 4 + 1)));
+      usedSlots = 0;
+      for (int index = 0; index < table.length(); index++) {
+        long slot = table.get(index);
+        if (CaseRecord.isPresent(slot & STATE_MASK)) {
+          insert(grownTable, slot);
+          usedSlots++;
+        }
+      }
+      slots = grownTable;
+      table = grownTable;
+    }
+    long previous = insert(table, ((long) caseID << 32) | (record & STATE_MASK));
+    if (previous == 0) {
+      usedSlots++;
+    }
+    if (!CaseRecord.isPresent(previous & STATE_MASK)) {
+      size++;
+    }
+    maxCaseID = Math.max(maxCaseID, caseID);
+  }
+
+  /**
+   * Method used to remove a case, e.g. once it has been handed to another node. Returns false if it is not archived.
+   * The slot is kept, so the cases stored after it can still be found.
+   **/
+  public synchronized boolean remove(int caseID) {
+    if (!contains(caseID)) {
+      return false;
+    }
+    insert(slots, ((long) caseID << 32) | REMOVED);
+    size--;
+    return true;
+  }
+
+  /**
+   * Returns the IDs of the archived cases. Cases changed meanwhile may or may not be included.
+   **/
+  public int[] getCaseIDs() {
+    long[] entries = entries();
+    int[] caseIDs = new int[entries.length];
+    for (int index = 0; index < entries.length; index++) {
+      caseIDs[index] = (int) (entries[index] >>> 32);
+    }
+    return caseIDs;
+  }
+
+  /**
+   * Method used to write all the archived cases. Cases changed meanwhile may or may not be written.
+   **/
+  public void writeTo(DataOutput output) throws IOException {
+    long[] entries = entries();
+    output.writeInt(entries.length);
+    for (long entry : entries) {
+      output.writeLong(entry);
+    }
+  }
+
+  /**
+   * Method used to add the cases written by writeTo.
+   **/
+  public void readFrom(DataInput input) throws IOException {
+    int numberOfCases = input.readInt();
+    for (int index = 0; index < numberOfCases; index++) {
+      long entry = input.readLong();
+      put((int) (entry >>> 32), entry & STATE_MASK);
+    }
+  }
+
+  private long[] entries() {
+    AtomicLongArray table = slots;
+    long[] entries = new long[table.length()];
+    int count = 0;
+    for (int index = 0; index < table.length(); index++) {
+      long slot = table.get(index);
+      if (CaseRecord.isPresent(slot & STATE_MASK)) {
+        entries[count++] = slot;
+      }
+    }
+    return Arrays.copyOf(entries, count);
+  }
+
+  /*Returns the slot replaced, or 0 if the case was not in the table. */
+  private static long insert(AtomicLongArray table, long entry) {
+    int caseID = (int) (entry >>> 32);
+    int mask = table.length() - 1;
+    for (int index = slotIndex(caseID, mask); ; index = (index + 1) & mask) {
+      long slot = table.get(index);
+      if (slot == 0 || (int) (slot >>> 32) == caseID) {
+        table.set(index, entry);
+        return slot;
+      }
+    }
+  }
+
+  private static int slotIndex(int caseID, int mask) {
+    int hash = caseID * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+}
@@ -0,0 +1,67 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class responsible for handing out new case IDs.
+ * Threads are spread over a fixed number of stripes, each reserving a small block of IDs at a time,
+ * so threads only touch the shared counter once per block and rarely wait for each other.
+ * Blocks belong to stripes rather than threads, so threads that come and go leave no blocks behind,
+ * and at most one partly used block per stripe is skipped when the server restarts.
+ * The IDs can be limited to a range, e.g. the one of a node of a cluster.
+ **/
+public class CaseIdAllocator {
+
+  private static final int BLOCK_SIZE = 64; /*Number of IDs reserved by a stripe at once. */
+  private static final int MAX_STRIPES = 64;
+
+  /**
+   * Block of IDs reserved by one stripe. Guarded by its own monitor.
+   **/
+  private static final class Block {
+    private long nextID;
+    private long endID; /*First ID after the block. */
+  }
+
+  private final AtomicLong nextBlockStart; /*A long, so it cannot wrap around once the IDs run out. */
+  private final int lastID; /*Highest ID that may be handed out. */
+  private final Block[] stripes;
+
+  public CaseIdAllocator(int firstID) {
+    this(firstID, Integer.MAX_VALUE);
+  }
+
+  public CaseIdAllocator(int firstID, int lastID) {
+    this.nextBlockStart = new AtomicLong(firstID);
+    this.lastID = lastID;
+    int numberOfStripes = Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1, MAX_STRIPES);
+    this.stripes = new Block[numberOfStripes];
+    for (int stripe = 0; stripe < numberOfStripes; stripe++) {
+      stripes[stripe] = new Block();
+    }
+  }
+
+  /**
+   * Method to get the next free ID. IDs are unique but not handed out in order across threads.
+   **/
+  public int nextID() {
+    Block block = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+    synchronized (block) {
+      if (block.nextID == block.endID) {
+        long blockStart = nextBlockStart.getAndAdd(BLOCK_SIZE);
+        if (blockStart < 0 || blockStart > lastID) {
+          throw new IllegalStateException("No case IDs left!");
+        }
+        block.nextID = blockStart;
+        block.endID = Math.min(blockStart + BLOCK_SIZE, (long) lastID + 1);
+      }
+      return (int) block.nextID++;
+    }
+  }
+
+  /**
+   * Returns an ID from which new cases can safely be numbered, e.g. after a restart.
+   * Every ID handed out so far is lower, but IDs left in the blocks of the stripes may be lower too.
+   **/
+  public int peekNextID() {
+    return (int) Math.min(nextBlockStart.get(), Integer.MAX_VALUE);
+  }
+}
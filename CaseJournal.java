@@ -0,0 +1,366 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log for case state changes.
+ * Changes are appended to an in-memory buffer while the case is locked. A background
+ * thread writes everything appended since the last write in one go (group commit)
+ * and forces it to disk according to the fsync policy.
+ * The log is split into numbered segments so that old segments can be removed
+ * once a snapshot covers them.
+ **/
+public class CaseJournal implements AutoCloseable {
+
+  /**
+   * When the log is forced to disk.
+   **/
+  public enum FsyncPolicy {
+    ALWAYS, /*Every group commit is forced before callers are released. */
+    INTERVAL, /*Forced at most once per interval. A crash can lose the last interval. */
+    NEVER /*Left to the operating system. */
+  }
+
+  /* Record types. */
+  public static final byte CASE_CREATED = 1; /*Value 1 is the number of rounds. */
+  public static final byte DECISION_LOGGED = 2; /*Value 1 is round << 1 | betrayed, value 2 the sentence. */
+  public static final byte SENTENCE_COMPUTED = 3;
+  public static final byte SENTENCE_REDUCED = 4;
+  public static final byte CASE_RETIRED = 5;
+  public static final byte CASE_ARCHIVED = 6; /*Value 1 is the state of the case as packed by CaseRecord. */
+
+  /* Record layout: type, case ID, prisoner ID, two values and a checksum of the rest. */
+  private static final int RECORD_BODY_SIZE = 1 + 4 + 1 + 4 + 4;
+  private static final int RECORD_SIZE = RECORD_BODY_SIZE + 4;
+
+  private static final String SEGMENT_PREFIX = "journal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  static final long FSYNC_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /**
+   * Interface used to replay the records of the log.
+   **/
+  public interface RecordHandler {
+    void apply(byte type, int caseID, int prisonerID, int value1, int value2);
+  }
+
+  /**
+   * Interface used to see each record as it is appended, e.g. to ship it to replicas.
+   * Called while holding the journal lock, so records are seen in sequence order and must be handled quickly.
+   **/
+  public interface RecordListener {
+    void appended(long sequence, byte type, int caseID, int prisonerID, int value1, int value2);
+  }
+
+  private final Path directory;
+  private final FsyncPolicy fsyncPolicy;
+  private final Thread committerThread;
+  private ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream(64 * 1024);
+  private ByteArrayOutputStream writingBytes = new ByteArrayOutputStream(64 * 1024);
+  private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+  private final CRC32 checksum = new CRC32();
+  private FileChannel channel;
+  private int segment;
+  /* Lock used instead of synchronized so virtual threads waiting for a commit are not pinned. */
+  private final ReentrantLock journalLock = new ReentrantLock();
+  private final Condition recordsPending = journalLock.newCondition();
+  private final Condition batchCommitted = journalLock.newCondition();
+  private long appendedSequence; /*Last record appended. Guarded by the journal lock. */
+  private long committedSequence; /*Last record written (and forced if required). Guarded by the journal lock. */
+  private long lastForceNanos = System.nanoTime();
+  private IOException commitError;
+  private boolean running = true;
+  private boolean committerStopped;
+  private RecordListener recordListener; /*Guarded by the journal lock. Not used if not set. */
+
+  /**
+   * Object constructor. Starts writing to the given segment of the log.
+   **/
+  public CaseJournal(Path directory, int segment, FsyncPolicy fsyncPolicy) throws IOException {
+    this.directory = directory;
+    this.fsyncPolicy = fsyncPolicy;
+    Files.createDirectories(directory);
+    openSegment(segment);
+    this.committerThread = new Thread(this::commitLoop, "journal-committer");
+    this.committerThread.setDaemon(true);
+    this.committerThread.start();
+  }
+
+  /**
+   * Method used to append a record. Returns its sequence number which can be passed to awaitCommit.
+   * Callers should hold the lock of the case so records of a case are in the same order as the changes.
+   **/
+  public long append(byte type, int caseID, int prisonerID, int value1, int value2) {
+    journalLock.lock();
+    try {
+      recordBuffer.clear();
+      recordBuffer.put(type).putInt(caseID).put((byte) prisonerID).putInt(value1).putInt(value2);
+      checksum.reset();
+      checksum.update(recordBuffer.array(), 0, RECORD_BODY_SIZE);
+      recordBuffer.putInt((int) checksum.getValue());
+      pendingBytes.write(recordBuffer.array(), 0, RECORD_SIZE);
+      appendedSequence++;
+      if (recordListener != null) {
+        recordListener.appended(appendedSequence, type, caseID, prisonerID, value1, value2);
+      }
+      recordsPending.signal(); /*Wake up the committer. */
+      return appendedSequence;
+    } finally {
+      journalLock.unlock();
+    }
+  }
+
+  /**
+   * Method used to set the listener told about every record appended from now on.
+   * Returns the sequence of the last record appended before, which the listener does not see.
+   **/
+  public long setRecordListener(RecordListener listener) {
+    journalLock.lock();
+    try {
+      recordListener = listener;
+      return appendedSequence;
+    } finally {
+      journalLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the sequence of the last record written by the committer (and forced if the policy requires it).
+   **/
+  public long getCommittedSequence() {
+    journalLock.lock();
+    try {
+      return committedSequence;
+    } finally {
+      journalLock.unlock();
+    }
+  }
+
+  /**
+   * Method used to wait until the record is durable.
+   * Only the ALWAYS policy waits, the other policies accept losing the latest records on a crash.
+   **/
+  public void awaitCommit(long sequence) throws IOException {
+    if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+      journalLock.lock();
+      try {
+        waitForCommit(sequence);
+      } finally {
+        journalLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Method used to wait until the record has been written by the committer. Must hold the journal lock.
+   **/
+  private void waitForCommit(long sequence) throws IOException {
+    while (commitError == null && committedSequence < sequence) {
+      if (committerStopped) {
+        throw new IOException("Journal is closed!");
+      }
+      try {
+        batchCommitted.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for the journal", e);
+      }
+    }
+    if (commitError != null) {
+      throw commitError;
+    }
+  }
+
+  /**
+   * Method used to start a new segment. Returns the number of the new segment.
+   * Every record appended before this call is in an older segment.
+   **/
+  public int roll() throws IOException {
+    journalLock.lock();
+    try {
+      /*Appends can still be made while waiting, so wait until the committer is idle. */
+      while (committedSequence < appendedSequence) {
+        waitForCommit(appendedSequence);
+      }
+      channel.force(false);
+      channel.close();
+      openSegment(segment + 1);
+      return segment;
+    } finally {
+      journalLock.unlock();
+    }
+  }
+
+  /**
+   * Method used to remove segments older than the given one.
+   **/
+  public void deleteSegmentsBefore(int firstKept) throws IOException {
+    for (int oldSegment : listSegments(directory)) {
+      if (oldSegment < firstKept) {
+        Files.deleteIfExists(segmentPath(directory, oldSegment));
+      }
+    }
+  }
+
+  /**
+   * Loop run by the committer thread.
+   **/
+  private void commitLoop() {
+    while (true) {
+      long batchSequence;
+      journalLock.lock();
+      try {
+        while (running && pendingBytes.size() == 0) {
+          recordsPending.awaitUninterruptibly();
+        }
+        if (!running && pendingBytes.size() == 0) {
+          committerStopped = true;
+          batchCommitted.signalAll();
+          return;
+        }
+        /*Swap buffers so appends can continue while the batch is written. */
+        ByteArrayOutputStream batch = pendingBytes;
+        pendingBytes = writingBytes;
+        writingBytes = batch;
+        batchSequence = appendedSequence;
+      } finally {
+        journalLock.unlock();
+      }
+      IOException writeError = null;
+      try {
+        ByteBuffer buffer = ByteBuffer.wrap(writingBytes.toByteArray());
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        forceIfRequired();
+      } catch (IOException e) {
+        writeError = e;
+      }
+      writingBytes.reset();
+      journalLock.lock();
+      try {
+        if (writeError != null) {
+          commitError = writeError;
+        }
+        committedSequence = batchSequence;
+        batchCommitted.signalAll(); /*Release the callers waiting for this batch. */
+      } finally {
+        journalLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Forces the segment to disk if the fsync policy requires it.
+   **/
+  private void forceIfRequired() throws IOException {
+    if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+      channel.force(false);
+    } else if (fsyncPolicy == FsyncPolicy.INTERVAL && System.nanoTime() - lastForceNanos >= FSYNC_INTERVAL_NANOS) {
+      channel.force(false);
+      lastForceNanos = System.nanoTime();
+    }
+  }
+
+  private void openSegment(int newSegment) throws IOException {
+    this.segment = newSegment;
+    this.channel = FileChannel.open(segmentPath(directory, newSegment),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Stops the committer once everything appended has been written and closes the segment.
+   **/
+  @Override
+  public void close() throws IOException {
+    journalLock.lock();
+    try {
+      running = false;
+      recordsPending.signal();
+    } finally {
+      journalLock.unlock();
+    }
+    try {
+      committerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    channel.force(false);
+    channel.close();
+  }
+
+  /**
+   * Returns the number of the newest segment in the directory or -1 if there is none.
+   **/
+  public static int lastSegment(Path directory) throws IOException {
+    int[] segments = listSegments(directory);
+    return segments.length == 0 ? -1 : segments[segments.length - 1];
+  }
+
+  /**
+   * Method used to replay all the records from the given segment onwards.
+   * Replay of a segment stops at the first incomplete or corrupt record (torn write at crash).
+   **/
+  public static void replay(Path directory, int firstSegment, RecordHandler handler) throws IOException {
+    for (int foundSegment : listSegments(directory)) {
+      if (foundSegment < firstSegment) {
+        continue;
+      }
+      try (InputStream fileInput = Files.newInputStream(segmentPath(directory, foundSegment));
+           DataInputStream input = new DataInputStream(new BufferedInputStream(fileInput, 64 * 1024))) {
+        CRC32 recordChecksum = new CRC32();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        while (true) {
+          try {
+            input.readFully(record.array());
+          } catch (EOFException e) {
+            break;
+          }
+          recordChecksum.reset();
+          recordChecksum.update(record.array(), 0, RECORD_BODY_SIZE);
+          record.clear();
+          byte type = record.get();
+          int caseID = record.getInt();
+          int prisonerID = record.get();
+          int value1 = record.getInt();
+          int value2 = record.getInt();
+          if ((int) recordChecksum.getValue() != record.getInt()) {
+            System.err.println("Corrupt record found in journal segment " + foundSegment + ". Ignoring the rest of it.");
+            break;
+          }
+          handler.apply(type, caseID, prisonerID, value1, value2);
+        }
+      }
+    }
+  }
+
+  private static int[] listSegments(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return new int[0];
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.map(path -> path.getFileName().toString())
+          .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+          .mapToInt(name -> Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+          .sorted()
+          .toArray();
+    }
+  }
+
+  private static Path segmentPath(Path directory, int segment) {
+    return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+  }
+}
@@ -0,0 +1,19 @@
+/**
+ * Thrown by a node of a cluster for a case it neither holds nor owns, e.g. one it has just handed off.
+ * The case is held by another node, so the caller should read the members again and retry there.
+ **/
+public class CaseMovedException extends IllegalStateException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int caseID;
+
+  public CaseMovedException(int caseID) {
+    super("Case " + caseID + " is held by another node!");
+    this.caseID = caseID;
+  }
+
+  public int getCaseID() {
+    return caseID;
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * This class packs the whole state of a case into a single long so it can be stored
+ * in a fixed-width table and updated with one compare-and-set.
+ * Cases kept on the heap also publish their state in this form so it can be read without a lock.
+ *
+ * Bit layout (lowest bit first):
+ * 0 case exists, 1-2 status, 3-4 prisoner has decided, 5-6 prisoner betrayed, 7 case archived,
+ * 8-15 sentence of prisoner 1, 16-23 sentence of prisoner 2, 32-63 version.
+ **/
+public final class CaseRecord {
+
+  public static final long EMPTY = 0L; /*No case stored. */
+
+  private static final long PRESENT_BIT = 1L;
+  private static final int STATUS_SHIFT = 1;
+  private static final long STATUS_MASK = 0x3L << STATUS_SHIFT;
+  private static final int DECIDED_SHIFT = 3;
+  private static final int BETRAYED_SHIFT = 5;
+  private static final long ARCHIVED_BIT = 1L << 7;
+  private static final int SENTENCE_SHIFT = 8;
+  private static final int SENTENCE_BITS = 8;
+  private static final long SENTENCE_MASK = (1L << SENTENCE_BITS) - 1;
+  private static final int VERSION_SHIFT = 32;
+  private static final long STATE_MASK = (1L << VERSION_SHIFT) - 1;
+
+  private CaseRecord() {
+  }
+
+  /**
+   * Returns the record of a case that has just been opened.
+   **/
+  public static long newCase() {
+    return PRESENT_BIT | ((long) Case.caseStatus.OPEN.ordinal() << STATUS_SHIFT);
+  }
+
+  public static boolean isPresent(long record) {
+    return (record & PRESENT_BIT) != 0;
+  }
+
+  public static Case.caseStatus getStatus(long record) {
+    return Case.caseStatus.values()[(int) ((record & STATUS_MASK) >>> STATUS_SHIFT)];
+  }
+
+  public static boolean hasDecided(long record, int prisonerID) {
+    return (record & (1L << (DECIDED_SHIFT + prisonerID))) != 0;
+  }
+
+  public static boolean hasBetrayed(long record, int prisonerID) {
+    return (record & (1L << (BETRAYED_SHIFT + prisonerID))) != 0;
+  }
+
+  public static int getSentence(long record, int prisonerID) {
+    return (int) ((record >>> (SENTENCE_SHIFT + prisonerID * SENTENCE_BITS)) & SENTENCE_MASK);
+  }
+
+  /**
+   * Checks if the case has been archived, after which its appeals are no longer accepted.
+   **/
+  public static boolean isArchived(long record) {
+    return (record & ARCHIVED_BIT) != 0;
+  }
+
+  public static int getVersion(long record) {
+    return (int) (record >>> VERSION_SHIFT);
+  }
+
+  /**
+   * Returns the record with the decision of the prisoner added.
+   * Once both prisoners have decided the sentence reductions are applied and the decision is made.
+   **/
+  public static long withDecision(long record, int prisonerID, boolean betrayedPartner, int sentence) {
+    long updated = record | (1L << (DECIDED_SHIFT + prisonerID));
+    if (betrayedPartner) {
+      updated |= 1L << (BETRAYED_SHIFT + prisonerID);
+    }
+    updated = withSentenceBits(updated, prisonerID, sentence);
+    int partnerID = 1 - prisonerID;
+    if (hasDecided(updated, partnerID)) {
+      boolean partnerBetrayed = hasBetrayed(updated, partnerID);
+      updated = withSentenceBits(updated, prisonerID, Math.max(sentence - Case.sentenceReduction(betrayedPartner, partnerBetrayed), 0));
+      int partnerSentence = getSentence(updated, partnerID);
+      updated = withSentenceBits(updated, partnerID, Math.max(partnerSentence - Case.sentenceReduction(partnerBetrayed, betrayedPartner), 0));
+      updated = withStatus(updated, Case.caseStatus.DECISION_MADE);
+    } else {
+      updated = withStatus(updated, Case.caseStatus.WAITING_REPLY);
+    }
+    return nextVersion(updated);
+  }
+
+  /**
+   * Returns the record with the decision and sentence of the prisoner set, without applying any reduction.
+   **/
+  public static long withPrisoner(long record, int prisonerID, boolean betrayedPartner, int sentence) {
+    long updated = (record | (1L << (DECIDED_SHIFT + prisonerID))) & ~(1L << (BETRAYED_SHIFT + prisonerID));
+    if (betrayedPartner) {
+      updated |= 1L << (BETRAYED_SHIFT + prisonerID);
+    }
+    return withSentenceBits(updated, prisonerID, sentence);
+  }
+
+  /**
+   * Returns the record with the sentence of the prisoner reduced, never going below 0.
+   **/
+  public static long withSentenceReduced(long record, int prisonerID, int sentenceReduction) {
+    int newSentence = Math.max(getSentence(record, prisonerID) - sentenceReduction, 0);
+    return nextVersion(withSentenceBits(record, prisonerID, newSentence));
+  }
+
+  /**
+   * Returns the record of the case marked as archived.
+   **/
+  public static long withArchived(long record) {
+    return nextVersion(record | ARCHIVED_BIT);
+  }
+
+  public static long withStatus(long record, Case.caseStatus status) {
+    return (record & ~STATUS_MASK) | ((long) status.ordinal() << STATUS_SHIFT);
+  }
+
+  private static long withSentenceBits(long record, int prisonerID, int sentence) {
+    if (sentence < 0 || sentence > SENTENCE_MASK) {
+      throw new IllegalArgumentException("Sentence does not fit in the record!");
+    }
+    int shift = SENTENCE_SHIFT + prisonerID * SENTENCE_BITS;
+    return (record & ~(SENTENCE_MASK << shift)) | ((long) sentence << shift);
+  }
+
+  public static long nextVersion(long record) {
+    return (record & STATE_MASK) | ((long) (getVersion(record) + 1) << VERSION_SHIFT);
+  }
+}
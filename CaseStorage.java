@@ -0,0 +1,206 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class responsible for keeping the cases on disk so the server can restart without losing them.
+ * Every change is recorded in the journal and all the cases are periodically written to a snapshot.
+ * At startup the snapshot is loaded and only the journal written after it is replayed.
+ **/
+public class CaseStorage implements AutoCloseable {
+
+  private static final String SNAPSHOT_FILE = "cases.snapshot";
+  private static final int SNAPSHOT_MAGIC = 0x43415345; /*"CASE"*/
+  /*Version 2 added the rounds of iterated cases, version 3 the archive, version 4 the next case ID. */
+  public static final int SNAPSHOT_VERSION = 4;
+
+  private final Path directory;
+  private final CaseJournal.FsyncPolicy fsyncPolicy;
+  private CaseJournal journal;
+  private int recoveredNextCaseID; /*Higher than the ID of every case created before the restart. */
+  /* Held while a snapshot is written. Snapshots are written by the scheduler, the cluster handoff and replicas,
+   * and two at once would write the same temporary file and could remove journal the other one needs. */
+  private final ReentrantLock snapshotLock = new ReentrantLock();
+
+  public CaseStorage(Path directory, CaseJournal.FsyncPolicy fsyncPolicy) {
+    this.directory = directory;
+    this.fsyncPolicy = fsyncPolicy;
+  }
+
+  /**
+   * Method used to load all the stored cases into the map and the archive, and open the journal for new changes.
+   * Must be called once before the journal is used.
+   **/
+  public void recover(Map<Integer, Case> cases, CaseArchive archive) throws IOException {
+    Files.createDirectories(directory);
+    /*Start a new segment so nothing is appended after a torn record. */
+    journal = new CaseJournal(directory, CaseJournal.lastSegment(directory) + 1, fsyncPolicy);
+    int firstSegment = readSnapshot(cases, archive);
+    CaseJournal.replay(directory, firstSegment, (type, caseID, prisonerID, value1, value2) -> {
+      if (type == CaseJournal.CASE_CREATED) {
+        recoveredNextCaseID = Math.max(recoveredNextCaseID, caseID + 1);
+      }
+      applyRecord(cases, archive, journal, type, caseID, prisonerID, value1, value2);
+    });
+  }
+
+  /**
+   * Returns an ID higher than the one of every case created before the restart, including cases
+   * retired or handed off since, so their IDs are never given again. Valid once recovered.
+   **/
+  public int getRecoveredNextCaseID() {
+    return recoveredNextCaseID;
+  }
+
+  /**
+   * Method used to apply a journal record to the cases, at recovery or on a replica.
+   * Restored changes are not journaled again. Records already covered by a snapshot are skipped.
+   **/
+  public static void applyRecord(Map<Integer, Case> cases, CaseArchive archive, CaseJournal journal,
+                                 byte type, int caseID, int prisonerID, int value1, int value2) {
+    Case foundCase = cases.get(caseID);
+    switch (type) {
+      case CaseJournal.CASE_CREATED:
+        /*Records written before iterated cases existed hold 0 rounds. */
+        cases.putIfAbsent(caseID, new Case(caseID, journal, Math.max(value1, 1)));
+        break;
+      case CaseJournal.CASE_RETIRED:
+        cases.remove(caseID);
+        archive.remove(caseID);
+        break;
+      case CaseJournal.CASE_ARCHIVED:
+        /*Put in the archive first, so a reader never finds the case in neither. */
+        archive.put(caseID, value1 & 0xFFFFFFFFL);
+        cases.remove(caseID);
+        break;
+      case CaseJournal.DECISION_LOGGED:
+        if (foundCase != null) {
+          foundCase.restoreDecision(prisonerID, value1 >>> 1, (value1 & 1) != 0, value2);
+        }
+        break;
+      case CaseJournal.SENTENCE_COMPUTED:
+        if (foundCase != null) {
+          foundCase.restoreDecisionMade(value1, value2);
+        }
+        break;
+      case CaseJournal.SENTENCE_REDUCED:
+        if (foundCase != null) {
+          foundCase.restoreSentence(prisonerID, value1);
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unknown journal record " + type);
+    }
+  }
+
+  /**
+   * Returns the journal changes are recorded in.
+   **/
+  public CaseJournal getJournal() {
+    return journal;
+  }
+
+  /**
+   * Method used to write all the cases and the archive to a new snapshot and remove the journal it covers.
+   * Cases can keep changing while it runs: changes made during the snapshot are also in the
+   * newer journal segment and are replayed on top of it.
+   * The snapshot and its name are forced to disk before the journal is removed, so a power loss never leaves neither.
+   * The next case ID is kept with it, as the journal that created the cases no longer held is removed.
+   **/
+  public void writeSnapshot(Collection<Case> cases, CaseArchive archive, int nextCaseID) throws IOException {
+    snapshotLock.lock();
+    try {
+      int firstSegment = journal.roll();
+      Path temporaryFile = directory.resolve(SNAPSHOT_FILE + ".tmp");
+      try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        writeSnapshotTo(channel, firstSegment, cases, archive, nextCaseID);
+        channel.force(true);
+      }
+      Files.move(temporaryFile, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      forceDirectory();
+      journal.deleteSegmentsBefore(firstSegment);
+    } finally {
+      snapshotLock.unlock();
+    }
+  }
+
+  private void writeSnapshotTo(FileChannel channel, int firstSegment, Collection<Case> cases, CaseArchive archive,
+                               int nextCaseID) throws IOException {
+    /*Only flushed, as closing the stream would close the channel before it is forced. */
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+    output.writeInt(SNAPSHOT_MAGIC);
+    output.writeInt(SNAPSHOT_VERSION);
+    output.writeInt(firstSegment);
+    /*The number of cases can change while writing, so each case is preceded by a marker. */
+    for (Case currentCase : cases) {
+      output.writeBoolean(true);
+      currentCase.writeTo(output);
+    }
+    output.writeBoolean(false);
+    archive.writeTo(output);
+    output.writeInt(nextCaseID);
+    output.flush();
+  }
+
+  /**
+   * Forces the entries of the directory to disk, so the renamed snapshot survives a power loss.
+   * Directories cannot be opened on every platform (e.g. Windows), where the move is already durable.
+   **/
+  private void forceDirectory() throws IOException {
+    FileChannel directoryChannel;
+    try {
+      directoryChannel = FileChannel.open(directory, StandardOpenOption.READ);
+    } catch (IOException e) {
+      return;
+    }
+    try (FileChannel channel = directoryChannel) {
+      channel.force(true);
+    }
+  }
+
+  /**
+   * Method used to load the snapshot. Returns the first journal segment not covered by it.
+   **/
+  private int readSnapshot(Map<Integer, Case> cases, CaseArchive archive) throws IOException {
+    Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+    if (!Files.exists(snapshotFile)) {
+      return 0;
+    }
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile), 64 * 1024))) {
+      int snapshotVersion;
+      if (input.readInt() != SNAPSHOT_MAGIC || (snapshotVersion = input.readInt()) < 1 || snapshotVersion > SNAPSHOT_VERSION) {
+        throw new IOException("Snapshot file is not valid!");
+      }
+      int firstSegment = input.readInt();
+      while (input.readBoolean()) {
+        Case restoredCase = Case.readFrom(input, journal, snapshotVersion);
+        cases.put(restoredCase.getCaseID(), restoredCase);
+      }
+      if (snapshotVersion >= 3) {
+        archive.readFrom(input);
+      }
+      if (snapshotVersion >= 4) {
+        recoveredNextCaseID = input.readInt();
+      }
+      return firstSegment;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (journal != null) {
+      journal.close();
+    }
+  }
+}
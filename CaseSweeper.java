@@ -0,0 +1,127 @@
+import java.util.BitSet;
+import java.util.function.LongSupplier;
+
+/**
+ * Moves finished cases out of the live cases into the archive, so the heap does not grow with every case ever played.
+ * A case is finished once its decision is made. It is archived as soon as both sentences reach 0,
+ * or once it has been finished for the retention time, after which appeals are no longer accepted.
+ * Each sweep locks one case at a time, so the RMI threads are never held up for more than one case.
+ * Cases of the off-heap table are marked as archived in the table instead. Keeping a time per case would
+ * put them back on the heap, so they are archived between one and two retention times after they finish.
+ **/
+public class CaseSweeper implements Runnable {
+
+  public static final long DEFAULT_RETENTION_MILLIS = 24 * 60 * 60 * 1000L; /*Time appeals are accepted after the decision. */
+  public static final int SWEEP_INTERVAL_SECONDS = 60; /*Time between sweeps. */
+
+  private final PrisonerDatabaseHandler dbHandler;
+  private final long retentionMillis;
+  private final LongSupplier clock; /*Time in milliseconds. Can be replaced to simulate a long run. */
+  private volatile long archivedCases; /*Only changed by the thread sweeping. */
+  /* Cases of the off-heap table first seen finished in the current and in the previous retention period. */
+  private BitSet finishedThisPeriod = new BitSet();
+  private BitSet finishedLastPeriod = new BitSet();
+  private long periodStart;
+
+  public CaseSweeper(PrisonerDatabaseHandler dbHandler, long retentionMillis) {
+    this(dbHandler, retentionMillis, System::currentTimeMillis);
+  }
+
+  public CaseSweeper(PrisonerDatabaseHandler dbHandler, long retentionMillis, LongSupplier clock) {
+    this.dbHandler = dbHandler;
+    this.retentionMillis = retentionMillis;
+    this.clock = clock;
+    this.periodStart = clock.getAsLong();
+  }
+
+  /**
+   * Method used to archive the cases that are due. Returns the number of cases archived.
+   * The time a case was first seen finished is only kept in memory, so after a restart the retention starts again.
+   **/
+  public int sweep() {
+    long now = clock.getAsLong();
+    MappedCaseTable caseTable = dbHandler.getCaseTable();
+    int archivedNow = caseTable == null ? sweepHeap(now) : sweepTable(caseTable, now);
+    archivedCases += archivedNow;
+    return archivedNow;
+  }
+
+  private int sweepHeap(long now) {
+    int archivedNow = 0;
+    for (int caseID : dbHandler.getCaseIDs()) {
+      Case caseFound = dbHandler.getHeapCase(caseID);
+      if (caseFound == null || caseFound.getStatus() != Case.caseStatus.DECISION_MADE) {
+        continue;
+      }
+      if (caseFound.getFinishedSince() == 0) {
+        caseFound.setFinishedSince(now);
+      }
+      if ((isServed(caseFound) || now - caseFound.getFinishedSince() >= retentionMillis) && dbHandler.archiveCase(caseID)) {
+        archivedNow++;
+      }
+    }
+    return archivedNow;
+  }
+
+  /*Served cases are archived straight away. The others once a whole retention period has passed since the one they were first seen in. */
+  private int sweepTable(MappedCaseTable caseTable, long now) {
+    int archivedNow = 0;
+    if (now - periodStart >= retentionMillis) {
+      for (int caseID = finishedLastPeriod.nextSetBit(0); caseID >= 0; caseID = finishedLastPeriod.nextSetBit(caseID + 1)) {
+        if (dbHandler.archiveCase(caseID)) {
+          archivedNow++;
+        }
+      }
+      finishedLastPeriod = finishedThisPeriod;
+      finishedThisPeriod = new BitSet();
+      periodStart = now;
+    }
+    for (int caseID = 0; caseID < caseTable.getCapacity(); caseID++) {
+      long record = caseTable.getRecord(caseID);
+      if (CaseRecord.getStatus(record) != Case.caseStatus.DECISION_MADE || CaseRecord.isArchived(record)) {
+        continue;
+      }
+      if (isServed(record)) {
+        if (dbHandler.archiveCase(caseID)) {
+          archivedNow++;
+        }
+      } else if (!finishedLastPeriod.get(caseID)) {
+        finishedThisPeriod.set(caseID);
+      }
+    }
+    return archivedNow;
+  }
+
+  /*No appeal can reduce a sentence of 0, so nothing can change any more. */
+  private static boolean isServed(Case finishedCase) {
+    for (int sentence : finishedCase.getSentences()) {
+      if (sentence > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isServed(long record) {
+    for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+      if (CaseRecord.getSentence(record, prisonerID) > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void run() {
+    try {
+      sweep();
+    } catch (RuntimeException e) {
+      /*A failed sweep must not cancel the next ones. */
+      System.err.println("Unable to archive cases: " + e.toString());
+    }
+  }
+
+  public String describe() {
+    return "Case sweeper: " + archivedCases + " cases archived, " + dbHandler.getNumberOfCases() + " cases in total";
+  }
+}
@@ -0,0 +1,73 @@
+/**
+ * What the services can read and change of a case, whichever way the case is stored.
+ * Cases kept on the heap, views of the off-heap table and views of the archive all extend it.
+ * It holds no state, so the views created on every lookup carry no lock and no arrays.
+ */
+public abstract class CaseView {
+
+    public abstract int getCaseID();
+
+    /**
+     * Returns the number of rounds played before the sentences are given. 1 for a normal case.
+     **/
+    public abstract int getTotalRounds();
+
+    /**
+     * Returns the number of rounds both prisoners have decided.
+     **/
+    public abstract int getRoundsPlayed();
+
+    /**
+     * Returns true if the prisoner betrayed the partner in a round already played.
+     **/
+    public abstract boolean hasBetrayedInRound(int prisonerID, int round);
+
+    /**
+     * This methods logs the prisoners' decision (if they betrayed their partner or not).
+     * Returns true if this decision made the decision of the case, so exactly one call reports each case decided.
+     **/
+    public abstract boolean logPrisonerDecision(int prisonerID, boolean betrayedPartner);
+
+    /**
+     * Method used to externally reduce the prison sentence by higher authority (Appeals Court).
+     */
+    public abstract void reducePrisonSentence(int prisonerID, int sentenceReduction);
+
+    /**
+     * Method used to poll if decision is available. Does not take any lock.
+     **/
+    public abstract boolean isSentencingAvailable();
+
+    /**
+     * Returns the current status of the case. Does not take any lock.
+     **/
+    abstract Case.caseStatus getStatus();
+
+    /**
+     * Method used to register a listener that is called back once the decision is available.
+     * If the decision has already been made the listener is called straight away.
+     **/
+    public abstract void registerSentenceListener(int prisonerID, SentenceListener listener);
+
+    /**
+     * Method used to wait for the decision to become available (long polling).
+     * Returns as soon as the decision is made or once the timeout expires.
+     **/
+    public abstract boolean awaitSentencing(long timeoutMillis) throws InterruptedException;
+
+    /**
+     * Returns the number of the next appeal of the prisoner, used to draw its outcome.
+     **/
+    abstract int nextAppealNumber(int prisonerID);
+
+    /**
+     * Method used to get the prisoner's sentence.
+     */
+    public abstract int getPrisonerSentence(int prisonerID);
+
+    /**
+     * Method used to get the sentences of both prisoners.
+     * Sentences are only known once the decision has been made, and both are read at the same time.
+     */
+    public abstract int[] getSentences();
+}
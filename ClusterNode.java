@@ -0,0 +1,286 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One node of a cluster of servers. Case IDs are shared out between the nodes with a consistent hash ring,
+ * so each case lives on one node and clients send its calls there (see ClusterRouter).
+ * Each node creates cases from its own range of IDs, so two cases never share an ID.
+ * When the nodes change, each node hands the cases it no longer owns to their new owner.
+ * A case is written in snapshot form, stops accepting changes, and is only removed once the new owner has stored it.
+ * If the call fails the owner may have stored the cases anyway, so they stay frozen until the owner says
+ * whether it holds them, and are then either removed or handed off again.
+ * Archived cases never change, so they are sent as their record.
+ **/
+public class ClusterNode extends UnicastRemoteObject implements ClusterService {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int MAX_NODES = 32; /*Node IDs go from 0 to MAX_NODES - 1. */
+  private static final int ID_RANGE_BITS = 26; /*Each node creates cases with IDs from a range of 2^26. */
+  private static final int HANDOFF_RETRY_SECONDS = 5; /*Time between attempts to finish a failed handoff. */
+
+  private final String nodeName;
+  private final PrisonerDatabaseHandler dbHandler;
+  private volatile ConsistentHashRing ring;
+  /*Frozen cases whose handoff failed, with the node they were sent to. Only used while holding the lock of the node. */
+  private final Map<Integer, String> pendingHandoffs = new HashMap<>();
+  private final ScheduledExecutorService handoffRetries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread retryThread = new Thread(runnable, "cluster-handoff");
+    retryThread.setDaemon(true);
+    return retryThread;
+  });
+
+  /**
+   * Object constructor. The node only gives new cases the IDs it owns, out of the range of its node ID.
+   * Node IDs must stay the same across restarts and differ between the nodes.
+   **/
+  public ClusterNode(String nodeName, int nodeID, List<String> members, PrisonerDatabaseHandler dbHandler) throws RemoteException {
+    super();
+    if (!members.contains(nodeName)) {
+      throw new IllegalArgumentException("Node " + nodeName + " is not a member of the cluster!");
+    }
+    if (nodeID < 0 || nodeID >= MAX_NODES) {
+      throw new IllegalArgumentException("Node ID " + nodeID + " is not between 0 and " + (MAX_NODES - 1) + "!");
+    }
+    this.nodeName = nodeName;
+    this.dbHandler = dbHandler;
+    this.ring = new ConsistentHashRing(members);
+    dbHandler.setCaseIDRange(nodeID << ID_RANGE_BITS, (nodeID << ID_RANGE_BITS) + ((1 << ID_RANGE_BITS) - 1));
+    dbHandler.setOwnedCaseIDs(this::ownsCase);
+    handoffRetries.scheduleWithFixedDelay(this::retryHandoffs, HANDOFF_RETRY_SECONDS, HANDOFF_RETRY_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Checks if the case belongs to this node.
+   **/
+  public boolean ownsCase(int caseID) {
+    return ring.ownerOf(caseID).equals(nodeName);
+  }
+
+  @Override
+  public String[] getMembers() {
+    return ring.getNodes().toArray(new String[0]);
+  }
+
+  @Override
+  public void updateMembers(String[] members, boolean propagate) throws RemoteException {
+    Set<String> nodesToTell = new LinkedHashSet<>(ring.getNodes());
+    synchronized (this) {
+      /*Changes are applied one at a time, so a case is only handed off once. */
+      ring = new ConsistentHashRing(Arrays.asList(members));
+      handOffCases();
+    }
+    if (propagate) {
+      nodesToTell.addAll(Arrays.asList(members));
+      nodesToTell.remove(nodeName);
+      for (String node : nodesToTell) {
+        try {
+          lookup(node).updateMembers(members, false);
+        } catch (RemoteException | NotBoundException e) {
+          System.err.println("Unable to tell " + node + " about the new members: " + e.toString());
+        }
+      }
+    }
+  }
+
+  @Override
+  public void receiveCases(byte[] cases) throws RemoteException {
+    try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(cases))) {
+      int snapshotVersion = input.readInt();
+      int numberOfCases = input.readInt();
+      for (int index = 0; index < numberOfCases; index++) {
+        dbHandler.adoptCase(Case.readFrom(input, dbHandler.getJournal(), snapshotVersion));
+      }
+      if (snapshotVersion >= 3) {
+        int numberOfArchivedCases = input.readInt();
+        for (int index = 0; index < numberOfArchivedCases; index++) {
+          int caseID = input.readInt();
+          dbHandler.adoptArchivedCase(caseID, input.readLong());
+        }
+      }
+      /*Adopted cases are not in the journal, so they are only durable once in a snapshot. */
+      dbHandler.writeSnapshot();
+    } catch (IOException e) {
+      throw new RemoteException("Cases could not be stored", e);
+    }
+  }
+
+  @Override
+  public int[] holdsCases(int[] caseIDs) {
+    return Arrays.stream(caseIDs).filter(dbHandler::holdsCase).toArray();
+  }
+
+  /**
+   * Method run on a schedule to finish the handoffs that failed.
+   **/
+  private synchronized void retryHandoffs() {
+    try {
+      if (!pendingHandoffs.isEmpty()) {
+        handOffCases();
+      }
+    } catch (RuntimeException e) {
+      System.err.println("Unable to retry handoffs: " + e.toString());
+    }
+  }
+
+  /**
+   * Method used to hand each case this node no longer owns to its owner.
+   * Cases whose owner cannot be reached stay here and keep accepting changes.
+   * Must be called while holding the lock of the node.
+   **/
+  private void handOffCases() {
+    confirmPendingHandoffs();
+    Map<String, List<Case>> casesByOwner = new HashMap<>();
+    Map<String, List<Integer>> archivedCasesByOwner = new HashMap<>();
+    for (int caseID : dbHandler.getCaseIDs()) {
+      String owner = ring.ownerOf(caseID);
+      Case caseFound = dbHandler.getHeapCase(caseID);
+      if (!owner.equals(nodeName) && caseFound != null && !pendingHandoffs.containsKey(caseID)) {
+        casesByOwner.computeIfAbsent(owner, node -> new ArrayList<>()).add(caseFound);
+      }
+    }
+    for (int caseID : dbHandler.getArchivedCaseIDs()) {
+      String owner = ring.ownerOf(caseID);
+      if (!owner.equals(nodeName)) {
+        archivedCasesByOwner.computeIfAbsent(owner, node -> new ArrayList<>()).add(caseID);
+        casesByOwner.computeIfAbsent(owner, node -> new ArrayList<>());
+      }
+    }
+    for (Map.Entry<String, List<Case>> ownerCases : casesByOwner.entrySet()) {
+      String owner = ownerCases.getKey();
+      List<Case> cases = ownerCases.getValue();
+      List<Integer> archivedCases = archivedCasesByOwner.getOrDefault(owner, new ArrayList<>());
+      ClusterService ownerNode;
+      try {
+        ownerNode = lookup(owner);
+      } catch (RemoteException | NotBoundException e) {
+        System.err.println("Unable to hand cases off to " + owner + ", kept here: " + e.toString());
+        continue;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try {
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(CaseStorage.SNAPSHOT_VERSION);
+        output.writeInt(cases.size());
+        for (Case caseToMove : cases) {
+          caseToMove.writeForHandoff(output);
+        }
+        output.writeInt(archivedCases.size());
+        for (int archivedCaseID : archivedCases) {
+          output.writeInt(archivedCaseID);
+          output.writeLong(dbHandler.getArchivedRecord(archivedCaseID));
+        }
+        output.flush();
+      } catch (IOException e) {
+        /*Nothing was sent, so the cases can accept changes again. */
+        for (Case caseKept : cases) {
+          caseKept.cancelHandoff();
+        }
+        System.err.println("Unable to write cases for " + owner + ", kept here: " + e.toString());
+        continue;
+      }
+      try {
+        ownerNode.receiveCases(bytes.toByteArray());
+      } catch (RemoteException e) {
+        /*The owner may have stored the cases before the call failed, so they stay frozen until it tells. */
+        for (Case frozenCase : cases) {
+          pendingHandoffs.put(frozenCase.getCaseID(), owner);
+        }
+        System.err.println("Unable to hand cases off to " + owner + ", retrying: " + e.toString());
+        continue;
+      }
+      /*Also drops the cached sentences of the cases. */
+      for (Case movedCase : cases) {
+        dbHandler.retireCase(movedCase.getCaseID());
+      }
+      for (int archivedCaseID : archivedCases) {
+        dbHandler.retireCase(archivedCaseID);
+      }
+      System.out.println("Handed " + (cases.size() + archivedCases.size()) + " cases off to " + owner);
+    }
+  }
+
+  /**
+   * Method used to ask the nodes a failed handoff was sent to whether they stored the cases.
+   * Cases stored there are removed, the others accept changes again if this node owns them,
+   * or are handed off again to their owner. Cases whose node cannot be reached stay frozen.
+   **/
+  private void confirmPendingHandoffs() {
+    Map<String, List<Integer>> pendingByNode = new HashMap<>();
+    for (Map.Entry<Integer, String> pendingCase : pendingHandoffs.entrySet()) {
+      pendingByNode.computeIfAbsent(pendingCase.getValue(), node -> new ArrayList<>()).add(pendingCase.getKey());
+    }
+    for (Map.Entry<String, List<Integer>> nodeCases : pendingByNode.entrySet()) {
+      Set<Integer> heldCaseIDs = new HashSet<>();
+      try {
+        int[] caseIDs = nodeCases.getValue().stream().mapToInt(Integer::intValue).toArray();
+        for (int caseID : lookup(nodeCases.getKey()).holdsCases(caseIDs)) {
+          heldCaseIDs.add(caseID);
+        }
+      } catch (RemoteException | NotBoundException e) {
+        System.err.println("Unable to reach " + nodeCases.getKey() + ", cases stay frozen: " + e.toString());
+        continue;
+      }
+      for (int caseID : nodeCases.getValue()) {
+        pendingHandoffs.remove(caseID);
+        Case frozenCase = dbHandler.getHeapCase(caseID);
+        if (heldCaseIDs.contains(caseID)) {
+          dbHandler.retireCase(caseID);
+        } else if (frozenCase != null && ownsCase(caseID)) {
+          frozenCase.cancelHandoff();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the registry of a node named host:port.
+   **/
+  public static Registry locateRegistry(String node) throws RemoteException {
+    int separator = node.lastIndexOf(':');
+    if (separator < 0) {
+      throw new IllegalArgumentException("Node " + node + " is not written as host:port!");
+    }
+    return LocateRegistry.getRegistry(node.substring(0, separator), Integer.parseInt(node.substring(separator + 1)));
+  }
+
+  private static ClusterService lookup(String node) throws RemoteException, NotBoundException {
+    return (ClusterService) locateRegistry(node).lookup(ClusterService.class.getName());
+  }
+
+  /**
+   * Changes the nodes of a running cluster. The node given first is told and passes the change on.
+   * To remove a node, tell that node the members without it, so it hands all its cases off before it is stopped.
+   **/
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.out.println("Usage: ClusterNode host:port member1,member2,...");
+      return;
+    }
+    try {
+      lookup(args[0]).updateMembers(args[1].split(","), true);
+      System.out.println("Members updated.");
+    } catch (Exception e) {
+      System.err.println("An error has occurred!!\r\n" + e.toString());
+    }
+  }
+}
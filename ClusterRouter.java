@@ -0,0 +1,442 @@
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Client-side stub for a cluster of servers. Implements the same interfaces as the RMI stubs,
+ * so PrisonerClient works with a cluster as with one server.
+ * Each call is sent straight to the node that owns its case, found with the same hash ring as the nodes use.
+ * If a call fails because its case has just moved, the members are read again and the call is retried once.
+ * Sessions follow their case: when it moves, the prisoner is logged in again on the new owner under the same token.
+ * Prisoners can only be paired with prisoners queued on the same node, so matchmaking is done by the first member.
+ * Statistics are read from every member and merged.
+ **/
+public class ClusterRouter implements ProsecutorService, AppealService, MatchmakingService, StatisticsService {
+
+  private static final int NODE_SHIFT = 48; /*Tickets are tagged with the node that handed them out. */
+
+  /**
+   * Stubs of one node. Nodes keep their position in the list of known nodes, so it can tag tickets.
+   **/
+  private static class Node {
+    private final int nodeIndex;
+    private final ProsecutorService prosecutorStub;
+    private final AppealService appealStub;
+    private final MatchmakingService matchmakingStub;
+    private final StatisticsService statisticsStub;
+    private final ClusterService clusterStub;
+
+    Node(int nodeIndex, Registry registry) throws RemoteException, NotBoundException {
+      this.nodeIndex = nodeIndex;
+      this.prosecutorStub = (ProsecutorService) registry.lookup(ProsecutorService.class.getName());
+      this.appealStub = (AppealService) registry.lookup(AppealService.class.getName());
+      this.matchmakingStub = (MatchmakingService) registry.lookup(MatchmakingService.class.getName());
+      this.statisticsStub = (StatisticsService) registry.lookup(StatisticsService.class.getName());
+      this.clusterStub = (ClusterService) registry.lookup(ClusterService.class.getName());
+    }
+  }
+
+  /**
+   * Interface used to make a call on the node owning a case.
+   **/
+  private interface NodeCall<T> {
+    T call(Node node) throws RemoteException;
+  }
+
+  /**
+   * Interface used to make a call on the node holding a session, given the token the node knows the session by.
+   **/
+  private interface SessionCall<T> {
+    T call(Node node, long nodeToken) throws RemoteException;
+  }
+
+  /**
+   * Session opened through the router. The login is kept so the session can be opened again if its case moves.
+   **/
+  private static class RoutedSession {
+    private final LoginDetails details;
+    private Node node; /*Node holding the session and its token there. Guarded by the session. */
+    private long nodeToken;
+
+    RoutedSession(LoginDetails details, Node node, long nodeToken) {
+      this.details = new LoginDetails(); /*Copied, as the caller may reuse its details. */
+      this.details.setCaseID(details.getCaseID());
+      this.details.setPrisonerID(details.getPrisonerID());
+      this.node = node;
+      this.nodeToken = nodeToken;
+    }
+  }
+
+  /**
+   * Interface used to make the part of a batch call owned by one node, given the positions of its items.
+   **/
+  private interface BatchCall {
+    BatchResult call(Node node, int[] indices) throws RemoteException;
+  }
+
+  private final Map<String, Node> nodesByName = new ConcurrentHashMap<>();
+  private final List<Node> knownNodes = new CopyOnWriteArrayList<>();
+  private final Map<Long, RoutedSession> sessions = new ConcurrentHashMap<>(); /*By the token given to the client. */
+  private final AtomicInteger nextCreatingNode = new AtomicInteger();
+  private volatile ConsistentHashRing ring;
+
+  /**
+   * Object constructor. Reads the members of the cluster from the first of the given nodes that answers.
+   **/
+  public ClusterRouter(List<String> seedNodes) throws RemoteException {
+    refreshMembers(seedNodes);
+  }
+
+  /**
+   * Method used to read the members of the cluster again, e.g. after nodes joined or left.
+   **/
+  public void refreshMembers() throws RemoteException {
+    refreshMembers(ring.getNodes());
+  }
+
+  private void refreshMembers(List<String> members) throws RemoteException {
+    RemoteException lastError = new RemoteException("No nodes given!");
+    for (String member : members) {
+      try {
+        ring = new ConsistentHashRing(Arrays.asList(node(member).clusterStub.getMembers()));
+        return;
+      } catch (RemoteException e) {
+        lastError = e;
+      } catch (NotBoundException e) {
+        lastError = new RemoteException("Node " + member + " is not bound", e);
+      }
+    }
+    throw lastError;
+  }
+
+  private Node node(String nodeName) throws RemoteException, NotBoundException {
+    Node found = nodesByName.get(nodeName);
+    if (found == null) {
+      synchronized (this) {
+        found = nodesByName.get(nodeName);
+        if (found == null) {
+          found = new Node(knownNodes.size(), ClusterNode.locateRegistry(nodeName));
+          knownNodes.add(found);
+          nodesByName.put(nodeName, found);
+        }
+      }
+    }
+    return found;
+  }
+
+  private Node ownerOf(int caseID) throws RemoteException {
+    String owner = ring.ownerOf(caseID);
+    try {
+      return node(owner);
+    } catch (NotBoundException e) {
+      throw new RemoteException("Node " + owner + " is not bound", e);
+    }
+  }
+
+  /*Calls the owner of the case. A case that has just moved is reported as moved, or as not accepting changes while it moves. */
+  private <T> T routed(int caseID, NodeCall<T> nodeCall) throws RemoteException {
+    Node owner = ownerOf(caseID);
+    try {
+      return nodeCall.call(owner);
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      refreshMembers();
+      Node newOwner = ownerOf(caseID);
+      if (newOwner == owner) {
+        throw e;
+      }
+      return nodeCall.call(newOwner);
+    }
+  }
+
+  private Node matchmakingNode() throws RemoteException {
+    String firstMember = ring.getNodes().get(0);
+    try {
+      return node(firstMember);
+    } catch (NotBoundException e) {
+      throw new RemoteException("Node " + firstMember + " is not bound", e);
+    }
+  }
+
+  /*Tickets are only known to the node that handed them out, so the node is kept in the top bits of the ticket. */
+  private Node ticketNode(long ticket) {
+    int nodeIndex = (int) (ticket >>> NODE_SHIFT);
+    if (nodeIndex >= knownNodes.size()) {
+      throw new IllegalArgumentException("Ticket is not valid!");
+    }
+    return knownNodes.get(nodeIndex);
+  }
+
+  private static long nodeTicket(long ticket) {
+    return ticket & ((1L << NODE_SHIFT) - 1);
+  }
+
+  /*Calls the node holding the session. If its case has moved, the session is opened again on the new owner. */
+  private <T> T sessionCall(long sessionToken, SessionCall<T> sessionCall) throws RemoteException {
+    RoutedSession session = sessions.get(sessionToken);
+    if (session == null) {
+      throw new IllegalArgumentException("Session is not valid!");
+    }
+    Node node;
+    long nodeToken;
+    synchronized (session) {
+      node = session.node;
+      nodeToken = session.nodeToken;
+    }
+    try {
+      return sessionCall.call(node, nodeToken);
+    } catch (CaseMovedException e) {
+      synchronized (session) {
+        if (session.node == node) {
+          moveSession(sessionToken, session, e);
+        }
+        node = session.node;
+        nodeToken = session.nodeToken;
+      }
+      return sessionCall.call(node, nodeToken);
+    }
+  }
+
+  /*Logs the prisoner of the session in on the new owner of its case. The session left on the old node expires. */
+  private void moveSession(long sessionToken, RoutedSession session, CaseMovedException moved) throws RemoteException {
+    refreshMembers();
+    Node newOwner = ownerOf(session.details.getCaseID());
+    long nodeToken = newOwner == session.node ? SessionTable.NO_SESSION : newOwner.prosecutorStub.login(session.details);
+    if (nodeToken == SessionTable.NO_SESSION) {
+      sessions.remove(sessionToken, session);
+      throw moved;
+    }
+    session.node = newOwner;
+    session.nodeToken = nodeToken;
+  }
+
+  /*Splits a batch by owner, so each node gets one call with its own items. Items of cases that moved are sent again. */
+  private BatchResult splitBatch(int[] caseIDs, BatchCall batchCall) throws RemoteException {
+    BatchResult result = new BatchResult(caseIDs.length);
+    int[] movedItems = sendBatch(caseIDs, IntStream.range(0, caseIDs.length).toArray(), batchCall, result);
+    if (movedItems.length > 0) {
+      refreshMembers();
+      sendBatch(caseIDs, movedItems, batchCall, result);
+    }
+    return result;
+  }
+
+  /*Sends the given items of a batch into the result. Returns the items whose case had moved. */
+  private int[] sendBatch(int[] caseIDs, int[] items, BatchCall batchCall, BatchResult result) throws RemoteException {
+    Map<Node, List<Integer>> itemsByNode = new HashMap<>();
+    for (int index : items) {
+      itemsByNode.computeIfAbsent(ownerOf(caseIDs[index]), node -> new ArrayList<>()).add(index);
+    }
+    List<Integer> movedItems = new ArrayList<>();
+    for (Map.Entry<Node, List<Integer>> nodeItems : itemsByNode.entrySet()) {
+      int[] indices = nodeItems.getValue().stream().mapToInt(Integer::intValue).toArray();
+      BatchResult part = batchCall.call(nodeItems.getKey(), indices);
+      for (int item = 0; item < indices.length; item++) {
+        result.setValue(indices[item], part.getValue(item));
+        result.setStatus(indices[item], part.getStatus(item));
+        if (part.getStatus(item) == BatchResult.MOVED) {
+          movedItems.add(indices[item]);
+        }
+      }
+    }
+    return movedItems.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static int[] select(int[] values, int[] indices) {
+    int[] selected = new int[indices.length];
+    for (int item = 0; item < indices.length; item++) {
+      selected[item] = values[indices[item]];
+    }
+    return selected;
+  }
+
+  private static boolean[] select(boolean[] values, int[] indices) {
+    boolean[] selected = new boolean[indices.length];
+    for (int item = 0; item < indices.length; item++) {
+      selected[item] = values[indices[item]];
+    }
+    return selected;
+  }
+
+  @Override
+  public boolean logDecision(LoginDetails details, Command decision) throws RemoteException {
+    return routed(details.getCaseID(), node -> node.prosecutorStub.logDecision(details, decision));
+  }
+
+  @Override
+  public BatchResult logDecisions(int[] caseIDs, int[] prisonerIDs, boolean[] betrayedPartner) throws RemoteException {
+    return splitBatch(caseIDs, (node, indices) ->
+        node.prosecutorStub.logDecisions(select(caseIDs, indices), select(prisonerIDs, indices), select(betrayedPartner, indices)));
+  }
+
+  @Override
+  public BatchResult haveDecisionsBeenMade(int[] caseIDs, int[] prisonerIDs) throws RemoteException {
+    return splitBatch(caseIDs, (node, indices) ->
+        node.prosecutorStub.haveDecisionsBeenMade(select(caseIDs, indices), select(prisonerIDs, indices)));
+  }
+
+  @Override
+  public BatchResult getSentences(int[] caseIDs, int[] prisonerIDs) throws RemoteException {
+    return splitBatch(caseIDs, (node, indices) ->
+        node.prosecutorStub.getSentences(select(caseIDs, indices), select(prisonerIDs, indices)));
+  }
+
+  @Override
+  public boolean hasDecisionBeenMade(LoginDetails details) throws RemoteException {
+    return routed(details.getCaseID(), node -> node.prosecutorStub.hasDecisionBeenMade(details));
+  }
+
+  @Override
+  public String testConnection() throws RemoteException {
+    return ownerOf(0).prosecutorStub.testConnection();
+  }
+
+  /**
+   * Each node gives new cases the IDs it owns, so cases are created on the nodes in turn.
+   **/
+  @Override
+  public int createCase() throws RemoteException {
+    List<String> members = ring.getNodes();
+    String creatingNode = members.get(Math.floorMod(nextCreatingNode.getAndIncrement(), members.size()));
+    try {
+      return node(creatingNode).prosecutorStub.createCase();
+    } catch (NotBoundException e) {
+      throw new RemoteException("Node " + creatingNode + " is not bound", e);
+    }
+  }
+
+  @Override
+  public int getSentence(LoginDetails details) throws RemoteException, IllegalArgumentException {
+    return routed(details.getCaseID(), node -> node.prosecutorStub.getSentence(details));
+  }
+
+  @Override
+  public boolean userAuthentication(LoginDetails details) throws RemoteException {
+    return routed(details.getCaseID(), node -> node.prosecutorStub.userAuthentication(details));
+  }
+
+  /**
+   * Sessions are only known to the node that opened them, so the node is remembered with the token.
+   * The token of the first node stays the one of the client, even if the session is later opened on another node.
+   **/
+  @Override
+  public long login(LoginDetails details) throws RemoteException {
+    return routed(details.getCaseID(), node -> {
+      long sessionToken = node.prosecutorStub.login(details);
+      if (sessionToken != SessionTable.NO_SESSION) {
+        sessions.put(sessionToken, new RoutedSession(details, node, sessionToken));
+      }
+      return sessionToken;
+    });
+  }
+
+  @Override
+  public void logout(long sessionToken) throws RemoteException {
+    RoutedSession session = sessions.remove(sessionToken);
+    if (session != null) {
+      synchronized (session) {
+        session.node.prosecutorStub.logout(session.nodeToken);
+      }
+    }
+  }
+
+  @Override
+  public boolean logDecision(long sessionToken, Command decision) throws RemoteException, IllegalArgumentException {
+    return sessionCall(sessionToken, (node, nodeToken) -> node.prosecutorStub.logDecision(nodeToken, decision));
+  }
+
+  @Override
+  public boolean hasDecisionBeenMade(long sessionToken) throws RemoteException, IllegalArgumentException {
+    return sessionCall(sessionToken, (node, nodeToken) -> node.prosecutorStub.hasDecisionBeenMade(nodeToken));
+  }
+
+  @Override
+  public boolean waitForDecision(long sessionToken, long timeoutMillis) throws RemoteException, IllegalArgumentException {
+    return sessionCall(sessionToken, (node, nodeToken) -> node.prosecutorStub.waitForDecision(nodeToken, timeoutMillis));
+  }
+
+  @Override
+  public int getSentence(long sessionToken) throws RemoteException, IllegalArgumentException {
+    return sessionCall(sessionToken, (node, nodeToken) -> node.prosecutorStub.getSentence(nodeToken));
+  }
+
+  @Override
+  public boolean registerSentenceListener(LoginDetails details, SentenceListener listener) throws RemoteException {
+    return routed(details.getCaseID(), node -> node.prosecutorStub.registerSentenceListener(details, listener));
+  }
+
+  @Override
+  public boolean waitForDecision(LoginDetails details, long timeoutMillis) throws RemoteException {
+    return routed(details.getCaseID(), node -> node.prosecutorStub.waitForDecision(details, timeoutMillis));
+  }
+
+  @Override
+  public AppealOutcome requestAppeal(int caseID, int prisonerID) throws RemoteException {
+    return routed(caseID, node -> node.appealStub.requestAppeal(caseID, prisonerID));
+  }
+
+  /**
+   * Tickets are only known to the node that handed them out, so the node is kept in the top bits of the ticket.
+   **/
+  @Override
+  public long submitAppeal(int caseID, int prisonerID) throws RemoteException {
+    return routed(caseID, node -> ((long) node.nodeIndex << NODE_SHIFT) | node.appealStub.submitAppeal(caseID, prisonerID));
+  }
+
+  @Override
+  public AppealOutcome awaitAppealOutcome(long ticket, long timeoutMillis) throws RemoteException {
+    return ticketNode(ticket).appealStub.awaitAppealOutcome(nodeTicket(ticket), timeoutMillis);
+  }
+
+  @Override
+  public LoginDetails requestMatch(long timeoutMillis) throws RemoteException {
+    return matchmakingNode().matchmakingStub.requestMatch(timeoutMillis);
+  }
+
+  @Override
+  public long joinQueue() throws RemoteException {
+    Node node = matchmakingNode();
+    return ((long) node.nodeIndex << NODE_SHIFT) | node.matchmakingStub.joinQueue();
+  }
+
+  @Override
+  public LoginDetails awaitMatch(long ticket, long timeoutMillis) throws RemoteException {
+    return ticketNode(ticket).matchmakingStub.awaitMatch(nodeTicket(ticket), timeoutMillis);
+  }
+
+  @Override
+  public boolean cancelMatch(long ticket) throws RemoteException {
+    return ticketNode(ticket).matchmakingStub.cancelMatch(nodeTicket(ticket));
+  }
+
+  @Override
+  public DecisionStatistics getStatistics() throws RemoteException {
+    return getStatistics(DecisionStatistics.ALL_TIME);
+  }
+
+  /**
+   * Totals of a node only cover the cases it decided, so the totals of all the members add up to those of the cluster.
+   **/
+  @Override
+  public DecisionStatistics getStatistics(int windowSeconds) throws RemoteException {
+    DecisionStatistics clusterStatistics = null;
+    for (String member : ring.getNodes()) {
+      DecisionStatistics nodeStatistics;
+      try {
+        nodeStatistics = node(member).statisticsStub.getStatistics(windowSeconds);
+      } catch (NotBoundException e) {
+        throw new RemoteException("Node " + member + " is not bound", e);
+      }
+      clusterStatistics = clusterStatistics == null ? nodeStatistics : clusterStatistics.merge(nodeStatistics);
+    }
+    return clusterStatistics;
+  }
+}
@@ -0,0 +1,32 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface used by the nodes of a cluster to agree on which node owns which cases.
+ * Nodes are named by the address of their registry, e.g. localhost:8080.
+ **/
+public interface ClusterService extends Remote {
+
+  /**
+   * Returns the nodes of the cluster as this node knows them.
+   **/
+  String[] getMembers() throws RemoteException;
+
+  /**
+   * Changes the nodes of the cluster. The cases this node no longer owns are handed off to their new owners.
+   * If told to, the node also passes the change on to all the other nodes, old and new.
+   **/
+  void updateMembers(String[] members, boolean propagate) throws RemoteException;
+
+  /**
+   * Receives cases handed off by another node, written as in a snapshot. Returns once they are stored.
+   * Receiving the same cases again does nothing, so a handoff can be retried.
+   **/
+  void receiveCases(byte[] cases) throws RemoteException;
+
+  /**
+   * Returns the IDs, out of the ones given, of the cases this node holds.
+   * Tells a node whose handoff failed whether the cases were stored before the failure.
+   **/
+  int[] holdsCases(int[] caseIDs) throws RemoteException;
+}
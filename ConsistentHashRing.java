@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ring used to share the case IDs out between the nodes of a cluster.
+ * Each node is placed at several points of the ring and a case belongs to the first point at or after
+ * the hash of its ID, so adding or removing a node only moves the cases next to its points.
+ * The ring is never changed once built, so it can be read by any thread.
+ **/
+public class ConsistentHashRing {
+
+  public static final int POINTS_PER_NODE = 128; /*More points spread the cases more evenly. */
+
+  private final List<String> nodes;
+  private final int[] pointHashes; /*Sorted. */
+  private final int[] pointNodes; /*Index of the node at each point. */
+
+  /**
+   * Object constructor. Nodes are named by the address of their registry, e.g. localhost:8080.
+   **/
+  public ConsistentHashRing(List<String> nodes) {
+    if (nodes.isEmpty()) {
+      throw new IllegalArgumentException("A cluster needs at least one node!");
+    }
+    this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+    long[] points = new long[nodes.size() * POINTS_PER_NODE];
+    for (int nodeIndex = 0; nodeIndex < nodes.size(); nodeIndex++) {
+      for (int point = 0; point < POINTS_PER_NODE; point++) {
+        int hash = mix((nodes.get(nodeIndex) + "#" + point).hashCode());
+        /*Hash in the high bits so sorting orders by hash. */
+        points[nodeIndex * POINTS_PER_NODE + point] = ((long) hash << 32) | nodeIndex;
+      }
+    }
+    Arrays.sort(points);
+    this.pointHashes = new int[points.length];
+    this.pointNodes = new int[points.length];
+    for (int index = 0; index < points.length; index++) {
+      pointHashes[index] = (int) (points[index] >> 32);
+      pointNodes[index] = (int) points[index];
+    }
+  }
+
+  public List<String> getNodes() {
+    return nodes;
+  }
+
+  /**
+   * Returns the node that owns the case.
+   **/
+  public String ownerOf(int caseID) {
+    return nodes.get(ownerIndexOf(caseID));
+  }
+
+  /**
+   * Returns the position in getNodes() of the node that owns the case.
+   **/
+  public int ownerIndexOf(int caseID) {
+    int index = Arrays.binarySearch(pointHashes, mix(caseID));
+    if (index < 0) {
+      index = -index - 1; /*First point after the hash. */
+    }
+    return pointNodes[index == pointHashes.length ? 0 : index];
+  }
+
+  /*Finaliser of MurmurHash3, so sequential IDs land all over the ring. */
+  private static int mix(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x85EBCA6B;
+    hash ^= hash >>> 13;
+    hash *= 0xC2B2AE35;
+    return hash ^ (hash >>> 16);
+  }
+}
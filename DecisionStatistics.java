@@ -0,0 +1,153 @@
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Totals of the decisions, sentences and appeals of a server, over all time or over a recent window.
+ * Returned by the statistics service. Totals of several servers can be merged, e.g. for a whole cluster.
+ * Sentences are counted once the decision is made, after the reduction, and again after each passed appeal.
+ **/
+public class DecisionStatistics implements Externalizable {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int ALL_TIME = 0; /*Window of the totals since the server started. */
+
+  /* Positions of the counters, as kept by StatisticsCollector. */
+  static final int DECISIONS = 0;
+  static final int BETRAYALS = 1;
+  static final int CASES_DECIDED = 2;
+  static final int APPEALS = 3;
+  static final int APPEALS_PASSED = 4;
+  static final int SENTENCES = 5; /*Sentence histogram after the decision, one counter per year. */
+  static final int APPEAL_SENTENCES = SENTENCES + Case.MAX_SENTENCE + 1; /*Sentence histogram after passed appeals. */
+  static final int NUMBER_COUNTERS = APPEAL_SENTENCES + Case.MAX_SENTENCE + 1;
+
+  private int windowSeconds;
+  private long[] counters;
+
+  public DecisionStatistics() {
+    this(ALL_TIME, new long[NUMBER_COUNTERS]);
+  }
+
+  DecisionStatistics(int windowSeconds, long[] counters) {
+    this.windowSeconds = windowSeconds;
+    this.counters = counters;
+  }
+
+  /**
+   * Method used to add the totals of another server over the same window to these.
+   **/
+  public DecisionStatistics merge(DecisionStatistics other) {
+    for (int index = 0; index < NUMBER_COUNTERS; index++) {
+      counters[index] += other.counters[index];
+    }
+    return this;
+  }
+
+  /**
+   * Returns the length of the window in seconds, or ALL_TIME.
+   **/
+  public int getWindowSeconds() {
+    return windowSeconds;
+  }
+
+  public long getDecisions() {
+    return counters[DECISIONS];
+  }
+
+  public long getBetrayals() {
+    return counters[BETRAYALS];
+  }
+
+  public long getCooperations() {
+    return counters[DECISIONS] - counters[BETRAYALS];
+  }
+
+  /**
+   * Returns the fraction of the decisions that betrayed the partner, or 0 if none was made.
+   **/
+  public double getBetrayalRate() {
+    return counters[DECISIONS] == 0 ? 0 : (double) counters[BETRAYALS] / counters[DECISIONS];
+  }
+
+  public long getCasesDecided() {
+    return counters[CASES_DECIDED];
+  }
+
+  public long getAppeals() {
+    return counters[APPEALS];
+  }
+
+  public long getAppealsPassed() {
+    return counters[APPEALS_PASSED];
+  }
+
+  /**
+   * Returns the number of prisoners given the sentence when their case was decided.
+   **/
+  public long getSentenceCount(int sentence) {
+    return counters[SENTENCES + sentence];
+  }
+
+  /**
+   * Returns the number of passed appeals that left the prisoner with the sentence.
+   **/
+  public long getAppealSentenceCount(int sentence) {
+    return counters[APPEAL_SENTENCES + sentence];
+  }
+
+  /**
+   * Returns the average sentence given when cases were decided.
+   **/
+  public double getAverageSentence() {
+    long totalYears = 0;
+    for (int sentence = 0; sentence <= Case.MAX_SENTENCE; sentence++) {
+      totalYears += sentence * counters[SENTENCES + sentence];
+    }
+    long prisoners = counters[CASES_DECIDED] * Case.NUMBER_PRISONERS;
+    return prisoners == 0 ? 0 : (double) totalYears / prisoners;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    text.append(windowSeconds == ALL_TIME ? "Since start" : "Last " + windowSeconds + " s").append(": ")
+        .append(getDecisions()).append(" decisions, ")
+        .append(String.format("%.1f", getBetrayalRate() * 100)).append("% betrayed, ")
+        .append(getCasesDecided()).append(" cases decided, average sentence ")
+        .append(String.format("%.2f", getAverageSentence())).append(" years, ")
+        .append(getAppealsPassed()).append(" of ").append(getAppeals()).append(" appeals passed");
+    text.append(System.lineSeparator()).append("years  decided  after appeal");
+    for (int sentence = 0; sentence <= Case.MAX_SENTENCE; sentence++) {
+      if (getSentenceCount(sentence) > 0 || getAppealSentenceCount(sentence) > 0) {
+        text.append(System.lineSeparator()).append(String.format("%5d %8d %13d", sentence, getSentenceCount(sentence), getAppealSentenceCount(sentence)));
+      }
+    }
+    return text.toString();
+  }
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    out.writeInt(windowSeconds);
+    out.writeInt(counters.length);
+    for (long counter : counters) {
+      out.writeLong(counter);
+    }
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException {
+    windowSeconds = in.readInt();
+    int numberOfCounters = in.readInt();
+    /*Counters added by a newer server are ignored. */
+    counters = new long[NUMBER_COUNTERS];
+    for (int index = 0; index < numberOfCounters; index++) {
+      long counter = in.readLong();
+      if (index < NUMBER_COUNTERS) {
+        counters[index] = counter;
+      }
+    }
+  }
+}
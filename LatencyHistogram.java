@@ -0,0 +1,97 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with buckets of logarithmic size, in the style of HdrHistogram.
+ * Each power of two is split into 8 buckets, so a value is reported within 12.5% of what was recorded.
+ * Buckets are striped counters, so threads recording at the same time do not contend.
+ **/
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 40; /*Largest value tracked is about 18 minutes. */
+  private static final int NUMBER_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final LongAdder[] buckets = new LongAdder[NUMBER_BUCKETS];
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  public LatencyHistogram() {
+    for (int index = 0; index < NUMBER_BUCKETS; index++) {
+      buckets[index] = new LongAdder();
+    }
+  }
+
+  /**
+   * Method used to record one latency.
+   **/
+  public void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    buckets[bucketIndex(value)].increment();
+    totalNanos.add(value);
+    maxNanos.accumulate(value);
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  public double getMeanNanos() {
+    long count = getCount();
+    return count == 0 ? 0 : (double) totalNanos.sum() / count;
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /**
+   * Returns the latency below which the given fraction (e.g. 0.99) of the recorded latencies fall.
+   * Reported as the highest value of its bucket.
+   **/
+  public long getPercentileNanos(double fraction) {
+    long[] counts = new long[NUMBER_BUCKETS];
+    long count = 0;
+    for (int index = 0; index < NUMBER_BUCKETS; index++) {
+      counts[index] = buckets[index].sum();
+      count += counts[index];
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long target = Math.max((long) Math.ceil(fraction * count), 1);
+    long seen = 0;
+    for (int index = 0; index < NUMBER_BUCKETS; index++) {
+      seen += counts[index];
+      if (seen >= target) {
+        return Math.min(bucketLowestValue(index + 1) - 1, getMaxNanos());
+      }
+    }
+    return getMaxNanos();
+  }
+
+  private static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+    if (exponent == MAX_EXPONENT && value >= 1L << (MAX_EXPONENT + 1)) {
+      return NUMBER_BUCKETS - 1; /*Larger values all go in the last bucket. */
+    }
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  private static long bucketLowestValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS - 1 + SUB_BUCKET_BITS;
+    return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+  }
+}
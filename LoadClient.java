@@ -0,0 +1,288 @@
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Client without a console used to put load on a running server.
+ * Simulates pairs of prisoners: each pair opens a case, then both prisoners log in, decide,
+ * wait for the decision, read their sentence, may appeal and log out, at the same time.
+ * With a matchmaking stub both prisoners ask to be paired instead, and play the case they are given.
+ * Pairs are either started at a fixed rate (open loop) or by a fixed number of workers that
+ * start a new pair as soon as their last one has finished (closed loop).
+ * Once all the pairs have finished the throughput, latencies and errors of each operation are printed.
+ **/
+public class LoadClient {
+
+    private static final long LONG_POLL_TIMEOUT_MILLIS = 30000; /*Time the server holds a long polling request. */
+    private static final String PAIR = "pair"; /*Whole pair, timed from when it was due to start. */
+    private static final String[] OPERATIONS = {"createCase", "match", "login", "logDecision", "waitForDecision", "getSentence", "appeal", "logout", PAIR};
+
+    /**
+     * Interface used to time a remote call.
+     **/
+    private interface RemoteCall<T> {
+        T call() throws Exception;
+    }
+
+    private final ProsecutorService prosecutorStub;
+    private final AppealService appealStub;
+    private final MatchmakingService matchmakingStub; /*Not used if not set. */
+    private final ExecutorService executor;
+    private final double appealProbability;
+    private final Map<String, MethodMetrics> operationMetrics = new LinkedHashMap<>();
+    private final AtomicLong failedPairs = new AtomicLong();
+
+    /**
+     * Object constructor. The executor runs the pairs and the second prisoner of each pair.
+     **/
+    public LoadClient(ProsecutorService prosecutorStub, AppealService appealStub, ExecutorService executor, double appealProbability) {
+        this(prosecutorStub, appealStub, null, executor, appealProbability);
+    }
+
+    /**
+     * Constructor for a client whose prisoners are paired by the matchmaking service instead of opening a case.
+     **/
+    public LoadClient(ProsecutorService prosecutorStub, AppealService appealStub, MatchmakingService matchmakingStub,
+                      ExecutorService executor, double appealProbability) {
+        this.prosecutorStub = prosecutorStub;
+        this.appealStub = appealStub;
+        this.matchmakingStub = matchmakingStub;
+        this.executor = executor;
+        this.appealProbability = appealProbability;
+        for (String operation : OPERATIONS) {
+            operationMetrics.put(operation, new MethodMetrics(operation));
+        }
+    }
+
+    /**
+     * Method used to run the pairs with a fixed number of workers, each starting a new pair once its last one has finished.
+     **/
+    public void runClosedLoop(long pairs, int concurrency) throws Exception {
+        AtomicLong nextPair = new AtomicLong();
+        Future<?>[] workers = new Future<?>[concurrency];
+        for (int worker = 0; worker < concurrency; worker++) {
+            workers[worker] = executor.submit(() -> {
+                while (nextPair.getAndIncrement() < pairs) {
+                    runPair(System.nanoTime());
+                }
+            });
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+    }
+
+    /**
+     * Method used to start the pairs at a fixed rate, whether or not the earlier pairs have finished.
+     * At most the given number of pairs run at once. Pairs are timed from when they were due to start,
+     * so time spent waiting behind a slow server is counted.
+     **/
+    public void runOpenLoop(long pairs, int concurrency, double pairsPerSecond) throws InterruptedException {
+        Semaphore pairsRunning = new Semaphore(concurrency);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / pairsPerSecond);
+        long startTime = System.nanoTime();
+        for (long pair = 0; pair < pairs; pair++) {
+            long dueTime = startTime + pair * intervalNanos;
+            long delay;
+            while ((delay = dueTime - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            pairsRunning.acquire();
+            executor.execute(() -> {
+                try {
+                    runPair(dueTime);
+                } finally {
+                    pairsRunning.release();
+                }
+            });
+        }
+        pairsRunning.acquire(concurrency); /*Wait for the last pairs. */
+    }
+
+    /**
+     * Method used to play one case. Both prisoners run at the same time, the second one on the executor.
+     **/
+    private void runPair(long dueTime) {
+        boolean failed = true;
+        try {
+            if (matchmakingStub != null) {
+                /*Prisoners of different pairs can be paired together, but every prisoner is paired once all have joined. */
+                Future<?> partner = executor.submit(() -> {
+                    runMatchedPrisoner();
+                    return null;
+                });
+                runMatchedPrisoner();
+                partner.get();
+            } else {
+                int caseID = timed("createCase", prosecutorStub::createCase);
+                Future<?> partner = executor.submit(() -> {
+                    runPrisoner(caseID, 1);
+                    return null;
+                });
+                runPrisoner(caseID, 0);
+                partner.get();
+            }
+            failed = false;
+        } catch (Exception e) {
+            failedPairs.incrementAndGet();
+        } finally {
+            operationMetrics.get(PAIR).record(System.nanoTime() - dueTime, failed);
+        }
+    }
+
+    private void runMatchedPrisoner() throws Exception {
+        ProsecutorService.LoginDetails match = timed("match", () -> {
+            ProsecutorService.LoginDetails details;
+            while ((details = matchmakingStub.requestMatch(LONG_POLL_TIMEOUT_MILLIS)) == null) {
+                /*No other prisoner has joined yet. */
+            }
+            return details;
+        });
+        runPrisoner(match.getCaseID(), match.getPrisonerID());
+    }
+
+    private void runPrisoner(int caseID, int prisonerID) throws Exception {
+        ProsecutorService.LoginDetails details = new ProsecutorService.LoginDetails();
+        details.setCaseID(caseID);
+        details.setPrisonerID(prisonerID);
+        long sessionToken = timed("login", () -> {
+            long token = prosecutorStub.login(details);
+            if (token == SessionTable.NO_SESSION) {
+                throw new IllegalStateException("Login was refused");
+            }
+            return token;
+        });
+        try {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            ProsecutorService.Command decision = random.nextBoolean() ? ProsecutorService.Command.BETRAY : ProsecutorService.Command.COOPERATE;
+            timed("logDecision", () -> {
+                if (!prosecutorStub.logDecision(sessionToken, decision)) {
+                    throw new IllegalStateException("Decision was refused");
+                }
+                return null;
+            });
+            timed("waitForDecision", () -> {
+                while (!prosecutorStub.waitForDecision(sessionToken, LONG_POLL_TIMEOUT_MILLIS)) {
+                    /*Partner has not decided yet. */
+                }
+                return null;
+            });
+            timed("getSentence", () -> prosecutorStub.getSentence(sessionToken));
+            if (random.nextDouble() < appealProbability) {
+                timed("appeal", () -> {
+                    long ticket = appealStub.submitAppeal(caseID, prisonerID);
+                    AppealOutcome outcome;
+                    while ((outcome = appealStub.awaitAppealOutcome(ticket, LONG_POLL_TIMEOUT_MILLIS)) == null) {
+                        /*Appeal has not been decided yet. */
+                    }
+                    return outcome;
+                });
+            }
+        } finally {
+            timed("logout", () -> {
+                prosecutorStub.logout(sessionToken);
+                return null;
+            });
+        }
+    }
+
+    private <T> T timed(String operation, RemoteCall<T> remoteCall) throws Exception {
+        long startTime = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = remoteCall.call();
+            failed = false;
+            return result;
+        } finally {
+            operationMetrics.get(operation).record(System.nanoTime() - startTime, failed);
+        }
+    }
+
+    /**
+     * Method used to print the throughput, latencies and errors of each operation.
+     **/
+    public void printReport(long elapsedNanos) {
+        double elapsedSeconds = elapsedNanos / 1e9;
+        System.out.printf("%-16s %10s %10s %8s %10s %10s %10s %10s%n", "operation", "calls", "per second", "errors", "mean us", "p50 us", "p99 us", "max us");
+        for (MethodMetrics metrics : operationMetrics.values()) {
+            if (metrics.getCalls() > 0) {
+                System.out.printf("%-16s %10d %10.0f %8d %10.0f %10.0f %10.0f %10.0f%n", metrics.getMethodName(), metrics.getCalls(),
+                        metrics.getCalls() / elapsedSeconds, metrics.getErrors(), metrics.getMeanMicros(),
+                        metrics.getP50Micros(), metrics.getP99Micros(), metrics.getMaxMicros());
+            }
+        }
+        System.out.println(failedPairs.get() + " pairs failed in " + String.format("%.1f", elapsedSeconds) + " s");
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: LoadClient pairs concurrency [pairsPerSecond] [appealProbability]");
+            System.out.println("A rate of 0 runs closed loop. Threads are set with -Dclient.threads=platform|virtual and the NIO transport with -Dnio.enabled=true");
+            System.out.println("Prisoners are paired by the matchmaking service with -Dload.matchmaking=true");
+            return;
+        }
+        long pairs = Long.parseLong(args[0]);
+        int concurrency = Integer.parseInt(args[1]);
+        double pairsPerSecond = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        double appealProbability = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+        ExecutorService executor = ServerExecutors.newRequestExecutor(System.getProperty("client.threads", ServerExecutors.PLATFORM_MODE));
+        try {
+            /* Same connection as MainClient. */
+            ProsecutorService prosecutorStub;
+            AppealService appealStub;
+            MatchmakingService matchmakingStub;
+            if (System.getProperty("cluster.nodes") != null) {
+                /* Send each call to the node owning its case, with -Dcluster.nodes=host:port,host:port */
+                ClusterRouter clusterRouter = new ClusterRouter(Arrays.asList(System.getProperty("cluster.nodes").split(",")));
+                prosecutorStub = clusterRouter;
+                appealStub = clusterRouter;
+                matchmakingStub = clusterRouter;
+            } else if (System.getProperty("replication.replicas") != null) {
+                /* Poll for decisions on the read replicas with -Dreplication.replicas=host:port,host:port and
+                 * send everything else to -Dreplication.primary=host:port */
+                String primary = System.getProperty("replication.primary", "localhost:" + MainClient.PORT_NUMBER);
+                prosecutorStub = new ReplicaRouter(primary, Arrays.asList(System.getProperty("replication.replicas").split(",")));
+                Registry registry = ClusterNode.locateRegistry(primary);
+                appealStub = (AppealService) registry.lookup(AppealService.class.getName());
+                matchmakingStub = (MatchmakingService) registry.lookup(MatchmakingService.class.getName());
+            } else if (Boolean.getBoolean("nio.enabled")) {
+                NioTransportClient nioClient = new NioTransportClient("localhost", MainClient.NIO_PORT_NUMBER);
+                prosecutorStub = nioClient;
+                appealStub = nioClient;
+                matchmakingStub = null; /*Not served over the NIO transport. */
+            } else {
+                Registry registry = LocateRegistry.getRegistry(MainClient.PORT_NUMBER);
+                prosecutorStub = (ProsecutorService) registry.lookup(ProsecutorService.class.getName());
+                appealStub = (AppealService) registry.lookup(AppealService.class.getName());
+                matchmakingStub = (MatchmakingService) registry.lookup(MatchmakingService.class.getName());
+            }
+            if (!Boolean.getBoolean("load.matchmaking")) {
+                matchmakingStub = null;
+            } else if (matchmakingStub == null) {
+                throw new IllegalStateException("Matchmaking is not served over the NIO transport!");
+            }
+            LoadClient loadClient = new LoadClient(prosecutorStub, appealStub, matchmakingStub, executor, appealProbability);
+            long startTime = System.nanoTime();
+            if (pairsPerSecond > 0) {
+                loadClient.runOpenLoop(pairs, concurrency, pairsPerSecond);
+            } else {
+                loadClient.runClosedLoop(pairs, concurrency);
+            }
+            loadClient.printReport(System.nanoTime() - startTime);
+        } catch (Exception e) {
+            System.err.println("An error has occurred!!\r\n" + e.toString());
+        } finally {
+            executor.shutdown();
+        }
+        System.exit(0);
+    }
+}
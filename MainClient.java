@@ -1,5 +1,6 @@
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.Arrays;
 
 
 /**
@@ -8,17 +9,44 @@ import java.rmi.registry.Registry;
 public class MainClient {
     /*Port to connect to. */
     public static final int PORT_NUMBER = 8080;
+    /*Port of the NIO transport. */
+    public static final int NIO_PORT_NUMBER = 8081;
 
     public static void main(String[] args) {
         try {
-            /* Initialise connection to server */
-            Registry registry = LocateRegistry.getRegistry(PORT_NUMBER);
-            ProsecutorService prosecutorStub = (ProsecutorService) registry.lookup(ProsecutorService.class.getName());
-            AppealService appealStub = (AppealService) registry.lookup(AppealService.class.getName());
+            /* Initialise connection to server. Use the NIO transport when started with -Dnio.enabled=true */
+            ProsecutorService prosecutorStub;
+            AppealService appealStub;
+            MatchmakingService matchmakingStub;
+            if (System.getProperty("cluster.nodes") != null) {
+                /* Send each call to the node owning its case, with -Dcluster.nodes=host:port,host:port */
+                ClusterRouter clusterRouter = new ClusterRouter(Arrays.asList(System.getProperty("cluster.nodes").split(",")));
+                prosecutorStub = clusterRouter;
+                appealStub = clusterRouter;
+                matchmakingStub = clusterRouter;
+            } else if (System.getProperty("replication.replicas") != null) {
+                /* Poll for decisions on the read replicas with -Dreplication.replicas=host:port,host:port and
+                 * send everything else to -Dreplication.primary=host:port */
+                String primary = System.getProperty("replication.primary", "localhost:" + PORT_NUMBER);
+                prosecutorStub = new ReplicaRouter(primary, Arrays.asList(System.getProperty("replication.replicas").split(",")));
+                Registry registry = ClusterNode.locateRegistry(primary);
+                appealStub = (AppealService) registry.lookup(AppealService.class.getName());
+                matchmakingStub = (MatchmakingService) registry.lookup(MatchmakingService.class.getName());
+            } else if (Boolean.getBoolean("nio.enabled")) {
+                NioTransportClient nioClient = new NioTransportClient("localhost", NIO_PORT_NUMBER);
+                prosecutorStub = nioClient;
+                appealStub = nioClient;
+                matchmakingStub = null; /*Not served over the NIO transport. */
+            } else {
+                Registry registry = LocateRegistry.getRegistry(PORT_NUMBER);
+                prosecutorStub = (ProsecutorService) registry.lookup(ProsecutorService.class.getName());
+                appealStub = (AppealService) registry.lookup(AppealService.class.getName());
+                matchmakingStub = (MatchmakingService) registry.lookup(MatchmakingService.class.getName());
+            }
             System.out.println("Checking service connection: " + prosecutorStub.testConnection());
 
             /* Login to system. */
-            PrisonerClient client = PrisonerClient.userAuthentication(prosecutorStub);
+            PrisonerClient client = PrisonerClient.userAuthentication(prosecutorStub, matchmakingStub);
 
             /* Load handle decision*/
             client.prisonerDecisionHandler();
@@ -0,0 +1,128 @@
+/**
+ * View of a case stored in the MappedCaseTable.
+ * It holds no state of its own, so a new view can be created on every lookup.
+ * Behaves the same as a case kept on the heap.
+ */
+public class MappedCase extends CaseView {
+
+    private final int caseID;
+    private final MappedCaseTable table;
+
+    public MappedCase(MappedCaseTable table, int caseID) {
+        this.table = table;
+        this.caseID = caseID;
+    }
+
+    @Override
+    public int getCaseID() {
+        return caseID;
+    }
+
+    /**
+     * The table only holds single round cases.
+     **/
+    @Override
+    public int getTotalRounds() {
+        return 1;
+    }
+
+    private void validatePrisonerID(int prisonerID) {
+        if (prisonerID < 0 || prisonerID >= Case.NUMBER_PRISONERS) {
+            throw new IllegalArgumentException("ID is not valid.");
+        }
+    }
+
+    @Override
+    public boolean logPrisonerDecision(int prisonerID, boolean betrayedPartner) {
+        if (prisonerID < 0 || prisonerID >= Case.NUMBER_PRISONERS) {
+            throw new IllegalArgumentException("Index is out of bounds!");
+        }
+        return table.logDecision(getCaseID(), prisonerID, betrayedPartner);
+    }
+
+    /**
+     * Archived cases reject the reduction, as heap cases do once archived.
+     **/
+    @Override
+    public void reducePrisonSentence(int prisonerID, int sentenceReduction) {
+        if (prisonerID >= 0 && prisonerID < Case.NUMBER_PRISONERS
+                && !table.reduceSentence(getCaseID(), prisonerID, sentenceReduction) && table.isArchived(getCaseID())) {
+            throw new IllegalStateException("Case " + getCaseID() + " no longer accepts changes!");
+        }
+    }
+
+    @Override
+    public boolean isSentencingAvailable() {
+        return CaseRecord.getStatus(table.getRecord(getCaseID())) == Case.caseStatus.DECISION_MADE;
+    }
+
+    @Override
+    Case.caseStatus getStatus() {
+        return CaseRecord.getStatus(table.getRecord(getCaseID()));
+    }
+
+    @Override
+    public void registerSentenceListener(int prisonerID, SentenceListener listener) {
+        validatePrisonerID(prisonerID);
+        if (listener == null) {
+            throw new IllegalArgumentException("ID is not valid.");
+        }
+        table.registerSentenceListener(getCaseID(), prisonerID, listener);
+    }
+
+    /**
+     * Waits in the table, which wakes up the request once the decision is logged.
+     **/
+    @Override
+    public boolean awaitSentencing(long timeoutMillis) throws InterruptedException {
+        return table.awaitDecision(getCaseID(), timeoutMillis);
+    }
+
+    @Override
+    public int getRoundsPlayed() {
+        return isSentencingAvailable() ? 1 : 0;
+    }
+
+    @Override
+    public boolean hasBetrayedInRound(int prisonerID, int round) {
+        validatePrisonerID(prisonerID);
+        long record = table.getRecord(getCaseID());
+        if (round != 0 || CaseRecord.getStatus(record) != Case.caseStatus.DECISION_MADE) {
+            throw new IllegalArgumentException("Round is not in the history!");
+        }
+        return CaseRecord.hasBetrayed(record, prisonerID);
+    }
+
+    /**
+     * Views keep no state, so appeals are counted by the table.
+     **/
+    @Override
+    int nextAppealNumber(int prisonerID) {
+        validatePrisonerID(prisonerID);
+        return table.nextAppealNumber(getCaseID(), prisonerID);
+    }
+
+    @Override
+    public int getPrisonerSentence(int prisonerID) {
+        validatePrisonerID(prisonerID);
+        long record = table.getRecord(getCaseID());
+        if (!CaseRecord.hasDecided(record, prisonerID)) {
+            throw new IllegalStateException("Prisoner has not made a decision yet.");
+        }
+        return CaseRecord.getSentence(record, prisonerID);
+    }
+
+    @Override
+    public int[] getSentences() {
+        long record = table.getRecord(getCaseID()); /*Both sentences are read from the same record. */
+        int[] sentences = new int[Case.NUMBER_PRISONERS];
+        for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+            if (CaseRecord.getStatus(record) == Case.caseStatus.DECISION_MADE) {
+                sentences[prisonerID] = CaseRecord.getSentence(record, prisonerID);
+            } else {
+                sentences[prisonerID] = Case.SENTENCE_UNKNOWN;
+            }
+        }
+        return sentences;
+    }
+}
@@ -0,0 +1,311 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Off-heap table of cases kept in a memory-mapped file.
+ * Each case is one fixed-width record (see CaseRecord) found directly by its case ID,
+ * so a case costs 8 bytes and no objects on the heap. Records are updated with compare-and-set.
+ * Changes are forced to disk according to the fsync policy, as the journal of cases kept on the heap.
+ * Forcing a record forces the page holding it, so ALWAYS costs one write to disk per change.
+ **/
+public class MappedCaseTable implements AutoCloseable {
+
+  public static final int MAX_CAPACITY = Integer.MAX_VALUE / Long.BYTES; /*Largest table that fits in one mapping. */
+
+  private static final VarHandle RECORD_HANDLE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  private final FileChannel channel;
+  private final MappedByteBuffer records;
+  private final int capacity;
+  private final LongAdder numberOfCases = new LongAdder();
+  /* Listeners waiting for a decision. Only a few cases have one at any time. */
+  private final ConcurrentHashMap<Long, SentenceListener> sentenceListeners = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, AtomicInteger> appealCounters = new ConcurrentHashMap<>(); /*Only for prisoners who appealed. */
+  /* Long polling requests waiting for a decision, by case ID. Only cases being waited on have an entry. */
+  private final ConcurrentHashMap<Integer, DecisionWaiters> decisionWaiters = new ConcurrentHashMap<>();
+  private final CaseJournal.FsyncPolicy fsyncPolicy;
+  private volatile long lastForceNanos = System.nanoTime();
+
+  /**
+   * Requests waiting for the decision of one case. They wait on a condition, as for a case kept on the heap.
+   **/
+  private static final class DecisionWaiters {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition decisionMade = lock.newCondition();
+    private int waiting; /*Only changed while the entry is being computed in the map. */
+  }
+
+  /**
+   * Object constructor. Opens (or creates) the table file with room for the given number of cases.
+   * Changes are left to the operating system until the table is forced.
+   **/
+  public MappedCaseTable(Path tableFile, int capacity) throws IOException {
+    this(tableFile, capacity, CaseJournal.FsyncPolicy.NEVER);
+  }
+
+  /**
+   * Object constructor. Changes are forced to disk according to the given policy.
+   **/
+  public MappedCaseTable(Path tableFile, int capacity, CaseJournal.FsyncPolicy fsyncPolicy) throws IOException {
+    if (capacity <= 0 || capacity > MAX_CAPACITY) {
+      throw new IllegalArgumentException("Capacity is not valid!");
+    }
+    this.capacity = capacity;
+    this.fsyncPolicy = fsyncPolicy;
+    this.channel = FileChannel.open(tableFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.records = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * Long.BYTES);
+    /*Count the cases already in the file. */
+    for (int caseID = 0; caseID < capacity; caseID++) {
+      if (CaseRecord.isPresent(getRecord(caseID))) {
+        numberOfCases.increment();
+      }
+    }
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public long getNumberOfCases() {
+    return numberOfCases.sum();
+  }
+
+  /**
+   * Returns the record of the case or CaseRecord.EMPTY if it does not exist.
+   **/
+  public long getRecord(int caseID) {
+    if (caseID < 0 || caseID >= capacity) {
+      return CaseRecord.EMPTY;
+    }
+    return (long) RECORD_HANDLE.getVolatile(records, offset(caseID));
+  }
+
+  public boolean contains(int caseID) {
+    return CaseRecord.isPresent(getRecord(caseID));
+  }
+
+  /**
+   * Method used to add a new case. Returns false if the case already exists.
+   **/
+  public boolean create(int caseID) {
+    if (caseID < 0 || caseID >= capacity) {
+      throw new IllegalStateException("Case table is full!");
+    }
+    boolean created = RECORD_HANDLE.compareAndSet(records, offset(caseID), CaseRecord.EMPTY, CaseRecord.newCase());
+    if (created) {
+      numberOfCases.increment();
+      forceIfRequired(caseID);
+    }
+    return created;
+  }
+
+  /**
+   * Method used to remove a case. Returns false if it does not exist.
+   **/
+  public boolean retire(int caseID) {
+    long record;
+    do {
+      record = getRecord(caseID);
+      if (!CaseRecord.isPresent(record)) {
+        return false;
+      }
+    }
+    while (!compareAndSet(caseID, record, CaseRecord.EMPTY));
+    numberOfCases.decrement();
+    forceIfRequired(caseID);
+    for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+      appealCounters.remove(listenerKey(caseID, prisonerID));
+      sentenceListeners.remove(listenerKey(caseID, prisonerID));
+    }
+    return true;
+  }
+
+  /**
+   * Method used to mark a finished case as archived, so its appeals are no longer accepted.
+   * Returns false if the case does not exist, its decision has not been made or it is already archived.
+   **/
+  public boolean archive(int caseID) {
+    long record;
+    do {
+      record = getRecord(caseID);
+      if (CaseRecord.getStatus(record) != Case.caseStatus.DECISION_MADE || CaseRecord.isArchived(record)) {
+        return false;
+      }
+    }
+    while (!compareAndSet(caseID, record, CaseRecord.withArchived(record)));
+    forceIfRequired(caseID);
+    for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+      appealCounters.remove(listenerKey(caseID, prisonerID));
+    }
+    return true;
+  }
+
+  public boolean isArchived(int caseID) {
+    return CaseRecord.isArchived(getRecord(caseID));
+  }
+
+  /**
+   * Method used to log the decision of a prisoner. Throws if the prisoner has already decided.
+   * Returns true if this decision made the decision of the case.
+   **/
+  public boolean logDecision(int caseID, int prisonerID, boolean betrayedPartner) {
+    int sentence = Case.newSentence(caseID, prisonerID);
+    long record;
+    long updated;
+    do {
+      record = getRecord(caseID);
+      if (!CaseRecord.isPresent(record) || CaseRecord.hasDecided(record, prisonerID)) {
+        throw new IllegalArgumentException("Index is out of bounds!");
+      }
+      updated = CaseRecord.withDecision(record, prisonerID, betrayedPartner, sentence);
+    }
+    while (!compareAndSet(caseID, record, updated));
+    forceIfRequired(caseID);
+    if (CaseRecord.getStatus(updated) == Case.caseStatus.DECISION_MADE) {
+      signalDecisionMade(caseID);
+      for (int partnerID = 0; partnerID < Case.NUMBER_PRISONERS; partnerID++) {
+        notifyListener(caseID, partnerID);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Method used to reduce the sentence of a prisoner who has already decided.
+   * Returns false if the sentence was not changed: the case does not exist, the prisoner has not decided,
+   * or the case is archived.
+   **/
+  public boolean reduceSentence(int caseID, int prisonerID, int sentenceReduction) {
+    long record;
+    do {
+      record = getRecord(caseID);
+      if (!CaseRecord.isPresent(record) || !CaseRecord.hasDecided(record, prisonerID) || CaseRecord.isArchived(record)) {
+        return false;
+      }
+    }
+    while (!compareAndSet(caseID, record, CaseRecord.withSentenceReduced(record, prisonerID, sentenceReduction)));
+    forceIfRequired(caseID);
+    return true;
+  }
+
+  /**
+   * Method used to wait for the decision of the case to be made (long polling).
+   * Returns as soon as the decision is made or once the timeout expires.
+   **/
+  public boolean awaitDecision(int caseID, long timeoutMillis) throws InterruptedException {
+    if (isDecisionMade(caseID)) {
+      return true;
+    }
+    DecisionWaiters waiters = decisionWaiters.compute(caseID, (key, existing) -> {
+      DecisionWaiters joined = existing == null ? new DecisionWaiters() : existing;
+      joined.waiting++;
+      return joined;
+    });
+    waiters.lock.lock();
+    try {
+      /*Checked again once registered, so a decision made meanwhile is not missed. */
+      long timeLeft = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      while (!isDecisionMade(caseID) && timeLeft > 0) {
+        timeLeft = waiters.decisionMade.awaitNanos(timeLeft);
+      }
+      return isDecisionMade(caseID);
+    } finally {
+      waiters.lock.unlock();
+      decisionWaiters.computeIfPresent(caseID, (key, existing) -> --existing.waiting == 0 ? null : existing);
+    }
+  }
+
+  private boolean isDecisionMade(int caseID) {
+    return CaseRecord.getStatus(getRecord(caseID)) == Case.caseStatus.DECISION_MADE;
+  }
+
+  /*Called once the record holds the decision, so a request registering after this sees it made. */
+  private void signalDecisionMade(int caseID) {
+    DecisionWaiters waiters = decisionWaiters.get(caseID);
+    if (waiters != null) {
+      waiters.lock.lock();
+      try {
+        waiters.decisionMade.signalAll(); /*Wake up long polling requests. */
+      } finally {
+        waiters.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Method used to register a listener that is called back once the decision is available.
+   **/
+  public void registerSentenceListener(int caseID, int prisonerID, SentenceListener listener) {
+    sentenceListeners.put(listenerKey(caseID, prisonerID), listener);
+    /*The decision may have been made before the listener was added. */
+    if (CaseRecord.getStatus(getRecord(caseID)) == Case.caseStatus.DECISION_MADE) {
+      notifyListener(caseID, prisonerID);
+    }
+  }
+
+  /**
+   * Returns the number of the next appeal of the prisoner, used to draw its outcome.
+   * Like cases on the heap, appeals are counted from the time the table was opened.
+   **/
+  public int nextAppealNumber(int caseID, int prisonerID) {
+    return appealCounters.computeIfAbsent(listenerKey(caseID, prisonerID), key -> new AtomicInteger()).getAndIncrement();
+  }
+
+  private void notifyListener(int caseID, int prisonerID) {
+    SentenceListener listener = sentenceListeners.remove(listenerKey(caseID, prisonerID));
+    if (listener != null) {
+      SentenceNotifier.notifyListener(listener, caseID, prisonerID);
+    }
+  }
+
+  /**
+   * Forces the table to disk.
+   **/
+  public void force() {
+    records.force();
+    lastForceNanos = System.nanoTime();
+  }
+
+  /**
+   * Forces the changed record to disk if the fsync policy requires it.
+   * With INTERVAL the whole table is forced at most once per interval, by the request that finds it due.
+   **/
+  private void forceIfRequired(int caseID) {
+    if (fsyncPolicy == CaseJournal.FsyncPolicy.ALWAYS) {
+      records.force(offset(caseID), Long.BYTES);
+    } else if (fsyncPolicy == CaseJournal.FsyncPolicy.INTERVAL && System.nanoTime() - lastForceNanos >= CaseJournal.FSYNC_INTERVAL_NANOS) {
+      force();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    force();
+    channel.close();
+  }
+
+  private boolean compareAndSet(int caseID, long expected, long updated) {
+    return RECORD_HANDLE.compareAndSet(records, offset(caseID), expected, updated);
+  }
+
+  private static int offset(int caseID) {
+    return caseID * Long.BYTES;
+  }
+
+  private static long listenerKey(int caseID, int prisonerID) {
+    return ((long) caseID << 1) | prisonerID;
+  }
+}
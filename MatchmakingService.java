@@ -0,0 +1,29 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface for the matchmaking service. Pairs prisoners into new cases, so they need not know a case number.
+ **/
+public interface MatchmakingService extends Remote {
+
+  /**
+   * Joins the queue and waits for a partner. Returns the case and prisoner ID to log in with,
+   * or null if no partner joined before the timeout.
+   **/
+  ProsecutorService.LoginDetails requestMatch(long timeoutMillis) throws RemoteException;
+
+  /**
+   * Joins the queue. Returns the ticket used to collect the case.
+   **/
+  long joinQueue() throws RemoteException;
+
+  /**
+   * Waits for a partner. Returns null if none has joined once the timeout expires.
+   **/
+  ProsecutorService.LoginDetails awaitMatch(long ticket, long timeoutMillis) throws RemoteException;
+
+  /**
+   * Leaves the queue. Returns false if a partner has already been found.
+   **/
+  boolean cancelMatch(long ticket) throws RemoteException;
+}
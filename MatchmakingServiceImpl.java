@@ -0,0 +1,55 @@
+import java.rmi.RemoteException;
+import java.util.Objects;
+
+/**
+ * This class is responsible for implementing the matchmaking service.
+ * Prisoners are paired by a PairingQueue and each pair is given a new case.
+ **/
+public class MatchmakingServiceImpl implements MatchmakingService {
+
+  private static final long MAX_WAIT_MILLIS = 30000; /*Longest time a request is held waiting for a partner. */
+
+  private final PairingQueue pairingQueue;
+
+  /**
+   * Constructor for a service creating the cases of the pairs in the given handler.
+   **/
+  public MatchmakingServiceImpl(PrisonerDatabaseHandler dbHandler, long maxWaitMillis) {
+    Objects.requireNonNull(dbHandler); /*Ensure the object is never null*/
+    this.pairingQueue = new PairingQueue(() -> dbHandler.createCase().getCaseID(), maxWaitMillis);
+  }
+
+  /**
+   * If no partner joins in time, the prisoner leaves the queue. A partner found while leaving is still returned.
+   **/
+  @Override
+  public ProsecutorService.LoginDetails requestMatch(long timeoutMillis) throws RemoteException {
+    long ticket = joinQueue();
+    ProsecutorService.LoginDetails match = awaitMatch(ticket, timeoutMillis);
+    if (match == null && !pairingQueue.cancel(ticket)) {
+      match = awaitMatch(ticket, MAX_WAIT_MILLIS);
+    }
+    return match;
+  }
+
+  @Override
+  public long joinQueue() throws RemoteException {
+    return pairingQueue.join();
+  }
+
+  @Override
+  public ProsecutorService.LoginDetails awaitMatch(long ticket, long timeoutMillis) throws RemoteException {
+    long timeout = Math.min(Math.max(timeoutMillis, 0), MAX_WAIT_MILLIS);
+    try {
+      return pairingQueue.awaitMatch(ticket, timeout);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  @Override
+  public boolean cancelMatch(long ticket) throws RemoteException {
+    return pairingQueue.cancel(ticket);
+  }
+}
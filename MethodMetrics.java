@@ -0,0 +1,64 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Calls, errors and latencies of one remote method.
+ **/
+public class MethodMetrics implements MethodMetricsMBean {
+
+  private final String methodName;
+  private final LatencyHistogram latencies = new LatencyHistogram();
+  private final LongAdder errors = new LongAdder();
+
+  public MethodMetrics(String methodName) {
+    this.methodName = methodName;
+  }
+
+  /**
+   * Method used to record one call. Calls that threw an exception are counted as errors.
+   **/
+  public void record(long elapsedNanos, boolean failed) {
+    latencies.record(elapsedNanos);
+    if (failed) {
+      errors.increment();
+    }
+  }
+
+  public String getMethodName() {
+    return methodName;
+  }
+
+  @Override
+  public long getCalls() {
+    return latencies.getCount();
+  }
+
+  @Override
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  @Override
+  public double getMeanMicros() {
+    return latencies.getMeanNanos() / 1000;
+  }
+
+  @Override
+  public double getP50Micros() {
+    return latencies.getPercentileNanos(0.5) / 1000.0;
+  }
+
+  @Override
+  public double getP99Micros() {
+    return latencies.getPercentileNanos(0.99) / 1000.0;
+  }
+
+  @Override
+  public double getP999Micros() {
+    return latencies.getPercentileNanos(0.999) / 1000.0;
+  }
+
+  @Override
+  public double getMaxMicros() {
+    return latencies.getMaxNanos() / 1000.0;
+  }
+}
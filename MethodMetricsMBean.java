@@ -0,0 +1,19 @@
+/**
+ * Management interface of the metrics of one remote method, as shown in JMX.
+ **/
+public interface MethodMetricsMBean {
+
+  long getCalls();
+
+  long getErrors();
+
+  double getMeanMicros();
+
+  double getP50Micros();
+
+  double getP99Micros();
+
+  double getP999Micros();
+
+  double getMaxMicros();
+}
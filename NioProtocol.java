@@ -0,0 +1,132 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Constants and encoding helpers shared by the NIO transport server and client.
+ *
+ * Request frame: length, request ID, method code, arguments.
+ * Response frame: length, request ID, status code, result (or error message).
+ * The length covers everything after it. Request IDs let a client send many requests
+ * on one connection without waiting and match the responses as they arrive.
+ **/
+public final class NioProtocol {
+
+  public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024; /*Larger frames close the connection. */
+  public static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + 1; /*Length, request ID and code. */
+
+  /* Method codes. */
+  public static final byte TEST_CONNECTION = 1;
+  public static final byte CREATE_CASE = 2;
+  public static final byte LOG_DECISION = 3;
+  public static final byte LOG_DECISIONS = 4;
+  public static final byte HAS_DECISION_BEEN_MADE = 5;
+  public static final byte HAVE_DECISIONS_BEEN_MADE = 6;
+  public static final byte GET_SENTENCE = 7;
+  public static final byte GET_SENTENCES = 8;
+  public static final byte USER_AUTHENTICATION = 9;
+  public static final byte WAIT_FOR_DECISION = 10;
+  public static final byte REQUEST_APPEAL = 11;
+  public static final byte LOGIN = 12;
+  public static final byte LOGOUT = 13;
+  public static final byte SESSION_LOG_DECISION = 14;
+  public static final byte SESSION_HAS_DECISION_BEEN_MADE = 15;
+  public static final byte SESSION_WAIT_FOR_DECISION = 16;
+  public static final byte SESSION_GET_SENTENCE = 17;
+  public static final byte SUBMIT_APPEAL = 18;
+  public static final byte AWAIT_APPEAL_OUTCOME = 19;
+
+  /* Status codes. Errors carry the message of the exception. */
+  public static final byte STATUS_OK = 0;
+  public static final byte STATUS_ILLEGAL_ARGUMENT = 1;
+  public static final byte STATUS_ILLEGAL_STATE = 2;
+  public static final byte STATUS_ERROR = 3;
+
+  private NioProtocol() {
+  }
+
+  public static void writeLogin(DataOutput out, ProsecutorService.LoginDetails details) throws IOException {
+    out.writeInt(details.getCaseID());
+    out.writeInt(details.getPrisonerID());
+  }
+
+  public static ProsecutorService.LoginDetails readLogin(DataInput in) throws IOException {
+    ProsecutorService.LoginDetails details = new ProsecutorService.LoginDetails();
+    details.setCaseID(in.readInt());
+    details.setPrisonerID(in.readInt());
+    return details;
+  }
+
+  /**
+   * Writes an appeal outcome, which may be null when it is not ready yet.
+   **/
+  public static void writeAppealOutcome(DataOutput out, AppealOutcome outcome) throws IOException {
+    out.writeBoolean(outcome != null);
+    if (outcome != null) {
+      out.writeBoolean(outcome.hasAppealPassed());
+      out.writeInt(outcome.getNewSentence());
+    }
+  }
+
+  public static AppealOutcome readAppealOutcome(DataInput in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    return new AppealOutcome(in.readBoolean(), in.readInt());
+  }
+
+  public static void writeIntArray(DataOutput out, int[] values) throws IOException {
+    out.writeInt(values.length);
+    for (int value : values) {
+      out.writeInt(value);
+    }
+  }
+
+  public static int[] readIntArray(DataInput in) throws IOException {
+    int[] values = new int[readLength(in)];
+    for (int index = 0; index < values.length; index++) {
+      values[index] = in.readInt();
+    }
+    return values;
+  }
+
+  public static void writeBooleanArray(DataOutput out, boolean[] values) throws IOException {
+    out.writeInt(values.length);
+    for (boolean value : values) {
+      out.writeBoolean(value);
+    }
+  }
+
+  public static boolean[] readBooleanArray(DataInput in) throws IOException {
+    boolean[] values = new boolean[readLength(in)];
+    for (int index = 0; index < values.length; index++) {
+      values[index] = in.readBoolean();
+    }
+    return values;
+  }
+
+  public static void writeBatchResult(DataOutput out, ProsecutorService.BatchResult result) throws IOException {
+    out.writeInt(result.size());
+    for (int index = 0; index < result.size(); index++) {
+      out.writeInt(result.getValue(index));
+      out.writeByte(result.getStatus(index));
+    }
+  }
+
+  public static ProsecutorService.BatchResult readBatchResult(DataInput in) throws IOException {
+    ProsecutorService.BatchResult result = new ProsecutorService.BatchResult(readLength(in));
+    for (int index = 0; index < result.size(); index++) {
+      result.setValue(index, in.readInt());
+      result.setStatus(index, in.readByte());
+    }
+    return result;
+  }
+
+  private static int readLength(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > MAX_FRAME_SIZE) {
+      throw new IOException("Array length is not valid!");
+    }
+    return length;
+  }
+}
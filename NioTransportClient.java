@@ -0,0 +1,349 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client-side stub for the NIO transport. Implements the same interfaces as the RMI stubs,
+ * so PrisonerClient works with either transport.
+ * All calls share one connection. Each call is sent straight away with its own request ID
+ * and a reader thread hands each response to the call waiting for it.
+ **/
+public class NioTransportClient implements ProsecutorService, AppealService, AutoCloseable {
+
+  /**
+   * Interface used to write the arguments of a call.
+   **/
+  private interface ArgumentWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Interface used to read the result of a call.
+   **/
+  private interface ResultReader<T> {
+    T read(DataInputStream in) throws IOException;
+  }
+
+  private final SocketChannel channel;
+  private final Map<Integer, CompletableFuture<DataInputStream>> pendingCalls = new ConcurrentHashMap<>();
+  private final AtomicInteger nextRequestID = new AtomicInteger();
+  private final Thread readerThread;
+
+  /**
+   * Object constructor. Connects to the server.
+   **/
+  public NioTransportClient(String host, int port) throws IOException {
+    this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+    Socket socket = channel.socket();
+    socket.setTcpNoDelay(true);
+    this.readerThread = new Thread(this::readResponses, "nio-client-reader");
+    this.readerThread.setDaemon(true);
+    this.readerThread.start();
+  }
+
+  /**
+   * Loop run by the reader thread. Completes the call each response belongs to.
+   **/
+  private void readResponses() {
+    IOException failure;
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+      while (true) {
+        int frameLength = input.readInt();
+        if (frameLength < NioProtocol.HEADER_SIZE - Integer.BYTES || frameLength > NioProtocol.MAX_FRAME_SIZE) {
+          throw new IOException("Frame length is not valid!");
+        }
+        byte[] frame = new byte[frameLength];
+        input.readFully(frame);
+        DataInputStream response = new DataInputStream(new ByteArrayInputStream(frame));
+        CompletableFuture<DataInputStream> call = pendingCalls.remove(response.readInt());
+        if (call != null) {
+          call.complete(response);
+        }
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+    /*Connection is gone. Fail every call still waiting. */
+    for (Integer requestID : pendingCalls.keySet()) {
+      CompletableFuture<DataInputStream> call = pendingCalls.remove(requestID);
+      if (call != null) {
+        call.completeExceptionally(failure);
+      }
+    }
+  }
+
+  /**
+   * Sends a request, waits for its response and reads the result.
+   **/
+  private <T> T call(byte methodCode, ArgumentWriter arguments, ResultReader<T> resultReader) throws RemoteException {
+    try {
+      return send(methodCode, arguments, resultReader).get();
+    } catch (ExecutionException e) {
+      Throwable failure = e.getCause();
+      if (failure instanceof RemoteException) {
+        throw (RemoteException) failure;
+      } else if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      throw new RemoteException("NIO transport failure", failure);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted while waiting for the server", e);
+    }
+  }
+
+  /**
+   * Sends a request without waiting for its response. The future completes with the result,
+   * or with the exception the call would have thrown.
+   **/
+  private <T> CompletableFuture<T> send(byte methodCode, ArgumentWriter arguments, ResultReader<T> resultReader) {
+    int requestID = nextRequestID.incrementAndGet();
+    CompletableFuture<DataInputStream> response = new CompletableFuture<>();
+    try {
+      ByteArrayOutputStream argumentBytes = new ByteArrayOutputStream(32);
+      arguments.write(new DataOutputStream(argumentBytes));
+      ByteBuffer frame = ByteBuffer.allocate(NioProtocol.HEADER_SIZE + argumentBytes.size());
+      frame.putInt(NioProtocol.HEADER_SIZE - Integer.BYTES + argumentBytes.size());
+      frame.putInt(requestID);
+      frame.put(methodCode);
+      frame.put(argumentBytes.toByteArray());
+      frame.flip();
+      pendingCalls.put(requestID, response);
+      synchronized (channel) {
+        /*Frames of different calls must not be interleaved. */
+        while (frame.hasRemaining()) {
+          channel.write(frame);
+        }
+      }
+    } catch (IOException e) {
+      pendingCalls.remove(requestID);
+      return CompletableFuture.failedFuture(new RemoteException("NIO transport failure", e));
+    }
+    return response.thenApply(result -> {
+      try {
+        return readResponse(result, resultReader);
+      } catch (RemoteException e) {
+        throw new CompletionException(e);
+      }
+    });
+  }
+
+  /**
+   * Reads the status of the response and either the result or the error it carries.
+   **/
+  private static <T> T readResponse(DataInputStream response, ResultReader<T> resultReader) throws RemoteException {
+    String message;
+    byte status;
+    try {
+      status = response.readByte();
+      if (status == NioProtocol.STATUS_OK) {
+        return resultReader.read(response);
+      }
+      message = response.readUTF();
+    } catch (IOException e) {
+      throw new RemoteException("Response is not valid", e);
+    }
+    switch (status) {
+      case NioProtocol.STATUS_ILLEGAL_ARGUMENT:
+        throw new IllegalArgumentException(message);
+      case NioProtocol.STATUS_ILLEGAL_STATE:
+        throw new IllegalStateException(message);
+      default:
+        throw new RemoteException(message);
+    }
+  }
+
+  @Override
+  public String testConnection() throws RemoteException {
+    return call(NioProtocol.TEST_CONNECTION, out -> { }, in -> in.readUTF());
+  }
+
+  @Override
+  public int createCase() throws RemoteException {
+    return call(NioProtocol.CREATE_CASE, out -> { }, DataInputStream::readInt);
+  }
+
+  @Override
+  public boolean logDecision(LoginDetails details, Command decision) throws RemoteException {
+    if (details == null || decision == null) {
+      return false;
+    }
+    return call(NioProtocol.LOG_DECISION, out -> {
+      NioProtocol.writeLogin(out, details);
+      out.writeByte(decision.ordinal());
+    }, DataInputStream::readBoolean);
+  }
+
+  @Override
+  public BatchResult logDecisions(int[] caseIDs, int[] prisonerIDs, boolean[] betrayedPartner) throws RemoteException {
+    return call(NioProtocol.LOG_DECISIONS, out -> {
+      NioProtocol.writeIntArray(out, caseIDs);
+      NioProtocol.writeIntArray(out, prisonerIDs);
+      NioProtocol.writeBooleanArray(out, betrayedPartner);
+    }, NioProtocol::readBatchResult);
+  }
+
+  @Override
+  public BatchResult haveDecisionsBeenMade(int[] caseIDs, int[] prisonerIDs) throws RemoteException {
+    return call(NioProtocol.HAVE_DECISIONS_BEEN_MADE, out -> {
+      NioProtocol.writeIntArray(out, caseIDs);
+      NioProtocol.writeIntArray(out, prisonerIDs);
+    }, NioProtocol::readBatchResult);
+  }
+
+  @Override
+  public BatchResult getSentences(int[] caseIDs, int[] prisonerIDs) throws RemoteException {
+    return call(NioProtocol.GET_SENTENCES, out -> {
+      NioProtocol.writeIntArray(out, caseIDs);
+      NioProtocol.writeIntArray(out, prisonerIDs);
+    }, NioProtocol::readBatchResult);
+  }
+
+  @Override
+  public boolean hasDecisionBeenMade(LoginDetails details) throws RemoteException {
+    if (details == null) {
+      return false;
+    }
+    return call(NioProtocol.HAS_DECISION_BEEN_MADE, out -> NioProtocol.writeLogin(out, details), DataInputStream::readBoolean);
+  }
+
+  @Override
+  public int getSentence(LoginDetails details) throws RemoteException, IllegalArgumentException {
+    if (details == null) {
+      throw new IllegalArgumentException("The ID and the case are not valid!");
+    }
+    return call(NioProtocol.GET_SENTENCE, out -> NioProtocol.writeLogin(out, details), DataInputStream::readInt);
+  }
+
+  @Override
+  public boolean userAuthentication(LoginDetails details) throws RemoteException {
+    if (details == null) {
+      return false;
+    }
+    return call(NioProtocol.USER_AUTHENTICATION, out -> NioProtocol.writeLogin(out, details), DataInputStream::readBoolean);
+  }
+
+  /**
+   * The server cannot call back over this transport. Returning false makes the client use long polling.
+   **/
+  @Override
+  public boolean registerSentenceListener(LoginDetails details, SentenceListener listener) {
+    return false;
+  }
+
+  @Override
+  public boolean waitForDecision(LoginDetails details, long timeoutMillis) throws RemoteException {
+    if (details == null) {
+      return false;
+    }
+    return call(NioProtocol.WAIT_FOR_DECISION, out -> {
+      NioProtocol.writeLogin(out, details);
+      out.writeLong(timeoutMillis);
+    }, DataInputStream::readBoolean);
+  }
+
+  /**
+   * Same as waitForDecision, but does not block the caller, so one thread can keep many prisoners
+   * waiting on one connection.
+   **/
+  public CompletableFuture<Boolean> waitForDecisionAsync(LoginDetails details, long timeoutMillis) {
+    return send(NioProtocol.WAIT_FOR_DECISION, out -> {
+      NioProtocol.writeLogin(out, details);
+      out.writeLong(timeoutMillis);
+    }, DataInputStream::readBoolean);
+  }
+
+  @Override
+  public long login(LoginDetails details) throws RemoteException {
+    if (details == null) {
+      return SessionTable.NO_SESSION;
+    }
+    return call(NioProtocol.LOGIN, out -> NioProtocol.writeLogin(out, details), DataInputStream::readLong);
+  }
+
+  @Override
+  public void logout(long sessionToken) throws RemoteException {
+    call(NioProtocol.LOGOUT, out -> out.writeLong(sessionToken), in -> null);
+  }
+
+  @Override
+  public boolean logDecision(long sessionToken, Command decision) throws RemoteException {
+    if (decision == null) {
+      return false;
+    }
+    return call(NioProtocol.SESSION_LOG_DECISION, out -> {
+      out.writeLong(sessionToken);
+      out.writeByte(decision.ordinal());
+    }, DataInputStream::readBoolean);
+  }
+
+  @Override
+  public boolean hasDecisionBeenMade(long sessionToken) throws RemoteException {
+    return call(NioProtocol.SESSION_HAS_DECISION_BEEN_MADE, out -> out.writeLong(sessionToken), DataInputStream::readBoolean);
+  }
+
+  @Override
+  public boolean waitForDecision(long sessionToken, long timeoutMillis) throws RemoteException {
+    return call(NioProtocol.SESSION_WAIT_FOR_DECISION, out -> {
+      out.writeLong(sessionToken);
+      out.writeLong(timeoutMillis);
+    }, DataInputStream::readBoolean);
+  }
+
+  @Override
+  public int getSentence(long sessionToken) throws RemoteException {
+    return call(NioProtocol.SESSION_GET_SENTENCE, out -> out.writeLong(sessionToken), DataInputStream::readInt);
+  }
+
+  @Override
+  public AppealOutcome requestAppeal(int caseID, int prisonerID) throws RemoteException {
+    return call(NioProtocol.REQUEST_APPEAL, out -> {
+      out.writeInt(caseID);
+      out.writeInt(prisonerID);
+    }, in -> new AppealOutcome(in.readBoolean(), in.readInt()));
+  }
+
+  @Override
+  public long submitAppeal(int caseID, int prisonerID) throws RemoteException {
+    return call(NioProtocol.SUBMIT_APPEAL, out -> {
+      out.writeInt(caseID);
+      out.writeInt(prisonerID);
+    }, DataInputStream::readLong);
+  }
+
+  @Override
+  public AppealOutcome awaitAppealOutcome(long ticket, long timeoutMillis) throws RemoteException {
+    return call(NioProtocol.AWAIT_APPEAL_OUTCOME, out -> {
+      out.writeLong(ticket);
+      out.writeLong(timeoutMillis);
+    }, NioProtocol::readAppealOutcome);
+  }
+
+  /**
+   * Closes the connection. Calls still waiting fail with a RemoteException.
+   **/
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    try {
+      readerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,325 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Non-blocking transport for the prosecutor and appeal services, used instead of RMI.
+ * One selector thread accepts connections, reads request frames and writes response frames.
+ * Requests are run on the executor, so a slow request (e.g. a long poll) does not hold up
+ * the other requests of the same connection. Responses are sent back as they complete.
+ **/
+public class NioTransportServer implements AutoCloseable {
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final int HEADER_BODY_SIZE = NioProtocol.HEADER_SIZE - Integer.BYTES; /*Header without the length. */
+
+  private final ProsecutorService prosecutorService;
+  private final AppealService appealService;
+  private final ExecutorService requestExecutor;
+  private final Selector selector;
+  private final ServerSocketChannel serverChannel;
+  private final Queue<Connection> connectionsToWrite = new ConcurrentLinkedQueue<>();
+  private final Thread selectorThread;
+  private volatile boolean running = true;
+
+  /**
+   * State kept for each client connection.
+   **/
+  private static class Connection {
+    private final SocketChannel channel;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final Queue<ByteBuffer> pendingResponses = new ConcurrentLinkedQueue<>();
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+  }
+
+  /**
+   * Object constructor. Starts listening on the given port.
+   **/
+  public NioTransportServer(int port, ProsecutorService prosecutorService, AppealService appealService,
+                            ExecutorService requestExecutor) throws IOException {
+    this.prosecutorService = prosecutorService;
+    this.appealService = appealService;
+    this.requestExecutor = requestExecutor;
+    this.selector = Selector.open();
+    this.serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(port));
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    this.selectorThread = new Thread(this::selectLoop, "nio-selector");
+    this.selectorThread.start();
+  }
+
+  /**
+   * Returns the port the server is listening on.
+   **/
+  public int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Loop run by the selector thread.
+   **/
+  private void selectLoop() {
+    while (running) {
+      try {
+        selector.select();
+        /*Start writing responses completed by the executor. */
+        Connection ready;
+        while ((ready = connectionsToWrite.poll()) != null) {
+          SelectionKey key = ready.channel.keyFor(selector);
+          if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          }
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          try {
+            if (key.isAcceptable()) {
+              accept();
+            } else {
+              if (key.isReadable()) {
+                read(key);
+              }
+              if (key.isValid() && key.isWritable()) {
+                write(key);
+              }
+            }
+          } catch (IOException e) {
+            /*Client went away or sent an invalid frame. */
+            closeConnection(key);
+          }
+        }
+      } catch (IOException e) {
+        System.err.println("NIO transport error: " + e.getMessage());
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel clientChannel = serverChannel.accept();
+    if (clientChannel != null) {
+      clientChannel.configureBlocking(false);
+      clientChannel.socket().setTcpNoDelay(true);
+      clientChannel.register(selector, SelectionKey.OP_READ, new Connection(clientChannel));
+    }
+  }
+
+  /**
+   * Reads what is available and hands every complete frame to the executor.
+   **/
+  private void read(SelectionKey key) throws IOException {
+    Connection connection = (Connection) key.attachment();
+    if (connection.channel.read(connection.readBuffer) < 0) {
+      throw new IOException("Connection closed");
+    }
+    ByteBuffer buffer = connection.readBuffer;
+    buffer.flip();
+    while (buffer.remaining() >= Integer.BYTES) {
+      int frameLength = buffer.getInt(buffer.position());
+      if (frameLength < HEADER_BODY_SIZE || frameLength > NioProtocol.MAX_FRAME_SIZE) {
+        throw new IOException("Frame length is not valid!");
+      }
+      if (buffer.remaining() < Integer.BYTES + frameLength) {
+        break; /*Wait for the rest of the frame. */
+      }
+      buffer.getInt();
+      int requestID = buffer.getInt();
+      byte methodCode = buffer.get();
+      byte[] arguments = new byte[frameLength - HEADER_BODY_SIZE];
+      buffer.get(arguments);
+      requestExecutor.execute(() -> respond(connection, requestID, methodCode, arguments));
+    }
+    buffer.compact();
+    if (!buffer.hasRemaining()) {
+      /*Frame is larger than the buffer. */
+      ByteBuffer largerBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+      buffer.flip();
+      largerBuffer.put(buffer);
+      connection.readBuffer = largerBuffer;
+    }
+  }
+
+  /**
+   * Writes as many queued responses as the socket accepts.
+   **/
+  private void write(SelectionKey key) throws IOException {
+    Connection connection = (Connection) key.attachment();
+    ByteBuffer response;
+    while ((response = connection.pendingResponses.peek()) != null) {
+      connection.channel.write(response);
+      if (response.hasRemaining()) {
+        return; /*Socket is full. Wait until it is writable again. */
+      }
+      connection.pendingResponses.poll();
+    }
+    key.interestOps(SelectionKey.OP_READ);
+    /*A response may have been queued after the queue was found empty. */
+    if (!connection.pendingResponses.isEmpty()) {
+      key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+  }
+
+  /**
+   * Runs the request on the executor and queues the response.
+   **/
+  private void respond(Connection connection, int requestID, byte methodCode, byte[] arguments) {
+    byte status;
+    ByteArrayOutputStream resultBytes = new ByteArrayOutputStream(32);
+    try {
+      dispatch(methodCode, new DataInputStream(new ByteArrayInputStream(arguments)), new DataOutputStream(resultBytes));
+      status = NioProtocol.STATUS_OK;
+    } catch (IllegalArgumentException e) {
+      status = NioProtocol.STATUS_ILLEGAL_ARGUMENT;
+      resultBytes = errorMessage(e);
+    } catch (IllegalStateException e) {
+      status = NioProtocol.STATUS_ILLEGAL_STATE;
+      resultBytes = errorMessage(e);
+    } catch (Exception e) {
+      status = NioProtocol.STATUS_ERROR;
+      resultBytes = errorMessage(e);
+    }
+    ByteArrayOutputStream responseBytes = new ByteArrayOutputStream(NioProtocol.HEADER_SIZE + resultBytes.size());
+    DataOutputStream output = new DataOutputStream(responseBytes);
+    try {
+      output.writeInt(HEADER_BODY_SIZE + resultBytes.size());
+      output.writeInt(requestID);
+      output.writeByte(status);
+      resultBytes.writeTo(output);
+    } catch (IOException e) {
+      /*Cannot happen when writing to memory. */
+      throw new IllegalStateException(e);
+    }
+    connection.pendingResponses.add(ByteBuffer.wrap(responseBytes.toByteArray()));
+    connectionsToWrite.add(connection);
+    selector.wakeup();
+  }
+
+  private static ByteArrayOutputStream errorMessage(Exception e) {
+    ByteArrayOutputStream messageBytes = new ByteArrayOutputStream();
+    try {
+      new DataOutputStream(messageBytes).writeUTF(String.valueOf(e.getMessage()));
+    } catch (IOException ioException) {
+      throw new IllegalStateException(ioException);
+    }
+    return messageBytes;
+  }
+
+  /**
+   * Decodes the arguments, calls the service and encodes the result.
+   **/
+  private void dispatch(byte methodCode, DataInputStream in, DataOutputStream out) throws IOException {
+    switch (methodCode) {
+      case NioProtocol.TEST_CONNECTION:
+        out.writeUTF(prosecutorService.testConnection());
+        break;
+      case NioProtocol.CREATE_CASE:
+        out.writeInt(prosecutorService.createCase());
+        break;
+      case NioProtocol.LOG_DECISION:
+        ProsecutorService.LoginDetails details = NioProtocol.readLogin(in);
+        out.writeBoolean(prosecutorService.logDecision(details, ProsecutorService.Command.values()[in.readByte()]));
+        break;
+      case NioProtocol.LOG_DECISIONS:
+        NioProtocol.writeBatchResult(out, prosecutorService.logDecisions(NioProtocol.readIntArray(in),
+            NioProtocol.readIntArray(in), NioProtocol.readBooleanArray(in)));
+        break;
+      case NioProtocol.HAS_DECISION_BEEN_MADE:
+        out.writeBoolean(prosecutorService.hasDecisionBeenMade(NioProtocol.readLogin(in)));
+        break;
+      case NioProtocol.HAVE_DECISIONS_BEEN_MADE:
+        NioProtocol.writeBatchResult(out, prosecutorService.haveDecisionsBeenMade(NioProtocol.readIntArray(in), NioProtocol.readIntArray(in)));
+        break;
+      case NioProtocol.GET_SENTENCE:
+        out.writeInt(prosecutorService.getSentence(NioProtocol.readLogin(in)));
+        break;
+      case NioProtocol.GET_SENTENCES:
+        NioProtocol.writeBatchResult(out, prosecutorService.getSentences(NioProtocol.readIntArray(in), NioProtocol.readIntArray(in)));
+        break;
+      case NioProtocol.USER_AUTHENTICATION:
+        out.writeBoolean(prosecutorService.userAuthentication(NioProtocol.readLogin(in)));
+        break;
+      case NioProtocol.WAIT_FOR_DECISION:
+        ProsecutorService.LoginDetails waitingDetails = NioProtocol.readLogin(in);
+        out.writeBoolean(prosecutorService.waitForDecision(waitingDetails, in.readLong()));
+        break;
+      case NioProtocol.REQUEST_APPEAL:
+        AppealOutcome outcome = appealService.requestAppeal(in.readInt(), in.readInt());
+        out.writeBoolean(outcome.hasAppealPassed());
+        out.writeInt(outcome.getNewSentence());
+        break;
+      case NioProtocol.SUBMIT_APPEAL:
+        out.writeLong(appealService.submitAppeal(in.readInt(), in.readInt()));
+        break;
+      case NioProtocol.AWAIT_APPEAL_OUTCOME:
+        long ticket = in.readLong();
+        NioProtocol.writeAppealOutcome(out, appealService.awaitAppealOutcome(ticket, in.readLong()));
+        break;
+      case NioProtocol.LOGIN:
+        out.writeLong(prosecutorService.login(NioProtocol.readLogin(in)));
+        break;
+      case NioProtocol.LOGOUT:
+        prosecutorService.logout(in.readLong());
+        break;
+      case NioProtocol.SESSION_LOG_DECISION:
+        long decisionToken = in.readLong();
+        out.writeBoolean(prosecutorService.logDecision(decisionToken, ProsecutorService.Command.values()[in.readByte()]));
+        break;
+      case NioProtocol.SESSION_HAS_DECISION_BEEN_MADE:
+        out.writeBoolean(prosecutorService.hasDecisionBeenMade(in.readLong()));
+        break;
+      case NioProtocol.SESSION_WAIT_FOR_DECISION:
+        long waitingToken = in.readLong();
+        out.writeBoolean(prosecutorService.waitForDecision(waitingToken, in.readLong()));
+        break;
+      case NioProtocol.SESSION_GET_SENTENCE:
+        out.writeInt(prosecutorService.getSentence(in.readLong()));
+        break;
+      default:
+        throw new IllegalArgumentException("Method not supported!");
+    }
+  }
+
+  private void closeConnection(SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      /*Already closed. */
+    }
+  }
+
+  /**
+   * Stops the selector thread and closes all the connections.
+   **/
+  @Override
+  public void close() throws IOException {
+    running = false;
+    selector.wakeup();
+    try {
+      selectorThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (SelectionKey key : selector.keys()) {
+      closeConnection(key);
+    }
+    selector.close();
+  }
+}
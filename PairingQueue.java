@@ -0,0 +1,215 @@
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntSupplier;
+
+/**
+ * Queue pairing the prisoners that join it into new cases.
+ * A prisoner that joins while another is waiting is paired with it straight away, so at most one prisoner
+ * is ever waiting and the queue is a single slot changed with compare-and-set, without any lock.
+ * The case is created by the thread of the prisoner that completes the pair. The waiting prisoner gets
+ * prisoner ID 0 and the other one prisoner ID 1.
+ * A join returns a ticket straight away and the case is collected with the ticket, as with appeals.
+ * A prisoner left waiting for too long is dropped, and a waiting prisoner can cancel.
+ **/
+public class PairingQueue {
+
+  public static final long DEFAULT_MAX_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(1); /*Longest time a prisoner waits for a partner. */
+  private static final long MATCH_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10); /*Matches not collected are dropped after this. */
+  private static final long PURGE_INTERVAL_MILLIS = 1000; /*Purging scans every ticket, so it is not done on every join. */
+  private static final long TICKET_MASK = (1L << 48) - 1; /*Top bits are left free for ClusterRouter to tag the node. */
+
+  /* States of a ticket. A ticket leaves WAITING only once. */
+  private static final int WAITING = 0;
+  private static final int MATCHED = 1;
+  private static final int CANCELLED = 2;
+
+  /**
+   * A prisoner that has joined.
+   **/
+  private static class Ticket {
+    private final long ticketNumber;
+    private final long joinTime;
+    private final AtomicInteger state = new AtomicInteger(WAITING);
+    private final CompletableFuture<ProsecutorService.LoginDetails> match = new CompletableFuture<>();
+    private volatile long completionTime;
+
+    Ticket(long ticketNumber, long joinTime) {
+      this.ticketNumber = ticketNumber;
+      this.joinTime = joinTime;
+    }
+
+    boolean leaveWaiting(int newState) {
+      return state.compareAndSet(WAITING, newState);
+    }
+
+    void complete(int caseID, int prisonerID) {
+      ProsecutorService.LoginDetails details = new ProsecutorService.LoginDetails();
+      details.setCaseID(caseID);
+      details.setPrisonerID(prisonerID);
+      match.complete(details);
+      completionTime = System.currentTimeMillis();
+    }
+
+    void fail(RuntimeException e) {
+      match.completeExceptionally(e);
+      completionTime = System.currentTimeMillis();
+    }
+  }
+
+  private final IntSupplier caseCreator; /*Creates a case and returns its ID. */
+  private final long maxWaitMillis;
+  private final AtomicReference<Ticket> waitingTicket = new AtomicReference<>();
+  private final Map<Long, Ticket> tickets = new ConcurrentHashMap<>();
+  private final SecureRandom ticketRandom = new SecureRandom(); /*Tickets cannot be guessed, so only the prisoner can collect or cancel its match. */
+  private final AtomicLong lastPurge = new AtomicLong(System.currentTimeMillis());
+
+  /**
+   * Object constructor. Paired prisoners are given the cases created by caseCreator.
+   **/
+  public PairingQueue(IntSupplier caseCreator, long maxWaitMillis) {
+    if (maxWaitMillis <= 0) {
+      throw new IllegalArgumentException("Waiting time is not valid!");
+    }
+    this.caseCreator = caseCreator;
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  /**
+   * Method used to join the queue. Returns the ticket used to collect the case once a partner has joined.
+   **/
+  public long join() {
+    Ticket newTicket = registerTicket(System.currentTimeMillis());
+    while (true) {
+      Ticket partner = waitingTicket.get();
+      if (partner == null) {
+        if (waitingTicket.compareAndSet(null, newTicket)) {
+          break; /*Wait for the next prisoner. */
+        }
+      } else if (waitingTicket.compareAndSet(partner, null)) {
+        /*Cancelled or expired partners are dropped and the slot is tried again. */
+        if (partner.leaveWaiting(MATCHED)) {
+          newTicket.leaveWaiting(MATCHED);
+          pair(partner, newTicket);
+          break;
+        }
+      }
+    }
+    long lastPurgeTime = lastPurge.get();
+    if (newTicket.joinTime - lastPurgeTime > PURGE_INTERVAL_MILLIS && lastPurge.compareAndSet(lastPurgeTime, newTicket.joinTime)) {
+      purge();
+    }
+    return newTicket.ticketNumber;
+  }
+
+  /**
+   * Creates a ticket with a random number not in use and registers it.
+   **/
+  private Ticket registerTicket(long joinTime) {
+    while (true) {
+      Ticket ticket = new Ticket(ticketRandom.nextLong() & TICKET_MASK, joinTime);
+      if (tickets.putIfAbsent(ticket.ticketNumber, ticket) == null) {
+        return ticket;
+      }
+    }
+  }
+
+  /*Run outside of the slot, so creating the case does not hold up other prisoners joining. */
+  private void pair(Ticket waitingPrisoner, Ticket joiningPrisoner) {
+    int caseID;
+    try {
+      caseID = caseCreator.getAsInt();
+    } catch (RuntimeException e) {
+      waitingPrisoner.fail(e);
+      joiningPrisoner.fail(e);
+      return;
+    }
+    waitingPrisoner.complete(caseID, Case.PRISONER1_ID);
+    joiningPrisoner.complete(caseID, Case.PRISONER2_ID);
+  }
+
+  /**
+   * Method used to wait for a partner. Returns the case and prisoner ID to log in with,
+   * or null if no partner has joined once the timeout expires. The ticket is no longer valid once the case is returned.
+   * Throws IllegalStateException once the prisoner has waited longer than allowed, and must join again.
+   **/
+  public ProsecutorService.LoginDetails awaitMatch(long ticketNumber, long timeoutMillis) throws InterruptedException {
+    Ticket ticket = ticket(ticketNumber);
+    long timeLeftToWait = ticket.joinTime + maxWaitMillis - System.currentTimeMillis();
+    try {
+      ProsecutorService.LoginDetails match = ticket.match.get(Math.max(Math.min(timeoutMillis, timeLeftToWait), 0), TimeUnit.MILLISECONDS);
+      tickets.remove(ticketNumber);
+      return match;
+    } catch (TimeoutException e) {
+      if (timeoutMillis >= timeLeftToWait) {
+        expire(ticket);
+        if (ticket.match.isDone()) {
+          /*Partner joined at the last moment, or the ticket expired. */
+          return awaitMatch(ticketNumber, 0);
+        }
+      }
+      return null;
+    } catch (ExecutionException e) {
+      tickets.remove(ticketNumber);
+      /*Only runtime exceptions are stored in the match. */
+      throw (RuntimeException) e.getCause();
+    }
+  }
+
+  /**
+   * Method used to stop waiting for a partner. Returns false if the prisoner has already been paired.
+   **/
+  public boolean cancel(long ticketNumber) {
+    Ticket ticket = ticket(ticketNumber);
+    if (!ticket.leaveWaiting(CANCELLED)) {
+      return false;
+    }
+    waitingTicket.compareAndSet(ticket, null);
+    tickets.remove(ticketNumber);
+    ticket.fail(new IllegalStateException("Join was cancelled."));
+    return true;
+  }
+
+  /**
+   * Returns true if a prisoner is waiting for a partner.
+   **/
+  public boolean hasWaitingPrisoner() {
+    Ticket waiting = waitingTicket.get();
+    return waiting != null && waiting.state.get() == WAITING;
+  }
+
+  private Ticket ticket(long ticketNumber) {
+    Ticket ticket = tickets.get(ticketNumber);
+    if (ticket == null) {
+      throw new IllegalArgumentException("Ticket is not valid!");
+    }
+    return ticket;
+  }
+
+  private void expire(Ticket ticket) {
+    if (ticket.leaveWaiting(CANCELLED)) {
+      waitingTicket.compareAndSet(ticket, null);
+      ticket.fail(new IllegalStateException("No partner joined in time. Join again."));
+    }
+  }
+
+  /**
+   * Expires the prisoners that have waited too long and removes the matches that have not been collected.
+   **/
+  private void purge() {
+    long now = System.currentTimeMillis();
+    for (Ticket ticket : tickets.values()) {
+      if (now - ticket.joinTime > maxWaitMillis) {
+        expire(ticket);
+      }
+    }
+    tickets.values().removeIf(ticket -> ticket.completionTime != 0 && ticket.completionTime < now - MATCH_TTL_MILLIS);
+  }
+}
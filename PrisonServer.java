@@ -1,22 +1,181 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.rmi.registry.Registry;
 import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class PrisonServer {
 
     public static final int PORT_NUMBER = 8080; /* Port where services are registered to.*/
+    public static final int NIO_PORT_NUMBER = 8081; /* Port of the NIO transport, if enabled.*/
+    public static final String AUDIT_FILE = "audit.log"; /* File where decisions are recorded.*/
+    public static final int AUDIT_BUFFER_SIZE = 8192; /* Events held in memory before backpressure applies.*/
+    public static final String DATA_DIRECTORY = "data"; /* Directory where cases are stored.*/
+    public static final int SNAPSHOT_INTERVAL_SECONDS = 60; /* Time between snapshots of all the cases.*/
+    public static final String MAPPED_TABLE_FILE = "cases.table"; /* File of the off-heap case table.*/
+    public static final int MAPPED_TABLE_CAPACITY = 1 << 24; /* Default number of cases in the off-heap table.*/
+    public static final int SENTENCE_CACHE_CAPACITY = 1 << 20; /* Default number of sentences cached.*/
+    public static final int STATISTICS_INTERVAL_SECONDS = 60; /* Time between reports of the cache statistics.*/
 
     public static void main(String args[]) {
         try {
-            /* Initialise information holder. */
-            PrisonerDatabaseHandler dbHandler = new PrisonerDatabaseHandler();
+            /* Sentences and appeals are drawn per thread, or from -Drandom.seed with -Drandom.mode=seeded to repeat a run. */
+            String randomMode = System.getProperty("random.mode", RandomSource.THREAD_MODE);
+            RandomSource.setCurrent(RandomSource.newRandomSource(randomMode, Long.getLong("random.seed", System.nanoTime())));
+            /* Initialise information holder from storage. Fsync policy can be set with -Dcase.fsync=ALWAYS|INTERVAL|NEVER */
+            CaseJournal.FsyncPolicy fsyncPolicy = CaseJournal.FsyncPolicy.valueOf(System.getProperty("case.fsync", "ALWAYS"));
+            Path dataDirectory = Paths.get(System.getProperty("case.data.dir", DATA_DIRECTORY));
+            Files.createDirectories(dataDirectory);
+            CaseStorage storage = new CaseStorage(dataDirectory, fsyncPolicy);
+            MappedCaseTable caseTable = null;
+            PrisonerDatabaseHandler dbHandler;
+            if (Boolean.getBoolean("case.mapped")) {
+                /* Off-heap backend. Size can be set with -Dcase.mapped.capacity. Changes are forced as set by -Dcase.fsync */
+                caseTable = new MappedCaseTable(dataDirectory.resolve(MAPPED_TABLE_FILE), Integer.getInteger("case.mapped.capacity", MAPPED_TABLE_CAPACITY),
+                        fsyncPolicy);
+                dbHandler = new PrisonerDatabaseHandler(caseTable);
+            } else {
+                /* Nodes of a cluster start without the initial cases, which would share IDs with those of the other nodes. */
+                dbHandler = new PrisonerDatabaseHandler(storage, System.getProperty("cluster.nodes") == null);
+            }
+            System.out.println("Recovered " + dbHandler.getNumberOfCases() + " cases.");
+
+            /* Write snapshots periodically so that only a short journal has to be replayed at startup. */
+            ScheduledExecutorService snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread snapshotThread = new Thread(runnable, "case-snapshot");
+                snapshotThread.setDaemon(true);
+                return snapshotThread;
+            });
+            snapshotScheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    dbHandler.writeSnapshot();
+                } catch (IOException e) {
+                    System.err.println("Unable to write snapshot: " + e.toString());
+                }
+            }, SNAPSHOT_INTERVAL_SECONDS, SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+            /* Start the audit log. Backpressure can be set with -Daudit.backpressure=BLOCK|DROP */
+            AuditLog.Backpressure backpressure = AuditLog.Backpressure.valueOf(System.getProperty("audit.backpressure", "BLOCK"));
+            AuditLog auditLog = new AuditLog(Paths.get(System.getProperty("audit.file", AUDIT_FILE)), AUDIT_BUFFER_SIZE, backpressure);
+            /* Write any queued events and changes when the server is stopped. */
+            MappedCaseTable tableToClose = caseTable;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    auditLog.close();
+                    storage.close();
+                    if (tableToClose != null) {
+                        tableToClose.close();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Unable to close storage: " + e.toString());
+                }
+            }));
 
             /*Create implementations of all services and add them to the registry at port 8080.*/
-            ProsecutorServiceImpl prosecutorStub = new ProsecutorServiceImpl(dbHandler);
-            AppealServiceImpl appealStub = new AppealServiceImpl(dbHandler);
-            Registry registry = LocateRegistry.getRegistry(PORT_NUMBER);
-            /* Rebind to previous stub location. Allows for server to restart without having to kill RMI registered port. */
-            registry.rebind(ProsecutorService.class.getName(), prosecutorStub);
-            registry.rebind(AppealService.class.getName(), appealStub);
+            /* Final sentences are cached in front of the case store. Size can be set with -Dsentence.cache.capacity */
+            SentenceCache sentenceCache = new SentenceCache(Integer.getInteger("sentence.cache.capacity", SENTENCE_CACHE_CAPACITY));
+            dbHandler.setSentenceCache(sentenceCache);
+            snapshotScheduler.scheduleWithFixedDelay(() -> System.out.println(sentenceCache.describe()),
+                    STATISTICS_INTERVAL_SECONDS, STATISTICS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            /* Decisions and appeals are counted as they happen and served by the statistics service. */
+            StatisticsCollector statistics = new StatisticsCollector();
+            ProsecutorServiceImpl prosecutorStub = new ProsecutorServiceImpl(dbHandler, auditLog, sentenceCache, statistics);
+            /* Appeals are decided by a pool of workers, sized with -Dappeal.workers */
+            AppealServiceImpl appealStub = new AppealServiceImpl(dbHandler, Integer.getInteger("appeal.workers", AppealServiceImpl.DEFAULT_WORKERS),
+                    sentenceCache, statistics);
+            /* Prisoners can ask to be paired into a new case. Time a prisoner waits for a partner can be set with -Dmatchmaking.max.wait.millis */
+            MatchmakingServiceImpl matchmakingStub = new MatchmakingServiceImpl(dbHandler,
+                    Long.getLong("matchmaking.max.wait.millis", PairingQueue.DEFAULT_MAX_WAIT_MILLIS));
+            /* Copy the cases to read replicas with -Dreplication.role=primary, or copy a primary with
+             * -Dreplication.role=replica -Dreplication.primary=host:port. Replicas only answer reads. */
+            String replicationRole = System.getProperty("replication.role");
+            ReplicationNode replicationNode = null;
+            ProsecutorService prosecutorService = prosecutorStub;
+            AppealService appealService = appealStub;
+            MatchmakingService matchmakingService = matchmakingStub;
+            StatisticsService statisticsService = new StatisticsServiceImpl(statistics);
+            if (replicationRole != null) {
+                replicationNode = new ReplicationNode(replicationRole, System.getProperty("replication.primary"), dbHandler, sentenceCache,
+                        Long.getLong("replication.max.staleness.millis", ReplicationNode.DEFAULT_MAX_STALENESS_MILLIS));
+                prosecutorService = replicationNode.guard(ProsecutorService.class, prosecutorService);
+                appealService = replicationNode.guard(AppealService.class, appealService);
+                matchmakingService = replicationNode.guard(MatchmakingService.class, matchmakingService);
+                ReplicationNode nodeToReport = replicationNode;
+                snapshotScheduler.scheduleWithFixedDelay(() -> System.out.println(nodeToReport.describe()),
+                        STATISTICS_INTERVAL_SECONDS, STATISTICS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+            /* Finished cases are moved to the archive once both sentences are served or after the appeal window,
+             * set with -Dcase.retention.minutes. Replicas get archived cases from the primary. Off with -Dcase.sweeper.enabled=false */
+            if (Boolean.parseBoolean(System.getProperty("case.sweeper.enabled", "true"))) {
+                long retentionMillis = TimeUnit.MINUTES.toMillis(Long.getLong("case.retention.minutes",
+                        TimeUnit.MILLISECONDS.toMinutes(CaseSweeper.DEFAULT_RETENTION_MILLIS)));
+                CaseSweeper caseSweeper = new CaseSweeper(dbHandler, retentionMillis);
+                ReplicationNode sweptNode = replicationNode;
+                snapshotScheduler.scheduleWithFixedDelay(() -> {
+                    if (sweptNode == null || sweptNode.isPrimary()) {
+                        caseSweeper.run();
+                    }
+                }, CaseSweeper.SWEEP_INTERVAL_SECONDS, CaseSweeper.SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                snapshotScheduler.scheduleWithFixedDelay(() -> System.out.println(caseSweeper.describe()),
+                        STATISTICS_INTERVAL_SECONDS, STATISTICS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+            /* Every call is timed through a wrapper of the services, and the metrics are registered with JMX. */
+            ServerMetrics serverMetrics = new ServerMetrics(dbHandler);
+            serverMetrics.registerMBeans();
+            prosecutorService = serverMetrics.instrument(ProsecutorService.class, prosecutorService);
+            appealService = serverMetrics.instrument(AppealService.class, appealService);
+            matchmakingService = serverMetrics.instrument(MatchmakingService.class, matchmakingService);
+            statisticsService = serverMetrics.instrument(StatisticsService.class, statisticsService);
+            /* The metrics can also be read as text from http://host:port/metrics when started with -Dmetrics.http.port */
+            Integer metricsPort = Integer.getInteger("metrics.http.port");
+            if (metricsPort != null) {
+                serverMetrics.startHttpEndpoint(metricsPort);
+            }
+            /* Run as one node of a cluster with -Dcluster.nodes=host:port,host:port and -Dcluster.node=host:port of this node.
+             * Each node uses the registry at its own port. New cases get IDs from the range of the node ID, set with
+             * -Dcluster.node.id from 0 to 31. It must be given, and must never change nor be shared. */
+            String clusterNodes = System.getProperty("cluster.nodes");
+            String nodeName = System.getProperty("cluster.node");
+            ClusterNode clusterNode = null;
+            /* Registry port can be set with -Dserver.port, e.g. to run several servers on one machine. */
+            int registryPort = Integer.getInteger("server.port", PORT_NUMBER);
+            if (clusterNodes != null && nodeName != null) {
+                List<String> members = Arrays.asList(clusterNodes.split(","));
+                Integer nodeID = Integer.getInteger("cluster.node.id");
+                if (nodeID == null) {
+                    throw new IllegalArgumentException("Set the ID of the node with -Dcluster.node.id!");
+                }
+                clusterNode = new ClusterNode(nodeName, nodeID, members, dbHandler);
+                registryPort = Integer.parseInt(nodeName.substring(nodeName.lastIndexOf(':') + 1));
+            }
+            Registry registry = LocateRegistry.getRegistry(registryPort);
+            /* Rebind to previous stub location. Allows for server to restart without having to kill RMI registered port.
+             * The services are plain objects, so each is exported once, as the wrapper that is registered. */
+            registry.rebind(ProsecutorService.class.getName(), UnicastRemoteObject.exportObject(prosecutorService, 0));
+            registry.rebind(AppealService.class.getName(), UnicastRemoteObject.exportObject(appealService, 0));
+            registry.rebind(MatchmakingService.class.getName(), UnicastRemoteObject.exportObject(matchmakingService, 0));
+            registry.rebind(StatisticsService.class.getName(), UnicastRemoteObject.exportObject(statisticsService, 0));
+            if (clusterNode != null) {
+                registry.rebind(ClusterService.class.getName(), clusterNode);
+                /* Tell the other nodes this one has joined. Cases this node does not own are handed to their owners. */
+                clusterNode.updateMembers(clusterNode.getMembers(), true);
+            }
+            if (replicationNode != null) {
+                registry.rebind(ReplicationService.class.getName(), replicationNode);
+            }
+            /* Also serve the services over the NIO transport when started with -Dnio.enabled=true, on the port set with -Dnio.port */
+            if (Boolean.getBoolean("nio.enabled")) {
+                /* Requests run on platform or virtual threads, set with -Dserver.threads=platform|virtual */
+                String threadMode = System.getProperty("server.threads", ServerExecutors.PLATFORM_MODE);
+                new NioTransportServer(Integer.getInteger("nio.port", NIO_PORT_NUMBER), prosecutorService, appealService, ServerExecutors.newRequestExecutor(threadMode));
+            }
             System.out.println("Server ready for requests. ");
         } catch (Exception e) {
             System.err.println("Server exception: " + e.toString());
@@ -2,10 +2,14 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
 import java.util.IllegalFormatException;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This method is responsible for handling the client's interactions with the server.
@@ -14,10 +18,14 @@ public class PrisonerClient {
 
     /*Internal variables*/
     private ProsecutorService.LoginDetails userDetails;
+    private long sessionToken; /*Token returned by the server at login. Sent instead of the login details. */
     private ProsecutorService prosecutorStub;
     private Scanner scannerInput = new Scanner(System.in);
     private final String YES_OPTION = "YES";
     private final String NO_OPTION = "NO";
+    private static final long CALLBACK_TIMEOUT_MILLIS = 60000; /*Time to wait for the server callback. */
+    private static final long LONG_POLL_TIMEOUT_MILLIS = 30000; /*Time the server holds a long polling request. */
+    private static final String MATCH_OPTION = "MATCH";
 
     /**
      * Internal steps required for authentication.
@@ -33,8 +41,9 @@ public class PrisonerClient {
     /**
      * Constructor for the prisoner class. Ensures the prosecutor stub is not null.
      */
-    public PrisonerClient(ProsecutorService.LoginDetails userDetails, ProsecutorService prosecutorStub) {
+    public PrisonerClient(ProsecutorService.LoginDetails userDetails, long sessionToken, ProsecutorService prosecutorStub) {
         this.userDetails = userDetails;
+        this.sessionToken = sessionToken;
         this.prosecutorStub = prosecutorStub;
         Objects.requireNonNull(prosecutorStub);
     }
@@ -99,7 +108,7 @@ public class PrisonerClient {
             /*Check if the user input is a valid command. */
             ProsecutorService.Command commandReceived = ProsecutorService.Command.valueOf(standardisedInput);
             /* Send decision and check that the decision is valid. */
-            if (prosecutorStub.logDecision(userDetails, commandReceived)) {
+            if (prosecutorStub.logDecision(sessionToken, commandReceived)) {
                 responseEntered = true;
                 System.out.println("Your sentence is being processed.");
             } else {
@@ -116,31 +125,74 @@ public class PrisonerClient {
 
     /**
      * Method used to check status of the sentence.
-     * Polls the server every 10 seconds until the other prisoner's decision becomes available.
+     * Waits for the server to call back once the other prisoner's decision becomes available.
+     * If the callback cannot be received (e.g. client behind NAT) it falls back to long polling.
      */
     private void checkSentenceStatus() throws RemoteException {
-        /*Check every 1 second*/
-        boolean sentenceAvailable = false;
-        do {
-            System.out.println("Checking status of sentence...");
-            try {
-                sentenceAvailable = prosecutorStub.hasDecisionBeenMade(userDetails);
+        System.out.println("Checking status of sentence...");
+        if (!waitForCallback()) {
+            boolean sentenceAvailable;
+            do {
+                /*Server holds the request until the decision is made or the timeout expires. */
+                sentenceAvailable = prosecutorStub.waitForDecision(sessionToken, LONG_POLL_TIMEOUT_MILLIS);
                 if (!sentenceAvailable) {
-                    Thread.sleep(10000); /*Wait 10 seconds before trying again*/
+                    System.out.println("Still waiting for the other prisoner...");
                 }
-            } catch (InterruptedException e) {
-                System.err.println(e.getMessage());
             }
+            while (!sentenceAvailable);
         }
-        while (!sentenceAvailable);
         displaySentence(); /*Display the new sentence. */
     }
 
+    /**
+     * Method used to export a listener and wait for the server to call it back.
+     * Returns false if the listener could not be used.
+     */
+    private boolean waitForCallback() {
+        CountDownLatch sentenceLatch = new CountDownLatch(1);
+        SentenceCallback callback = new SentenceCallback(sentenceLatch);
+        boolean callbackReceived = false;
+        try {
+            UnicastRemoteObject.exportObject(callback, 0);
+            if (prosecutorStub.registerSentenceListener(userDetails, callback)) {
+                callbackReceived = sentenceLatch.await(CALLBACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (RemoteException e) {
+            System.err.println("Unable to register for notifications: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                UnicastRemoteObject.unexportObject(callback, true);
+            } catch (NoSuchObjectException e) {
+                /*Listener was never exported. */
+            }
+        }
+        return callbackReceived;
+    }
+
+    /**
+     * Listener exported to the server. Releases the waiting client once the sentence is available.
+     */
+    private static class SentenceCallback implements SentenceListener {
+
+        private final CountDownLatch sentenceLatch;
+
+        SentenceCallback(CountDownLatch sentenceLatch) {
+            this.sentenceLatch = sentenceLatch;
+        }
+
+        @Override
+        public void sentenceAvailable(int caseID, int prisonerID) {
+            sentenceLatch.countDown();
+        }
+    }
+
     /**
      * Method used to get the sentence  from the server and display it.
      */
     private void displaySentence() throws RemoteException {
-        int sentenceYears = prosecutorStub.getSentence(userDetails);
+        int sentenceYears = prosecutorStub.getSentence(sessionToken);
         if (sentenceYears == 0) {
             /*Sentence is finished. */
             System.out.println("You are free to go!");
@@ -165,10 +217,16 @@ public class PrisonerClient {
                 /*Check reply is valid.*/
                 if (userInput.contentEquals(YES_OPTION)) {
                     responseEntered = true;
-                    /*Request appeal to server. */
-                    String outcome = appealStub.requestAppeal(userDetails.getCaseID(), userDetails.getPrisonerID());
+                    /*Submit appeal to server and wait for the court to decide. */
+                    long ticket = appealStub.submitAppeal(userDetails.getCaseID(), userDetails.getPrisonerID());
+                    System.out.println("Appeal submitted. Waiting for the court...");
+                    AppealOutcome outcome;
+                    do {
+                        outcome = appealStub.awaitAppealOutcome(ticket, LONG_POLL_TIMEOUT_MILLIS);
+                    }
+                    while (outcome == null);
                     /*Print outcome. */
-                    System.out.println(outcome);
+                    System.out.println(formatAppealOutcome(outcome));
                 } else if (userInput.contentEquals(NO_OPTION)) {
                     responseEntered = true;
                 } else {
@@ -177,16 +235,42 @@ public class PrisonerClient {
             } catch (IllegalFormatException e) {
                 responseEntered = false;
                 System.out.println(userInput + " is not a valid input! Try again: ");
+            } catch (IllegalStateException e) {
+                /*Too many appeals. */
+                responseEntered = true;
+                System.out.println(e.getMessage());
             }
         }
         while (!responseEntered);
     }
 
+    /**
+     * Method used to turn the outcome of the appeal into the message shown to the user.
+     */
+    private static String formatAppealOutcome(AppealOutcome outcome) {
+        if (!outcome.hasAppealPassed()) {
+            return "Appeal request failed.";
+        } else if (outcome.getNewSentence() == 0) {
+            /*He is free to go.*/
+            return "Appeal passed! You are a free to go!";
+        } else {
+            return "Appeal passed! You have to serve " + outcome.getNewSentence() + " years.";
+        }
+    }
+
     /**
      * Method to handle user authentication. Returns a new instance of the client class if it passes the authentication.
      * Has 3 steps as controlled by the current state.
      **/
     public static PrisonerClient userAuthentication(ProsecutorService stub) throws RemoteException, IllegalStateException {
+        return userAuthentication(stub, null);
+    }
+
+    /**
+     * Method to handle user authentication, where the user can also ask to be paired with another prisoner
+     * into a new case instead of entering a case number. Pairing is not offered if the matchmaking stub is null.
+     **/
+    public static PrisonerClient userAuthentication(ProsecutorService stub, MatchmakingService matchmakingStub) throws RemoteException, IllegalStateException {
         PrisonerClient prisonerLoggedIn = null;
         authenticationSteps currentState = authenticationSteps.CASE_ID;
         ProsecutorService.LoginDetails loginDetails = new ProsecutorService.LoginDetails();
@@ -196,8 +280,20 @@ public class PrisonerClient {
                 int userInput;
                 switch (currentState) {
                     case CASE_ID:
-                        System.out.print("Enter the case number:");
-                        userInput = Integer.parseInt(scannerInput.nextLine());
+                        System.out.print(matchmakingStub == null ? "Enter the case number:" : "Enter the case number, or MATCH to be paired with another prisoner:");
+                        String caseInput = scannerInput.nextLine();
+                        if (matchmakingStub != null && caseInput.trim().equalsIgnoreCase(MATCH_OPTION)) {
+                            System.out.println("Waiting for another prisoner...");
+                            ProsecutorService.LoginDetails match;
+                            while ((match = matchmakingStub.requestMatch(LONG_POLL_TIMEOUT_MILLIS)) == null) {
+                                /*No other prisoner has joined yet. */
+                            }
+                            System.out.println("You are prisoner " + match.getPrisonerID() + " of case " + match.getCaseID() + ".");
+                            loginDetails = match;
+                            currentState = authenticationSteps.VERIFICATION;
+                            break;
+                        }
+                        userInput = Integer.parseInt(caseInput);
                         loginDetails.setCaseID(userInput);
                         currentState = authenticationSteps.USER_ID;
                         break;
@@ -208,10 +304,10 @@ public class PrisonerClient {
                         currentState = authenticationSteps.VERIFICATION;
                         break;
                     case VERIFICATION:
-                        boolean authenticationPassed = stub.userAuthentication(loginDetails);
-                        if (authenticationPassed) {
+                        long sessionToken = stub.login(loginDetails);
+                        if (sessionToken != SessionTable.NO_SESSION) {
                             currentState = authenticationSteps.FINISHED;
-                            prisonerLoggedIn = new PrisonerClient(loginDetails, stub);
+                            prisonerLoggedIn = new PrisonerClient(loginDetails, sessionToken, stub);
                         } else {
                             prisonerLoggedIn = null;
                             currentState = authenticationSteps.CASE_ID;
@@ -1,35 +1,479 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
 
 
 /**
  * Class responsible for storing case information.
+ * Cases can be created, looked up and retired concurrently by the RMI threads.
  **/
 public class PrisonerDatabaseHandler {
-  private HashMap<Integer, Case> mapOfCases = new HashMap<>(); /*Holds all information regarding cases. */
+  private static final int INITIAL_CASES = 10; /*Cases created at startup. */
+  private static final int MAX_ID_ATTEMPTS = 1 << 16; /*IDs tried before giving up on finding one this node owns. */
+
+  private ConcurrentHashMap<Integer, Case> mapOfCases = new ConcurrentHashMap<>(); /*Holds all information regarding cases. */
+  private volatile CaseArchive archive = new CaseArchive(); /*Finished cases moved out of the map. */
+  private volatile CaseIdAllocator idAllocator; /*Provides IDs for new cases. */
+  private int firstCaseID = 0; /*Range new cases get their IDs from. */
+  private int lastCaseID = Integer.MAX_VALUE;
+  private CaseStorage storage; /*Keeps the cases on disk. Not set if cases are only kept in memory. */
+  private MappedCaseTable caseTable; /*Off-heap backend. When set the map is not used. */
+  private volatile IntPredicate ownedCaseIDs = caseID -> true; /*IDs this node may give to new cases and answer for. */
+  private volatile SentenceCache sentenceCache; /*Sentences of cases removed or archived are dropped from it. Not used if not set. */
 
   public PrisonerDatabaseHandler() {
     /* Create 10 cases at startup and randomise P2 decision*/
-    for (int caseID = 0; caseID < 10; caseID++) {
+    for (int caseID = 0; caseID < INITIAL_CASES; caseID++) {
       Case newCase = new Case(caseID);
       /* Use case ID as the key*/
       mapOfCases.put(newCase.getCaseID(), newCase);
     }
+    idAllocator = new CaseIdAllocator(INITIAL_CASES);
+  }
+
+  /**
+   * Constructor used to restore the cases kept in storage.
+   * The initial cases are only created if they were not stored before.
+   **/
+  public PrisonerDatabaseHandler(CaseStorage storage) throws IOException {
+    this(storage, true);
+  }
+
+  /**
+   * Constructor used to restore the cases kept in storage, without creating the initial cases if not asked to.
+   * Nodes of a cluster do not create them, as each node would create its own cases with the same IDs.
+   **/
+  public PrisonerDatabaseHandler(CaseStorage storage, boolean createInitialCases) throws IOException {
+    this.storage = storage;
+    storage.recover(mapOfCases, archive);
+    /*A case archived while the snapshot was written can be in both. */
+    mapOfCases.keySet().removeIf(archive::contains);
+    if (mapOfCases.isEmpty() && archive.size() == 0 && createInitialCases) {
+      /*First start. */
+      for (int caseID = 0; caseID < INITIAL_CASES; caseID++) {
+        addCase(new Case(caseID, storage.getJournal()));
+      }
+    }
+    allocateAfterExistingCases();
+  }
+
+  /**
+   * Constructor used to keep the cases in an off-heap memory-mapped table instead of the map.
+   * The initial cases are only created if the table is empty.
+   **/
+  public PrisonerDatabaseHandler(MappedCaseTable caseTable) {
+    this.caseTable = caseTable;
+    int nextCaseID = INITIAL_CASES;
+    if (caseTable.getNumberOfCases() == 0) {
+      /*First start. */
+      for (int caseID = 0; caseID < INITIAL_CASES; caseID++) {
+        caseTable.create(caseID);
+      }
+    } else {
+      for (int caseID = caseTable.getCapacity() - 1; caseID >= INITIAL_CASES; caseID--) {
+        if (caseTable.contains(caseID)) {
+          nextCaseID = caseID + 1;
+          break;
+        }
+      }
+    }
+    idAllocator = new CaseIdAllocator(nextCaseID);
+  }
+
+  /**
+   * Method to create a new case. Returns the new case.
+   **/
+  public CaseView createCase() {
+    return createCase(1);
+  }
+
+  /**
+   * Method to create a new iterated case played over the given number of rounds. Returns the new case.
+   * The off-heap table only holds single round cases.
+   **/
+  public CaseView createCase(int totalRounds) {
+    if (caseTable != null) {
+      if (totalRounds != 1) {
+        throw new IllegalStateException("Iterated cases are not supported by the mapped table!");
+      }
+      int caseID = idAllocator.nextID();
+      caseTable.create(caseID);
+      return new MappedCase(caseTable, caseID);
+    }
+    Case newCase = new Case(nextOwnedID(), getJournal(), totalRounds);
+    addCase(newCase);
+    return newCase;
+  }
+
+  /*IDs owned by other nodes of the cluster are skipped. */
+  private int nextOwnedID() {
+    for (int attempt = 0; attempt < MAX_ID_ATTEMPTS; attempt++) {
+      int caseID = idAllocator.nextID();
+      if (ownedCaseIDs.test(caseID)) {
+        return caseID;
+      }
+    }
+    throw new IllegalStateException("This node owns no case IDs!");
+  }
+
+  /**
+   * Method used to restrict the IDs given to new cases, e.g. to the ones a node of a cluster owns.
+   * Lookups of cases with other IDs that are not held here throw CaseMovedException instead of finding nothing.
+   * Only supported when cases are kept on the heap.
+   **/
+  public void setOwnedCaseIDs(IntPredicate ownedCaseIDs) {
+    if (caseTable != null) {
+      throw new IllegalStateException("Clustering is not supported by the mapped table!");
+    }
+    this.ownedCaseIDs = ownedCaseIDs;
+  }
+
+  /**
+   * Method used to give new cases IDs from the given range only, e.g. the one of a node of a cluster,
+   * so two nodes never give the same ID to different cases. Only supported when cases are kept on the heap.
+   **/
+  public void setCaseIDRange(int firstCaseID, int lastCaseID) {
+    if (caseTable != null) {
+      throw new IllegalStateException("Clustering is not supported by the mapped table!");
+    }
+    this.firstCaseID = firstCaseID;
+    this.lastCaseID = lastCaseID;
+    allocateAfterExistingCases();
+  }
+
+  /**
+   * Method used to set the cache of sentences to keep up to date when cases are retired, archived or handed off.
+   **/
+  public void setSentenceCache(SentenceCache sentenceCache) {
+    this.sentenceCache = sentenceCache;
+  }
+
+  /**
+   * Method used to add a case handed off by another node. IDs are unique across the nodes, so a case
+   * with the same ID is the same case, received before from a handoff that is being retried.
+   * That one is kept, unless this node has handed it off meanwhile and the case comes back.
+   * The case is not journaled, so a snapshot must be written before the other node forgets it.
+   **/
+  public void adoptCase(Case handedOffCase) {
+    int caseID = handedOffCase.getCaseID();
+    if (!archive.contains(caseID)) {
+      mapOfCases.compute(caseID, (key, caseHeld) -> caseHeld == null || caseHeld.isFrozen() ? handedOffCase : caseHeld);
+    }
+  }
+
+  /**
+   * Method used to add a case archived by another node. Does nothing if it is already archived here.
+   * Like adopted cases, it is only durable once in a snapshot.
+   **/
+  public void adoptArchivedCase(int caseNumber, long record) {
+    if (!archive.contains(caseNumber)) {
+      /*Put in the archive first, so a reader never finds the case in neither. */
+      archive.put(caseNumber, record);
+      mapOfCases.remove(caseNumber);
+    }
+  }
+
+  /**
+   * Checks if the case is held on the heap or in the archive.
+   **/
+  public boolean holdsCase(int caseNumber) {
+    return mapOfCases.containsKey(caseNumber) || archive.contains(caseNumber);
+  }
+
+  /**
+   * Returns the off-heap table of cases, or null if cases are kept on the heap.
+   **/
+  public MappedCaseTable getCaseTable() {
+    return caseTable;
+  }
+
+  /**
+   * Returns the IDs of the cases held on the heap.
+   **/
+  public int[] getCaseIDs() {
+    return mapOfCases.keySet().stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Returns the IDs of the cases in the archive.
+   **/
+  public int[] getArchivedCaseIDs() {
+    return archive.getCaseIDs();
+  }
+
+  /**
+   * Returns the record of an archived case, or CaseRecord.EMPTY if it is not archived.
+   **/
+  public long getArchivedRecord(int caseNumber) {
+    return archive.get(caseNumber);
+  }
+
+  /**
+   * Method used to write all the cases held on the heap and in the archive, e.g. to start a replica.
+   * Cases can keep changing while it runs, so the records appended meanwhile must be applied on top.
+   * Each case is followed by the sequence of its last record, so the ones already in its state can be skipped.
+   **/
+  public void writeCases(DataOutput output) throws IOException {
+    output.writeInt(CaseStorage.SNAPSHOT_VERSION);
+    /*The number of cases can change while writing, so each case is preceded by a marker. */
+    for (Case currentCase : mapOfCases.values()) {
+      output.writeBoolean(true);
+      currentCase.writeForReplica(output);
+    }
+    output.writeBoolean(false);
+    archive.writeTo(output);
+  }
+
+  /**
+   * Method used to replace all the cases with the ones written by writeCases.
+   * Returns the sequence of the last record already in the state of each case, by case ID.
+   **/
+  public Map<Integer, Long> replaceCases(DataInput input) throws IOException {
+    int snapshotVersion = input.readInt();
+    Map<Integer, Case> cases = new HashMap<>();
+    Map<Integer, Long> caseSequences = new HashMap<>();
+    while (input.readBoolean()) {
+      Case restoredCase = Case.readFrom(input, getJournal(), snapshotVersion);
+      cases.put(restoredCase.getCaseID(), restoredCase);
+      caseSequences.put(restoredCase.getCaseID(), input.readLong());
+    }
+    CaseArchive restoredArchive = new CaseArchive();
+    if (snapshotVersion >= 3) {
+      restoredArchive.readFrom(input);
+    }
+    cases.keySet().removeIf(restoredArchive::contains);
+    /*Archive replaced first, so an archived case is never missing from both. */
+    archive = restoredArchive;
+    mapOfCases.keySet().retainAll(cases.keySet());
+    mapOfCases.putAll(cases);
+    return caseSequences;
+  }
+
+  /**
+   * Method used to apply a journal record shipped by the primary to the cases held by a replica.
+   **/
+  public void applyRecord(byte type, int caseID, int prisonerID, int value1, int value2) {
+    CaseStorage.applyRecord(mapOfCases, archive, getJournal(), type, caseID, prisonerID, value1, value2);
+  }
+
+  /**
+   * Method used to give new cases IDs after all the cases held, e.g. once a replica becomes the primary.
+   * Only the cases in the range of IDs of the node count, along with the ones created before a restart.
+   **/
+  public void allocateAfterExistingCases() {
+    int nextCaseID = Math.max(firstCaseID, INITIAL_CASES);
+    for (int caseID : mapOfCases.keySet()) {
+      if (isInIDRange(caseID)) {
+        nextCaseID = Math.max(nextCaseID, caseID + 1);
+      }
+    }
+    int maxArchivedID = archive.getMaxCaseID();
+    if (maxArchivedID > lastCaseID) {
+      /*Cases of other nodes were archived here, so the ones in range are looked for. */
+      maxArchivedID = -1;
+      for (int caseID : archive.getCaseIDs()) {
+        if (isInIDRange(caseID)) {
+          maxArchivedID = Math.max(maxArchivedID, caseID);
+        }
+      }
+    }
+    if (maxArchivedID >= firstCaseID) {
+      nextCaseID = Math.max(nextCaseID, maxArchivedID + 1);
+    }
+    if (storage != null && isInIDRange(storage.getRecoveredNextCaseID() - 1)) {
+      nextCaseID = Math.max(nextCaseID, storage.getRecoveredNextCaseID());
+    }
+    idAllocator = new CaseIdAllocator(nextCaseID, lastCaseID);
+  }
+
+  private boolean isInIDRange(int caseID) {
+    return caseID >= firstCaseID && caseID <= lastCaseID;
+  }
+
+  /**
+   * Returns the journal new and adopted cases must record their changes in, or null if cases are only kept in memory.
+   **/
+  public CaseJournal getJournal() {
+    return storage == null ? null : storage.getJournal();
+  }
+
+  private void addCase(Case newCase) {
+    if (mapOfCases.putIfAbsent(newCase.getCaseID(), newCase) != null) {
+      throw new IllegalStateException("Case " + newCase.getCaseID() + " already exists!");
+    }
+    if (storage != null) {
+      awaitJournal(storage.getJournal().append(CaseJournal.CASE_CREATED, newCase.getCaseID(), 0, newCase.getTotalRounds(), 0));
+    }
   }
 
   /**
    * Method to get a case. Returns null if it does not exist.
+   * Throws CaseMovedException if it is held by another node of the cluster.
    **/
-  public Case getCase(int caseNumber) {
+  public CaseView getCase(int caseNumber) {
+    if (caseTable != null) {
+      return caseTable.contains(caseNumber) ? new MappedCase(caseTable, caseNumber) : null;
+    }
+    Case caseFound = mapOfCases.get(caseNumber);
+    if (caseFound == null) {
+      long archivedRecord = archive.get(caseNumber);
+      if (archivedRecord != CaseRecord.EMPTY) {
+        return new ArchivedCase(caseNumber, archivedRecord);
+      }
+      checkNotMoved(caseNumber);
+    }
+    return caseFound;
+  }
+
+  /*A case this node neither holds nor owns is held by another node of the cluster. */
+  private void checkNotMoved(int caseNumber) {
+    if (!ownedCaseIDs.test(caseNumber)) {
+      throw new CaseMovedException(caseNumber);
+    }
+  }
+
+  /**
+   * Method to get a case held on the heap, e.g. to archive it or hand it off. Returns null if it is not held there.
+   **/
+  public Case getHeapCase(int caseNumber) {
     return mapOfCases.get(caseNumber);
   }
 
+  /**
+   * Method used to move a finished case to the archive, where it only takes its ID and record.
+   * Returns false if the case does not exist or its decision has not been made.
+   * Cases of the off-heap table stay in the table and are only marked as archived.
+   **/
+  public boolean archiveCase(int caseNumber) {
+    if (caseTable != null) {
+      return caseTable.archive(caseNumber);
+    }
+    Case caseFound = mapOfCases.get(caseNumber);
+    if (caseFound == null) {
+      return false;
+    }
+    long archivedRecord = caseFound.archive();
+    if (archivedRecord == CaseRecord.EMPTY) {
+      return false;
+    }
+    /*Archived before it is removed, so a reader never finds the case in neither. */
+    archive.put(caseNumber, archivedRecord);
+    mapOfCases.remove(caseNumber, caseFound);
+    invalidateSentences(caseNumber);
+    return true;
+  }
+
+  /**
+   * Checks if the case has been moved to the archive.
+   **/
+  public boolean isCaseArchived(int caseNumber) {
+    if (caseTable != null) {
+      return caseTable.isArchived(caseNumber);
+    }
+    return archive.contains(caseNumber);
+  }
+
+  /**
+   * Method to remove a case once it is no longer needed. Returns false if it does not exist.
+   **/
+  public boolean retireCase(int caseNumber) {
+    boolean caseRemoved;
+    if (caseTable != null) {
+      caseRemoved = caseTable.retire(caseNumber);
+    } else {
+      caseRemoved = mapOfCases.remove(caseNumber) != null | archive.remove(caseNumber);
+      if (caseRemoved && storage != null) {
+        awaitJournal(storage.getJournal().append(CaseJournal.CASE_RETIRED, caseNumber, 0, 0, 0));
+      }
+    }
+    if (caseRemoved) {
+      invalidateSentences(caseNumber);
+    }
+    return caseRemoved;
+  }
+
+  /*After the case is removed, so a sentence read before cannot be cached again. */
+  private void invalidateSentences(int caseNumber) {
+    SentenceCache cache = sentenceCache;
+    if (cache != null) {
+      for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+        cache.invalidate(caseNumber, prisonerID);
+      }
+    }
+  }
+
 
   /**
    * Checks if the case number exists in the map.
+   * Throws CaseMovedException if it is held by another node of the cluster.
    **/
   public boolean isCaseValid(int caseNumber) {
-    return mapOfCases.containsKey(caseNumber);
+    if (caseTable != null) {
+      return caseTable.contains(caseNumber);
+    }
+    boolean caseHeld = mapOfCases.containsKey(caseNumber) || archive.contains(caseNumber);
+    if (!caseHeld) {
+      checkNotMoved(caseNumber);
+    }
+    return caseHeld;
   }
 
-}
+  /**
+   * Returns the number of cases currently stored.
+   **/
+  public int getNumberOfCases() {
+    if (caseTable != null) {
+      return (int) caseTable.getNumberOfCases();
+    }
+    return mapOfCases.size() + archive.size();
+  }
+
+  /**
+   * Returns the number of cases in each status, indexed by the ordinal of the status.
+   * Reads each case once without locking it, so the counts may be slightly behind cases being decided.
+   **/
+  public long[] countCasesByStatus() {
+    long[] counts = new long[Case.caseStatus.values().length];
+    if (caseTable != null) {
+      for (int caseID = 0; caseID < caseTable.getCapacity(); caseID++) {
+        long record = caseTable.getRecord(caseID);
+        if (CaseRecord.isPresent(record)) {
+          counts[CaseRecord.getStatus(record).ordinal()]++;
+        }
+      }
+      return counts;
+    }
+    for (Case storedCase : mapOfCases.values()) {
+      counts[storedCase.getStatus().ordinal()]++;
+    }
+    counts[Case.caseStatus.DECISION_MADE.ordinal()] += archive.size(); /*Only finished cases are archived. */
+    return counts;
+  }
 
+  /**
+   * Method used to write all the cases to a snapshot. Does nothing if cases are only kept in memory.
+   * The off-heap table is its own snapshot, so it is only forced to disk.
+   **/
+  public void writeSnapshot() throws IOException {
+    if (caseTable != null) {
+      caseTable.force();
+    }
+    if (storage != null) {
+      storage.writeSnapshot(mapOfCases.values(), archive, idAllocator.peekNextID());
+    }
+  }
+
+  private void awaitJournal(long journalSequence) {
+    try {
+      storage.getJournal().awaitCommit(journalSequence);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Case could not be stored", e);
+    }
+  }
+
+}
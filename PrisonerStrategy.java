@@ -0,0 +1,39 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Strategies a simulated prisoner can follow when playing the prisoner's dilemma.
+ **/
+public enum PrisonerStrategy {
+
+  ALWAYS_BETRAY {
+    @Override
+    public boolean decide(int round, boolean partnerBetrayedLastRound) {
+      return true;
+    }
+  },
+  ALWAYS_COOPERATE {
+    @Override
+    public boolean decide(int round, boolean partnerBetrayedLastRound) {
+      return false;
+    }
+  },
+  RANDOM {
+    @Override
+    public boolean decide(int round, boolean partnerBetrayedLastRound) {
+      return ThreadLocalRandom.current().nextBoolean();
+    }
+  },
+  /* Cooperates in the first round and then copies what the partner did in the previous round. */
+  TIT_FOR_TAT {
+    @Override
+    public boolean decide(int round, boolean partnerBetrayedLastRound) {
+      return round > 0 && partnerBetrayedLastRound;
+    }
+  };
+
+  /**
+   * Returns true if the prisoner betrays the partner in this round.
+   * The partner's last move is only meaningful after the first round (round 0).
+   **/
+  public abstract boolean decide(int round, boolean partnerBetrayedLastRound);
+}
@@ -1,4 +1,7 @@
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 
@@ -14,10 +17,18 @@ public interface ProsecutorService extends Remote {
         }
     }
 
-    class LoginDetails implements Serializable {
+    /**
+     * Login details sent with every call. Written by hand as two ints instead of default serialization.
+     **/
+    class LoginDetails implements Externalizable {
+        private static final long serialVersionUID = 1L;
+
         private int caseID;
         private int prisonerID;
 
+        public LoginDetails() {
+        }
+
         public int getCaseID() {
             return caseID;
         }
@@ -34,16 +45,120 @@ public interface ProsecutorService extends Remote {
             this.prisonerID = prisonerID;
         }
 
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeInt(caseID);
+            out.writeInt(prisonerID);
+        }
 
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            caseID = in.readInt();
+            prisonerID = in.readInt();
+        }
+    }
+
+    /**
+     * Result of a batch call. Holds one value and one status code per item, in the order of the request.
+     **/
+    class BatchResult implements Externalizable {
+        private static final long serialVersionUID = 1L;
+
+        public static final byte OK = 0;
+        public static final byte INVALID_LOGIN = 1; /*Case or prisoner ID not valid. */
+        public static final byte REJECTED = 2; /*Request not allowed, e.g. prisoner already decided. */
+        public static final byte NOT_AVAILABLE = 3; /*Decision not made yet. */
+        public static final byte FAILED = 4; /*Item could not be handled, e.g. the case could not be stored. */
+        public static final byte MOVED = 5; /*Case held by another node of the cluster. */
+
+        private int[] values;
+        private byte[] statusCodes;
+
+        public BatchResult() {
+            this(0);
+        }
+
+        public BatchResult(int numberOfItems) {
+            this.values = new int[numberOfItems];
+            this.statusCodes = new byte[numberOfItems];
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        public int getValue(int index) {
+            return values[index];
+        }
+
+        public byte getStatus(int index) {
+            return statusCodes[index];
+        }
+
+        public boolean isOk(int index) {
+            return statusCodes[index] == OK;
+        }
+
+        public void setValue(int index, int value) {
+            values[index] = value;
+        }
+
+        public void setStatus(int index, byte statusCode) {
+            statusCodes[index] = statusCode;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeInt(values.length);
+            for (int value : values) {
+                out.writeInt(value);
+            }
+            out.write(statusCodes);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            int numberOfItems = in.readInt();
+            values = new int[numberOfItems];
+            statusCodes = new byte[numberOfItems];
+            for (int index = 0; index < numberOfItems; index++) {
+                values[index] = in.readInt();
+            }
+            in.readFully(statusCodes);
+        }
     }
 
     boolean logDecision(LoginDetails details, Command decision) throws RemoteException;
 
+    BatchResult logDecisions(int[] caseIDs, int[] prisonerIDs, boolean[] betrayedPartner) throws RemoteException;
+
+    BatchResult haveDecisionsBeenMade(int[] caseIDs, int[] prisonerIDs) throws RemoteException;
+
+    BatchResult getSentences(int[] caseIDs, int[] prisonerIDs) throws RemoteException;
+
     boolean hasDecisionBeenMade(LoginDetails details) throws RemoteException;
 
     String testConnection() throws RemoteException;
 
+    int createCase() throws RemoteException;
+
     int getSentence(LoginDetails details) throws RemoteException, IllegalArgumentException;
 
     boolean userAuthentication(LoginDetails details) throws RemoteException;
+
+    long login(LoginDetails details) throws RemoteException;
+
+    void logout(long sessionToken) throws RemoteException;
+
+    boolean logDecision(long sessionToken, Command decision) throws RemoteException, IllegalArgumentException;
+
+    boolean hasDecisionBeenMade(long sessionToken) throws RemoteException, IllegalArgumentException;
+
+    boolean waitForDecision(long sessionToken, long timeoutMillis) throws RemoteException, IllegalArgumentException;
+
+    int getSentence(long sessionToken) throws RemoteException, IllegalArgumentException;
+
+    boolean registerSentenceListener(LoginDetails details, SentenceListener listener) throws RemoteException;
+
+    boolean waitForDecision(LoginDetails details, long timeoutMillis) throws RemoteException;
 }
\ No newline at end of file
@@ -1,24 +1,69 @@
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
 
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class implements the prosecutor service interface developed
  * for communication between the prisoner and the server.
  **/
-public class ProsecutorServiceImpl extends UnicastRemoteObject implements ProsecutorService {
+public class ProsecutorServiceImpl implements ProsecutorService {
+
+    private static final long MAX_WAIT_MILLIS = 30000; /*Longest time a long polling request is held. */
+    private static final int MAX_SESSIONS = 1 << 18; /*Sessions that can be open at once. */
+    private static final long SESSION_TIME_TO_LIVE_MINUTES = 30; /*Unused sessions expire after this time. */
 
     private PrisonerDatabaseHandler dbHandler; /*Database Handler*/
+    private AuditLog auditLog; /*Decision log. Decisions are not logged if not set. */
+    private SessionTable sessions = new SessionTable(MAX_SESSIONS, SESSION_TIME_TO_LIVE_MINUTES, TimeUnit.MINUTES);
+    private SentenceCache sentenceCache; /*Final sentences, invalidated by the appeal service. Not used if not set. */
+    private StatisticsCollector statistics; /*Totals of the decisions. Not used if not set. */
 
     /**
      * Method to construct object.
      *
      * @param dbHandler
      **/
-    public ProsecutorServiceImpl(PrisonerDatabaseHandler dbHandler) throws RemoteException {
-        super();
+    public ProsecutorServiceImpl(PrisonerDatabaseHandler dbHandler) {
+        this(dbHandler, null);
+    }
+
+    /**
+     * Method to construct object that records decisions in the audit log.
+     *
+     * @param dbHandler
+     * @param auditLog
+     **/
+    public ProsecutorServiceImpl(PrisonerDatabaseHandler dbHandler, AuditLog auditLog) {
+        this(dbHandler, auditLog, null);
+    }
+
+    /**
+     * Method to construct object that answers sentence requests from the cache.
+     * The cache must be shared with the appeal service so it is invalidated when sentences change.
+     *
+     * @param dbHandler
+     * @param auditLog
+     * @param sentenceCache
+     **/
+    public ProsecutorServiceImpl(PrisonerDatabaseHandler dbHandler, AuditLog auditLog, SentenceCache sentenceCache) {
+        this(dbHandler, auditLog, sentenceCache, null);
+    }
+
+    /**
+     * Method to construct object that also counts every decision and decided case in the statistics.
+     *
+     * @param dbHandler
+     * @param auditLog
+     * @param sentenceCache
+     * @param statistics
+     **/
+    public ProsecutorServiceImpl(PrisonerDatabaseHandler dbHandler, AuditLog auditLog, SentenceCache sentenceCache,
+                                 StatisticsCollector statistics) {
         this.dbHandler = dbHandler;
+        this.auditLog = auditLog;
+        this.sentenceCache = sentenceCache;
+        this.statistics = statistics;
         Objects.requireNonNull(this.dbHandler);
     }
 
@@ -31,28 +76,26 @@ public class ProsecutorServiceImpl extends UnicastRemoteObject implements Prosec
     }
 
 
+    /**
+     * Method to open a new case. Returns the ID of the new case.
+     **/
+    @Override
+    public int createCase() throws RemoteException {
+        return dbHandler.createCase().getCaseID();
+    }
+
+
     /**
      * Method for logging decision of the prisoner.
      * Requires login details the actual decision made.
+     * Only the case itself is locked, so decisions for different cases are logged in parallel.
      **/
     @Override
-    public synchronized boolean logDecision(LoginDetails details, Command decision) throws RemoteException {
+    public boolean logDecision(LoginDetails details, Command decision) throws RemoteException {
         boolean decisionLogged = true;
         /*Input verification. */
         if (userAuthentication(details) && (decision != null)) {
-            Case caseFound = dbHandler.getCase(details.getCaseID()); /*Get case*/
-            switch (decision) {
-                case BETRAY:
-                    System.out.println("Case ID: " + caseFound.getCaseID() + ". Prisoner " + details.getPrisonerID() + " decided to betray");
-                    caseFound.logPrisonerDecision(details.getPrisonerID(), true);
-                    break;
-                case COOPERATE:
-                    caseFound.logPrisonerDecision(details.getPrisonerID(), false);
-                    System.out.println("Case ID: " + caseFound.getCaseID() + ". Prisoner " + details.getPrisonerID() + " decided to cooperate");
-                    break;
-                default:
-                    throw new RemoteException("Command not supported!");
-            }
+            recordDecision(details.getCaseID(), details.getPrisonerID(), decision);
         } else {
             decisionLogged = false;
         }
@@ -60,14 +103,149 @@ public class ProsecutorServiceImpl extends UnicastRemoteObject implements Prosec
     }
 
 
+    /**
+     * Method for logging the decisions of many prisoners in one call.
+     * Each item is logged on its own, a failed item does not stop the others and is reported in its status.
+     **/
+    @Override
+    public BatchResult logDecisions(int[] caseIDs, int[] prisonerIDs, boolean[] betrayedPartner) throws RemoteException {
+        validateBatch(caseIDs, prisonerIDs);
+        if (betrayedPartner == null || betrayedPartner.length != caseIDs.length) {
+            throw new IllegalArgumentException("Batch arrays must have the same length!");
+        }
+        BatchResult result = new BatchResult(caseIDs.length);
+        for (int index = 0; index < caseIDs.length; index++) {
+            try {
+                if (isLoginValid(caseIDs[index], prisonerIDs[index])) {
+                    recordDecision(caseIDs[index], prisonerIDs[index], betrayedPartner[index] ? Command.BETRAY : Command.COOPERATE);
+                    result.setStatus(index, BatchResult.OK);
+                } else {
+                    result.setStatus(index, BatchResult.INVALID_LOGIN);
+                }
+            } catch (CaseMovedException e) {
+                result.setStatus(index, BatchResult.MOVED);
+            } catch (IllegalArgumentException e) {
+                result.setStatus(index, BatchResult.REJECTED);
+            } catch (RuntimeException e) {
+                /*E.g. the case is being handed off or could not be stored. Only this item fails. */
+                result.setStatus(index, BatchResult.FAILED);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Method to log a decision once the login has been checked.
+     * Throws if the case no longer exists, e.g. it was retired after the login was checked.
+     **/
+    private void recordDecision(int caseID, int prisonerID, Command decision) throws RemoteException {
+        CaseView caseFound = dbHandler.getCase(caseID); /*Get case*/
+        if (caseFound == null) {
+            throw new IllegalArgumentException("The ID and the case are not valid!");
+        }
+        boolean caseDecided;
+        switch (decision) {
+            case BETRAY:
+                caseDecided = caseFound.logPrisonerDecision(prisonerID, true);
+                break;
+            case COOPERATE:
+                caseDecided = caseFound.logPrisonerDecision(prisonerID, false);
+                break;
+            default:
+                throw new RemoteException("Command not supported!");
+        }
+        if (statistics != null) {
+            statistics.recordDecision(decision == Command.BETRAY);
+            /*Only the decision that decided the case counts it, so each case is counted once. */
+            if (caseDecided) {
+                statistics.recordCaseDecided(caseFound.getSentences());
+            }
+        }
+        /*Log outside of the case lock. */
+        if (auditLog != null) {
+            auditLog.record(new AuditEvent(System.currentTimeMillis(), caseID, prisonerID, decision, caseFound.getSentences()));
+        }
+    }
+
+
     /**
      * Method to check if both the prisoners have replied.
+     * The cache is read first, as retired cases are dropped from it. The case is only looked up on a miss.
      **/
     @Override
     public boolean hasDecisionBeenMade(LoginDetails details) throws RemoteException {
+        long startTime = System.nanoTime();
+        if (details != null && getCachedSentence(details.getCaseID(), details.getPrisonerID(), startTime) != SentenceCache.MISS) {
+            return true; /*Only final sentences are cached. */
+        }
         /* Input verification*/
-        if (userAuthentication(details)) {
-            return dbHandler.getCase(details.getCaseID()).isSentencingAvailable();
+        CaseView caseFound = getLoginCase(details);
+        if (caseFound == null) {
+            return false;
+        }
+        boolean decisionMade = caseFound.isSentencingAvailable();
+        recordMiss(startTime);
+        return decisionMade;
+    }
+
+
+    /**
+     * Method to check the status of many cases in one call. The value is 1 if the decision has been made.
+     **/
+    @Override
+    public BatchResult haveDecisionsBeenMade(int[] caseIDs, int[] prisonerIDs) throws RemoteException {
+        validateBatch(caseIDs, prisonerIDs);
+        BatchResult result = new BatchResult(caseIDs.length);
+        for (int index = 0; index < caseIDs.length; index++) {
+            try {
+                CaseView caseFound = isLoginValid(caseIDs[index], prisonerIDs[index]) ? dbHandler.getCase(caseIDs[index]) : null;
+                if (caseFound != null) {
+                    result.setValue(index, caseFound.isSentencingAvailable() ? 1 : 0);
+                    result.setStatus(index, BatchResult.OK);
+                } else {
+                    result.setStatus(index, BatchResult.INVALID_LOGIN);
+                }
+            } catch (CaseMovedException e) {
+                result.setStatus(index, BatchResult.MOVED);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Method used to register a client callback which is called as soon as the decision is made.
+     **/
+    @Override
+    public boolean registerSentenceListener(LoginDetails details, SentenceListener listener) throws RemoteException {
+        /* Input verification*/
+        CaseView caseFound = getLoginCase(details);
+        if (caseFound != null && (listener != null)) {
+            caseFound.registerSentenceListener(details.getPrisonerID(), listener);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+
+    /**
+     * Method used by clients that cannot receive callbacks.
+     * Holds the request until the decision is made or the timeout expires.
+     **/
+    @Override
+    public boolean waitForDecision(LoginDetails details, long timeoutMillis) throws RemoteException {
+        /* Input verification*/
+        CaseView caseFound = getLoginCase(details);
+        if (caseFound != null) {
+            long timeout = Math.min(Math.max(timeoutMillis, 0), MAX_WAIT_MILLIS);
+            try {
+                return caseFound.awaitSentencing(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
         } else {
             return false;
         }
@@ -76,16 +254,73 @@ public class ProsecutorServiceImpl extends UnicastRemoteObject implements Prosec
 
     /**
      * Method used to get the prisoner's sentence.
+     * The cache is read first, as retired cases are dropped from it. The case is only looked up on a miss.
      **/
     @Override
     public int getSentence(LoginDetails details) throws RemoteException, IllegalArgumentException {
+        long startTime = System.nanoTime();
+        if (details != null) {
+            int cachedSentence = getCachedSentence(details.getCaseID(), details.getPrisonerID(), startTime);
+            if (cachedSentence != SentenceCache.MISS) {
+                return cachedSentence;
+            }
+        }
         /* Input verification*/
-        if (userAuthentication(details)) {
-            Case caseFound = dbHandler.getCase(details.getCaseID());
-            return caseFound.getPrisonerSentence(details.getPrisonerID());
-        } else {
+        CaseView caseFound = getLoginCase(details);
+        if (caseFound == null) {
             throw new IllegalArgumentException("The ID and the case are not valid!");
         }
+        int sentence = readSentence(caseFound, details.getPrisonerID());
+        recordMiss(startTime);
+        return sentence;
+    }
+
+
+    /**
+     * Method used to get the sentences of many prisoners in one call.
+     * Sentences that are not available yet are reported with the NOT_AVAILABLE status.
+     **/
+    @Override
+    public BatchResult getSentences(int[] caseIDs, int[] prisonerIDs) throws RemoteException {
+        validateBatch(caseIDs, prisonerIDs);
+        BatchResult result = new BatchResult(caseIDs.length);
+        for (int index = 0; index < caseIDs.length; index++) {
+            try {
+                readBatchSentence(caseIDs[index], prisonerIDs[index], result, index);
+            } catch (CaseMovedException e) {
+                result.setStatus(index, BatchResult.MOVED);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Method used to get the sentence of one item of a batch into its value and status.
+     **/
+    private void readBatchSentence(int caseID, int prisonerID, BatchResult result, int index) {
+        long startTime = System.nanoTime();
+        if (!isLoginValid(caseID, prisonerID)) {
+            result.setStatus(index, BatchResult.INVALID_LOGIN);
+            return;
+        }
+        int cachedSentence = getCachedSentence(caseID, prisonerID, startTime);
+        if (cachedSentence != SentenceCache.MISS) {
+            result.setValue(index, cachedSentence);
+            result.setStatus(index, BatchResult.OK);
+            return;
+        }
+        CaseView caseFound = dbHandler.getCase(caseID);
+        if (caseFound == null) {
+            result.setStatus(index, BatchResult.INVALID_LOGIN);
+        } else {
+            try {
+                result.setValue(index, readSentence(caseFound, prisonerID));
+                result.setStatus(index, BatchResult.OK);
+                recordMiss(startTime);
+            } catch (IllegalStateException e) {
+                result.setStatus(index, BatchResult.NOT_AVAILABLE);
+            }
+        }
     }
 
 
@@ -96,12 +331,165 @@ public class ProsecutorServiceImpl extends UnicastRemoteObject implements Prosec
     public boolean userAuthentication(LoginDetails details) throws RemoteException {
         /*Input verification. */
         if (details != null) {
-            boolean caseValid = dbHandler.isCaseValid(details.getCaseID()); /*Case ID check */
-            int id = details.getPrisonerID(); /*prisoner ID*/
-            boolean prisonerIDValid = (id == 0 || id == 1); /*Validity check*/
-            return caseValid && prisonerIDValid;
+            return isLoginValid(details.getCaseID(), details.getPrisonerID());
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Method used to log in once. Returns a session token to use in later calls
+     * or SessionTable.NO_SESSION if the details are not valid.
+     **/
+    @Override
+    public long login(LoginDetails details) throws RemoteException {
+        if (userAuthentication(details)) {
+            return sessions.open(details.getCaseID(), details.getPrisonerID());
         } else {
+            return SessionTable.NO_SESSION;
+        }
+    }
+
+    @Override
+    public void logout(long sessionToken) throws RemoteException {
+        sessions.close(sessionToken);
+    }
+
+    /**
+     * Method for logging the decision of the prisoner of the session.
+     **/
+    @Override
+    public boolean logDecision(long sessionToken, Command decision) throws RemoteException, IllegalArgumentException {
+        long login = resolveSession(sessionToken);
+        if (decision == null) {
             return false;
         }
+        recordDecision(SessionTable.getCaseID(login), SessionTable.getPrisonerID(login), decision);
+        return true;
+    }
+
+    @Override
+    public boolean hasDecisionBeenMade(long sessionToken) throws RemoteException, IllegalArgumentException {
+        long startTime = System.nanoTime();
+        long login = resolveSession(sessionToken);
+        if (getCachedSentence(SessionTable.getCaseID(login), SessionTable.getPrisonerID(login), startTime) != SentenceCache.MISS) {
+            return true;
+        }
+        boolean decisionMade = getSessionCase(login).isSentencingAvailable();
+        recordMiss(startTime);
+        return decisionMade;
+    }
+
+    @Override
+    public boolean waitForDecision(long sessionToken, long timeoutMillis) throws RemoteException, IllegalArgumentException {
+        CaseView caseFound = getSessionCase(resolveSession(sessionToken));
+        long timeout = Math.min(Math.max(timeoutMillis, 0), MAX_WAIT_MILLIS);
+        try {
+            return caseFound.awaitSentencing(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public int getSentence(long sessionToken) throws RemoteException, IllegalArgumentException {
+        long startTime = System.nanoTime();
+        long login = resolveSession(sessionToken);
+        int cachedSentence = getCachedSentence(SessionTable.getCaseID(login), SessionTable.getPrisonerID(login), startTime);
+        if (cachedSentence != SentenceCache.MISS) {
+            return cachedSentence;
+        }
+        int sentence = readSentence(getSessionCase(login), SessionTable.getPrisonerID(login));
+        recordMiss(startTime);
+        return sentence;
+    }
+
+    /**
+     * Returns the sentence of the prisoner from the cache, or SentenceCache.MISS.
+     * Can be read before the case is looked up, as cases retired, archived or handed off are dropped from the cache.
+     **/
+    private int getCachedSentence(int caseID, int prisonerID, long startTime) {
+        if (sentenceCache == null || (prisonerID != 0 && prisonerID != 1)) {
+            return SentenceCache.MISS;
+        }
+        int sentence = sentenceCache.get(caseID, prisonerID);
+        if (sentence != SentenceCache.MISS) {
+            sentenceCache.recordLookup(true, System.nanoTime() - startTime);
+        }
+        return sentence;
+    }
+
+    /**
+     * Returns the sentence of the prisoner from the case and caches it if it is final.
+     **/
+    private int readSentence(CaseView caseFound, int prisonerID) {
+        if (sentenceCache == null) {
+            return caseFound.getPrisonerSentence(prisonerID);
+        }
+        long stamp = sentenceCache.stamp(caseFound.getCaseID(), prisonerID);
+        int finalSentence = caseFound.getSentences()[prisonerID]; /*Status and sentence read together. */
+        if (finalSentence == Case.SENTENCE_UNKNOWN) {
+            return caseFound.getPrisonerSentence(prisonerID);
+        }
+        sentenceCache.put(stamp, caseFound.getCaseID(), prisonerID, finalSentence);
+        return finalSentence;
+    }
+
+    private void recordMiss(long startTime) {
+        if (sentenceCache != null) {
+            sentenceCache.recordLookup(false, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Returns the login of the session. Throws if the session is not valid or has expired.
+     **/
+    private long resolveSession(long sessionToken) {
+        long login = sessions.resolve(sessionToken);
+        if (login == SessionTable.NO_SESSION) {
+            throw new IllegalArgumentException("Session is not valid!");
+        }
+        return login;
+    }
+
+    /**
+     * Returns the case of the session. Throws if the case no longer exists.
+     **/
+    private CaseView getSessionCase(long login) {
+        CaseView caseFound = dbHandler.getCase(SessionTable.getCaseID(login));
+        if (caseFound == null) {
+            throw new IllegalArgumentException("The ID and the case are not valid!");
+        }
+        return caseFound;
+    }
+
+    /**
+     * Returns the case of the login details, or null if the details are not valid.
+     * The case is looked up once, so a case retired after the check is never used.
+     **/
+    private CaseView getLoginCase(LoginDetails details) {
+        if (details == null || (details.getPrisonerID() != 0 && details.getPrisonerID() != 1)) {
+            return null;
+        }
+        return dbHandler.getCase(details.getCaseID());
+    }
+
+    /**
+     * Checks that the case exists and that the prisoner ID is valid.
+     **/
+    private boolean isLoginValid(int caseID, int prisonerID) {
+        boolean caseValid = dbHandler.isCaseValid(caseID); /*Case ID check */
+        boolean prisonerIDValid = (prisonerID == 0 || prisonerID == 1); /*Validity check*/
+        return caseValid && prisonerIDValid;
+    }
+
+    /**
+     * Checks that the arrays of a batch call can be used together.
+     **/
+    private static void validateBatch(int[] caseIDs, int[] prisonerIDs) {
+        if (caseIDs == null || prisonerIDs == null || caseIDs.length != prisonerIDs.length) {
+            throw new IllegalArgumentException("Batch arrays must have the same length!");
+        }
     }
 }
@@ -0,0 +1,118 @@
+import java.util.SplittableRandom;
+
+/**
+ * Source of the random numbers used for sentences and appeal outcomes.
+ * Every draw is identified by a key built from the case, the prisoner and what the number is for.
+ * In thread mode the key is ignored and each thread draws from its own generator, so the
+ * request threads never contend on a shared seed. In seeded mode the number only depends on
+ * the seed and the key, so the same cases get the same sentences on every run.
+ **/
+public abstract class RandomSource {
+
+  public static final String THREAD_MODE = "thread";
+  public static final String SEEDED_MODE = "seeded";
+
+  /* Streams of draws. */
+  public static final int SENTENCE_STREAM = 0;
+  public static final int APPEAL_STREAM = 1;
+
+  private static volatile RandomSource current = new ThreadRandomSource(System.nanoTime());
+
+  /**
+   * Returns the source used by the server.
+   **/
+  public static RandomSource current() {
+    return current;
+  }
+
+  /**
+   * Method used to change the source used by the server. Should be called before any case is created.
+   **/
+  public static void setCurrent(RandomSource source) {
+    if (source == null) {
+      throw new IllegalArgumentException("Random source is not valid!");
+    }
+    current = source;
+  }
+
+  /**
+   * Returns a source for the given mode.
+   **/
+  public static RandomSource newRandomSource(String mode, long seed) {
+    if (THREAD_MODE.equalsIgnoreCase(mode)) {
+      return new ThreadRandomSource(seed);
+    } else if (SEEDED_MODE.equalsIgnoreCase(mode)) {
+      return new SeededRandomSource(seed);
+    }
+    throw new IllegalArgumentException("Unknown random mode: " + mode);
+  }
+
+  /**
+   * Returns the key of a draw. The sequence tells apart repeated draws of the same stream
+   * (e.g. successive appeals) and wraps after 65536.
+   **/
+  public static long drawKey(int caseID, int prisonerID, int stream, int sequence) {
+    return ((long) caseID << 32) | ((stream & 0xFFL) << 24) | ((prisonerID & 0xFFL) << 16) | (sequence & 0xFFFFL);
+  }
+
+  /**
+   * Returns a number between 0 (inclusive) and the bound (exclusive) for the draw with the given key.
+   **/
+  public abstract int nextInt(long drawKey, int bound);
+
+  /**
+   * Returns true with the given probability for the draw with the given key.
+   **/
+  public boolean nextBoolean(long drawKey, double probability) {
+    return nextInt(drawKey, 1 << 24) < probability * (1 << 24);
+  }
+
+  /**
+   * Mixes the seed and the key with the finaliser of SplitMix64, so close keys give unrelated numbers.
+   **/
+  private static long mix(long seed, long key) {
+    long mixed = seed + key * 0x9E3779B97F4A7C15L;
+    mixed = (mixed ^ (mixed >>> 30)) * 0xBF58476D1CE4E5B9L;
+    mixed = (mixed ^ (mixed >>> 27)) * 0x94D049BB133111EBL;
+    return mixed ^ (mixed >>> 31);
+  }
+
+  /**
+   * Each thread gets its own generator, seeded from the seed and the ID of the thread the first time it draws.
+   * Nothing is shared between threads, so starting a new thread, e.g. a virtual thread per request, never waits on a lock.
+   **/
+  private static class ThreadRandomSource extends RandomSource {
+    private final long seed;
+    private final ThreadLocal<SplittableRandom> threadGenerator;
+
+    ThreadRandomSource(long seed) {
+      this.seed = seed;
+      this.threadGenerator = ThreadLocal.withInitial(() -> new SplittableRandom(mix(this.seed, Thread.currentThread().getId())));
+    }
+
+    @Override
+    public int nextInt(long drawKey, int bound) {
+      return threadGenerator.get().nextInt(bound);
+    }
+  }
+
+  /**
+   * Hashes the seed and the key, so a draw does not depend on which thread makes it or when.
+   **/
+  private static class SeededRandomSource extends RandomSource {
+    private final long seed;
+
+    SeededRandomSource(long seed) {
+      this.seed = seed;
+    }
+
+    @Override
+    public int nextInt(long drawKey, int bound) {
+      if (bound <= 0) {
+        throw new IllegalArgumentException("Bound is not valid!");
+      }
+      long mixed = mix(seed, drawKey);
+      return (int) (((mixed >>> 32) * bound) >>> 32);
+    }
+  }
+}
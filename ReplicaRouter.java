@@ -0,0 +1,261 @@
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client-side stub for a primary server and its read replicas (see ReplicationNode).
+ * Implements the same interface as the RMI stub, so PrisonerClient works with replicas as with one server.
+ * Polling a case for its decision or sentence is sent to the replicas in turn, everything else to the primary.
+ * Sessions are only known to the primary, so the login details of each session are kept here
+ * and a replica is polled with them. A session is checked with the primary at least every SESSION_CHECK_MILLIS,
+ * and forgotten once the primary no longer knows it, e.g. after it expired or was logged out elsewhere.
+ * If the primary cannot be reached, its stub is looked up again, e.g. after a restart.
+ * A replica that is too far behind, cannot be reached, or cannot give the sentence yet is skipped,
+ * and the call is sent to the primary instead. A decision just made can be reported as not made,
+ * for no longer than the staleness the replicas allow, as with any read of a replica.
+ **/
+public class ReplicaRouter implements ProsecutorService {
+
+  public static final long SESSION_CHECK_MILLIS = 5000; /*Longest a session is used on the replicas without asking the primary. */
+
+  /**
+   * Interface used to make a call on one of the servers.
+   **/
+  private interface ReadCall<T> {
+    T call(ProsecutorService stub) throws RemoteException;
+  }
+
+  /**
+   * Login details of a session, with the last time the primary accepted the session.
+   **/
+  private static class SessionLogin {
+    private final LoginDetails details;
+    private volatile long checkedNanos;
+
+    SessionLogin(LoginDetails details) {
+      this.details = details;
+      this.checkedNanos = System.nanoTime();
+    }
+  }
+
+  private final String primary;
+  private volatile ProsecutorService primaryStub;
+  private final List<ProsecutorService> replicaStubs = new ArrayList<>();
+  private final AtomicInteger nextReplica = new AtomicInteger();
+  private final Map<Long, SessionLogin> sessionLogins = new ConcurrentHashMap<>();
+
+  /**
+   * Object constructor. Replicas that cannot be reached are left out.
+   **/
+  public ReplicaRouter(String primary, List<String> replicas) throws RemoteException, NotBoundException {
+    this.primary = primary;
+    this.primaryStub = lookup(primary);
+    for (String replica : replicas) {
+      try {
+        replicaStubs.add(lookup(replica));
+      } catch (RemoteException | NotBoundException e) {
+        System.err.println("Replica " + replica + " left out: " + e.toString());
+      }
+    }
+  }
+
+  private static ProsecutorService lookup(String node) throws RemoteException, NotBoundException {
+    Registry registry = ClusterNode.locateRegistry(node);
+    return (ProsecutorService) registry.lookup(ProsecutorService.class.getName());
+  }
+
+  /*Calls the primary. After a failure its stub is looked up again. The call is only retried if it never reached the primary. */
+  private <T> T callPrimary(ReadCall<T> primaryCall) throws RemoteException {
+    ProsecutorService stub = primaryStub;
+    try {
+      return primaryCall.call(stub);
+    } catch (ConnectException | ConnectIOException | NoSuchObjectException e) {
+      return primaryCall.call(lookupPrimary(stub, e));
+    } catch (RemoteException e) {
+      lookupPrimary(stub, e);
+      throw e;
+    }
+  }
+
+  private ProsecutorService lookupPrimary(ProsecutorService failedStub, RemoteException failure) throws RemoteException {
+    synchronized (this) {
+      if (primaryStub != failedStub) {
+        return primaryStub; /*Already looked up again by another call. */
+      }
+      try {
+        primaryStub = lookup(primary);
+        return primaryStub;
+      } catch (RemoteException | NotBoundException e) {
+        failure.addSuppressed(e);
+        throw failure;
+      }
+    }
+  }
+
+  /*Calls the primary with a session token. A session the primary no longer knows is forgotten. */
+  private <T> T callPrimary(long sessionToken, ReadCall<T> primaryCall) throws RemoteException {
+    try {
+      T result = callPrimary(primaryCall);
+      SessionLogin login = sessionLogins.get(sessionToken);
+      if (login != null) {
+        login.checkedNanos = System.nanoTime();
+      }
+      return result;
+    } catch (IllegalArgumentException e) {
+      sessionLogins.remove(sessionToken);
+      throw e;
+    }
+  }
+
+  /*Returns the login details of a session to poll a replica with, or null if the primary must be asked. */
+  private LoginDetails replicaLogin(long sessionToken) {
+    SessionLogin login = sessionLogins.get(sessionToken);
+    if (login == null || System.nanoTime() - login.checkedNanos > TimeUnit.MILLISECONDS.toNanos(SESSION_CHECK_MILLIS)) {
+      return null;
+    }
+    return login.details;
+  }
+
+  /*Calls the next replica, or the primary if the replica cannot answer. */
+  private <T> T read(ReadCall<T> readCall) throws RemoteException {
+    if (!replicaStubs.isEmpty()) {
+      try {
+        return readCall.call(nextReplica());
+      } catch (IllegalArgumentException | IllegalStateException | RemoteException e) {
+        /*Too far behind, the case not copied yet, or the decision not made there yet. The primary has the latest state. */
+      }
+    }
+    return callPrimary(readCall);
+  }
+
+  /*Calls the next replica with the login details of the session if it can be used there, otherwise the primary with its token. */
+  private <T> T readSession(long sessionToken, ReadCall<T> replicaCall, ReadCall<T> primaryCall) throws RemoteException {
+    if (replicaCall != null && !replicaStubs.isEmpty()) {
+      try {
+        return replicaCall.call(nextReplica());
+      } catch (IllegalArgumentException | IllegalStateException | RemoteException e) {
+        /*As for read. */
+      }
+    }
+    return callPrimary(sessionToken, primaryCall);
+  }
+
+  private ProsecutorService nextReplica() {
+    return replicaStubs.get(Math.floorMod(nextReplica.getAndIncrement(), replicaStubs.size()));
+  }
+
+  @Override
+  public boolean hasDecisionBeenMade(LoginDetails details) throws RemoteException {
+    return read(stub -> stub.hasDecisionBeenMade(details));
+  }
+
+  @Override
+  public int getSentence(LoginDetails details) throws RemoteException, IllegalArgumentException {
+    return read(stub -> stub.getSentence(details));
+  }
+
+  @Override
+  public boolean waitForDecision(LoginDetails details, long timeoutMillis) throws RemoteException {
+    return read(stub -> stub.waitForDecision(details, timeoutMillis));
+  }
+
+  /**
+   * The replica is polled with the login details of the session. Sessions opened elsewhere,
+   * or not checked with the primary recently, go to the primary.
+   **/
+  @Override
+  public boolean hasDecisionBeenMade(long sessionToken) throws RemoteException, IllegalArgumentException {
+    LoginDetails details = replicaLogin(sessionToken);
+    return readSession(sessionToken, details == null ? null : stub -> stub.hasDecisionBeenMade(details),
+        stub -> stub.hasDecisionBeenMade(sessionToken));
+  }
+
+  @Override
+  public boolean waitForDecision(long sessionToken, long timeoutMillis) throws RemoteException, IllegalArgumentException {
+    LoginDetails details = replicaLogin(sessionToken);
+    return readSession(sessionToken, details == null ? null : stub -> stub.waitForDecision(details, timeoutMillis),
+        stub -> stub.waitForDecision(sessionToken, timeoutMillis));
+  }
+
+  @Override
+  public int getSentence(long sessionToken) throws RemoteException, IllegalArgumentException {
+    LoginDetails details = replicaLogin(sessionToken);
+    return readSession(sessionToken, details == null ? null : stub -> stub.getSentence(details),
+        stub -> stub.getSentence(sessionToken));
+  }
+
+  @Override
+  public boolean logDecision(LoginDetails details, Command decision) throws RemoteException {
+    return callPrimary(stub -> stub.logDecision(details, decision));
+  }
+
+  @Override
+  public BatchResult logDecisions(int[] caseIDs, int[] prisonerIDs, boolean[] betrayedPartner) throws RemoteException {
+    return callPrimary(stub -> stub.logDecisions(caseIDs, prisonerIDs, betrayedPartner));
+  }
+
+  @Override
+  public BatchResult haveDecisionsBeenMade(int[] caseIDs, int[] prisonerIDs) throws RemoteException {
+    return callPrimary(stub -> stub.haveDecisionsBeenMade(caseIDs, prisonerIDs));
+  }
+
+  @Override
+  public BatchResult getSentences(int[] caseIDs, int[] prisonerIDs) throws RemoteException {
+    return callPrimary(stub -> stub.getSentences(caseIDs, prisonerIDs));
+  }
+
+  @Override
+  public String testConnection() throws RemoteException {
+    return callPrimary(stub -> stub.testConnection());
+  }
+
+  @Override
+  public int createCase() throws RemoteException {
+    return callPrimary(stub -> stub.createCase());
+  }
+
+  @Override
+  public boolean userAuthentication(LoginDetails details) throws RemoteException {
+    return callPrimary(stub -> stub.userAuthentication(details));
+  }
+
+  @Override
+  public long login(LoginDetails details) throws RemoteException {
+    long sessionToken = callPrimary(stub -> stub.login(details));
+    if (sessionToken != SessionTable.NO_SESSION) {
+      LoginDetails sessionDetails = new LoginDetails(); /*Copied, as the caller may reuse its details. */
+      sessionDetails.setCaseID(details.getCaseID());
+      sessionDetails.setPrisonerID(details.getPrisonerID());
+      sessionLogins.put(sessionToken, new SessionLogin(sessionDetails));
+    }
+    return sessionToken;
+  }
+
+  @Override
+  public void logout(long sessionToken) throws RemoteException {
+    sessionLogins.remove(sessionToken);
+    callPrimary(stub -> {
+      stub.logout(sessionToken);
+      return null;
+    });
+  }
+
+  @Override
+  public boolean logDecision(long sessionToken, Command decision) throws RemoteException, IllegalArgumentException {
+    return callPrimary(sessionToken, stub -> stub.logDecision(sessionToken, decision));
+  }
+
+  @Override
+  public boolean registerSentenceListener(LoginDetails details, SentenceListener listener) throws RemoteException {
+    return callPrimary(stub -> stub.registerSentenceListener(details, listener));
+  }
+}
@@ -0,0 +1,104 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Recent journal records kept in memory on the primary so replicas can fetch them.
+ * Records are stored in a ring of fixed size by their journal sequence, so appending never allocates.
+ * A replica that falls so far behind that its records have been overwritten must fetch a snapshot instead.
+ **/
+public class ReplicationLog implements CaseJournal.RecordListener {
+
+  public static final int DEFAULT_CAPACITY = 1 << 20; /*Records kept. */
+
+  /* Batch layout: sequence of the last committed record, number of records, then type, case ID, prisoner ID and two values of each. */
+
+  private final CaseJournal journal;
+  private final int mask;
+  private final byte[] types;
+  private final int[] caseIDs;
+  private final byte[] prisonerIDs;
+  private final int[] values1;
+  private final int[] values2;
+  private final long startSequence; /*Last record appended before the log was attached. Not kept. */
+  private volatile long lastSequence; /*Written by the journal while it holds its lock. */
+
+  /**
+   * Object constructor. Starts receiving the records appended to the journal. The capacity is rounded up to a power of two.
+   **/
+  public ReplicationLog(CaseJournal journal, int capacity) {
+    if (capacity <= 0 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Capacity is not valid!");
+    }
+    int slotCount = Integer.highestOneBit(capacity);
+    if (slotCount < capacity) {
+      slotCount <<= 1;
+    }
+    this.journal = journal;
+    this.mask = slotCount - 1;
+    this.types = new byte[slotCount];
+    this.caseIDs = new int[slotCount];
+    this.prisonerIDs = new byte[slotCount];
+    this.values1 = new int[slotCount];
+    this.values2 = new int[slotCount];
+    this.startSequence = journal.setRecordListener(this);
+    this.lastSequence = startSequence;
+  }
+
+  @Override
+  public void appended(long sequence, byte type, int caseID, int prisonerID, int value1, int value2) {
+    int slot = (int) (sequence & mask);
+    types[slot] = type;
+    caseIDs[slot] = caseID;
+    prisonerIDs[slot] = (byte) prisonerID;
+    values1[slot] = value1;
+    values2[slot] = value2;
+    lastSequence = sequence; /*Publishes the record. */
+  }
+
+  /**
+   * Returns the sequence of the last record a replica must have applied to be up to date.
+   * Records appended after it may still be written by the cases being snapshotted.
+   **/
+  public long getLastSequence() {
+    return lastSequence;
+  }
+
+  /**
+   * Returns a batch of the committed records after the given sequence, or null if some of them are no longer kept.
+   * Only records the journal has committed are shipped, so a replica never holds a change the primary could lose.
+   **/
+  public byte[] read(long afterSequence, int maxRecords) {
+    long newestRecord = Math.min(lastSequence, journal.getCommittedSequence());
+    if (afterSequence < oldestKept(lastSequence) - 1 || afterSequence > lastSequence) {
+      return null;
+    }
+    long lastRecord = Math.max(Math.min(newestRecord, afterSequence + maxRecords), afterSequence);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(12 + (int) (lastRecord - afterSequence) * 14);
+    DataOutputStream output = new DataOutputStream(bytes);
+    try {
+      output.writeLong(newestRecord);
+      output.writeInt((int) (lastRecord - afterSequence));
+      for (long sequence = afterSequence + 1; sequence <= lastRecord; sequence++) {
+        int slot = (int) (sequence & mask);
+        output.writeByte(types[slot]);
+        output.writeInt(caseIDs[slot]);
+        output.writeByte(prisonerIDs[slot]);
+        output.writeInt(values1[slot]);
+        output.writeInt(values2[slot]);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); /*Not thrown when writing to memory. */
+    }
+    /*Records may have been overwritten while they were copied. */
+    if (afterSequence + 1 < oldestKept(lastSequence)) {
+      return null;
+    }
+    return bytes.toByteArray();
+  }
+
+  private long oldestKept(long newestSequence) {
+    return Math.max(startSequence + 1, newestSequence - mask);
+  }
+}
@@ -0,0 +1,302 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replication of the cases of a primary server to read replicas by shipping its journal.
+ * The primary keeps its recent records in a ReplicationLog. Each replica starts from a snapshot of
+ * all the cases and then pulls the records committed since, applying them with the same code as recovery.
+ * Replicas answer the calls that only read cases, as long as they are no more than the allowed time behind.
+ * A replica can be promoted to primary when the primary dies, and the other replicas then follow it.
+ **/
+public class ReplicationNode extends UnicastRemoteObject implements ReplicationService {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final String PRIMARY_ROLE = "primary";
+  public static final String REPLICA_ROLE = "replica";
+  public static final long DEFAULT_MAX_STALENESS_MILLIS = 5000; /*Longest a replica answers reads without catching up. */
+  private static final int RECORDS_PER_FETCH = 8192;
+  private static final long POLL_INTERVAL_MILLIS = 10; /*Wait between fetches once caught up. */
+  private static final long RETRY_INTERVAL_MILLIS = 1000; /*Wait after the primary could not be reached. */
+  /* Calls that change cases. Only the primary accepts them. */
+  private static final Set<String> WRITE_METHODS = new HashSet<>(Arrays.asList(
+      "logDecision", "logDecisions", "createCase", "requestAppeal", "submitAppeal", "awaitAppealOutcome",
+      "requestMatch", "joinQueue", "awaitMatch", "cancelMatch"));
+
+  private final PrisonerDatabaseHandler dbHandler;
+  private final SentenceCache sentenceCache; /*Sentences changed by applied records are dropped from it. Not used if not set. */
+  private final long maxStalenessMillis;
+  private volatile ReplicationLog replicationLog; /*Only set on the primary. */
+  private volatile String primary; /*Only set on a replica. */
+  private Thread followerThread;
+  /* Progress of a replica, written by the follower thread. */
+  private volatile long appliedSequence;
+  private volatile long primarySequence;
+  private volatile long caughtUpTime; /*Last time the replica had applied every record of the primary. */
+  /* Sequence of the last record already in the state of each case of the snapshot loaded, by case ID.
+   * Only used by the follower thread, and dropped once every such record has been passed. */
+  private Map<Integer, Long> snapshotSequences;
+  private long snapshotEndSequence;
+  private final LongAdder appliedRecords = new LongAdder();
+
+  /**
+   * Object constructor. A replica starts copying the given primary straight away, a primary ignores it.
+   **/
+  public ReplicationNode(String role, String primary, PrisonerDatabaseHandler dbHandler, SentenceCache sentenceCache,
+                         long maxStalenessMillis) throws RemoteException {
+    super();
+    if (dbHandler.getJournal() == null) {
+      throw new IllegalStateException("Replication needs the cases to be kept in the journal!");
+    }
+    this.dbHandler = dbHandler;
+    this.sentenceCache = sentenceCache;
+    this.maxStalenessMillis = maxStalenessMillis;
+    if (PRIMARY_ROLE.equalsIgnoreCase(role)) {
+      this.replicationLog = new ReplicationLog(dbHandler.getJournal(), ReplicationLog.DEFAULT_CAPACITY);
+    } else if (REPLICA_ROLE.equalsIgnoreCase(role)) {
+      follow(primary);
+    } else {
+      throw new IllegalArgumentException("Unknown replication role: " + role);
+    }
+  }
+
+  public boolean isPrimary() {
+    return replicationLog != null;
+  }
+
+  /**
+   * Returns the service wrapped so it can be served by this node. While the node is a replica, calls that
+   * change cases are rejected, and reads are rejected once the replica is too far behind, so the client can
+   * go to the primary instead.
+   **/
+  public <T> T guard(Class<T> serviceInterface, T service) {
+    Object proxy = Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[] {serviceInterface}, (target, method, args) -> {
+      if (method.getDeclaringClass() != Object.class && !isPrimary()) {
+        if (WRITE_METHODS.contains(method.getName())) {
+          throw new IllegalStateException("This node is a read replica!");
+        }
+        if (System.currentTimeMillis() - caughtUpTime > maxStalenessMillis) {
+          throw new IllegalStateException("Replica is too far behind the primary!");
+        }
+      }
+      try {
+        return method.invoke(service, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    });
+    return serviceInterface.cast(proxy);
+  }
+
+  @Override
+  public byte[] fetchRecords(long afterSequence, int maxRecords) throws RemoteException {
+    return primaryLog().read(afterSequence, maxRecords);
+  }
+
+  @Override
+  public byte[] fetchSnapshot() throws RemoteException {
+    ReplicationLog log = primaryLog();
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream output = new DataOutputStream(bytes);
+      /*Taken before the cases are written. The records appended meanwhile are shipped too, and the replica
+       *skips the ones each case already holds, using the sequence written with the case. */
+      output.writeLong(log.getLastSequence());
+      dbHandler.writeCases(output);
+      output.flush();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new RemoteException("Cases could not be written", e);
+    }
+  }
+
+  private ReplicationLog primaryLog() {
+    ReplicationLog log = replicationLog;
+    if (log == null) {
+      throw new IllegalStateException("This node is not the primary!");
+    }
+    return log;
+  }
+
+  /**
+   * The follower is stopped before the node accepts changes, so no record is applied after them.
+   **/
+  @Override
+  public synchronized void promote() throws RemoteException {
+    if (isPrimary()) {
+      return;
+    }
+    stopFollowing();
+    dbHandler.allocateAfterExistingCases();
+    try {
+      /*Applied records are not in the journal of this node, so they are only durable once in a snapshot. */
+      dbHandler.writeSnapshot();
+    } catch (IOException e) {
+      throw new RemoteException("Cases could not be stored", e);
+    }
+    replicationLog = new ReplicationLog(dbHandler.getJournal(), ReplicationLog.DEFAULT_CAPACITY);
+    System.out.println("Promoted to primary after applying " + appliedRecords.sum() + " records.");
+  }
+
+  @Override
+  public synchronized void follow(String newPrimary) {
+    if (isPrimary()) {
+      throw new IllegalStateException("The primary cannot follow another node!");
+    }
+    stopFollowing();
+    primary = newPrimary;
+    followerThread = new Thread(this::followPrimary, "replication-follower");
+    followerThread.setDaemon(true);
+    followerThread.start();
+  }
+
+  private void stopFollowing() {
+    if (followerThread != null) {
+      followerThread.interrupt();
+      try {
+        followerThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      followerThread = null;
+    }
+  }
+
+  /**
+   * Loop run by the follower thread of a replica. Starts from a snapshot, then applies the records of the primary.
+   **/
+  private void followPrimary() {
+    String followedPrimary = primary;
+    ReplicationService primaryStub = null;
+    boolean snapshotNeeded = true;
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        if (primaryStub == null) {
+          primaryStub = (ReplicationService) ClusterNode.locateRegistry(followedPrimary).lookup(ReplicationService.class.getName());
+        }
+        if (snapshotNeeded) {
+          loadSnapshot(primaryStub.fetchSnapshot());
+          snapshotNeeded = false;
+        }
+        byte[] batch = primaryStub.fetchRecords(appliedSequence, RECORDS_PER_FETCH);
+        if (batch == null) {
+          snapshotNeeded = true; /*Fell too far behind. */
+        } else if (applyRecords(batch) < RECORDS_PER_FETCH) {
+          Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+      } catch (RemoteException | NotBoundException | RuntimeException e) {
+        System.err.println("Unable to copy the primary " + followedPrimary + ": " + e.toString());
+        primaryStub = null;
+        try {
+          Thread.sleep(RETRY_INTERVAL_MILLIS);
+        } catch (InterruptedException interrupted) {
+          return;
+        }
+      } catch (IOException e) {
+        System.err.println("Records of the primary are not valid: " + e.toString());
+        snapshotNeeded = true;
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  private void loadSnapshot(byte[] snapshot) throws IOException {
+    try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(snapshot))) {
+      long snapshotSequence = input.readLong();
+      snapshotSequences = dbHandler.replaceCases(input);
+      snapshotEndSequence = snapshotSequence;
+      for (long caseSequence : snapshotSequences.values()) {
+        snapshotEndSequence = Math.max(snapshotEndSequence, caseSequence);
+      }
+      if (sentenceCache != null) {
+        sentenceCache.invalidateAll();
+      }
+      appliedSequence = snapshotSequence;
+    }
+  }
+
+  /*Returns the number of records applied. */
+  private int applyRecords(byte[] batch) throws IOException {
+    try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(batch))) {
+      long committedSequence = input.readLong();
+      int numberOfRecords = input.readInt();
+      for (int index = 0; index < numberOfRecords; index++) {
+        byte type = input.readByte();
+        int caseID = input.readInt();
+        int prisonerID = input.readByte();
+        int value1 = input.readInt();
+        int value2 = input.readInt();
+        if (snapshotSequences != null && appliedSequence + index + 1 <= snapshotSequences.getOrDefault(caseID, 0L)) {
+          continue; /*Already in the state of the case written to the snapshot. */
+        }
+        dbHandler.applyRecord(type, caseID, prisonerID, value1, value2);
+        if (sentenceCache != null && (type == CaseJournal.SENTENCE_REDUCED || type == CaseJournal.CASE_RETIRED
+            || type == CaseJournal.CASE_ARCHIVED)) {
+          for (int cachedPrisonerID = 0; cachedPrisonerID < Case.NUMBER_PRISONERS; cachedPrisonerID++) {
+            sentenceCache.invalidate(caseID, cachedPrisonerID);
+          }
+        }
+      }
+      appliedSequence += numberOfRecords;
+      if (snapshotSequences != null && appliedSequence >= snapshotEndSequence) {
+        snapshotSequences = null;
+      }
+      appliedRecords.add(numberOfRecords);
+      primarySequence = committedSequence;
+      if (appliedSequence >= committedSequence) {
+        caughtUpTime = System.currentTimeMillis();
+      }
+      return numberOfRecords;
+    }
+  }
+
+  @Override
+  public String describe() {
+    if (isPrimary()) {
+      return "Replication: primary, " + replicationLog.getLastSequence() + " records appended";
+    }
+    long caughtUpAge = caughtUpTime == 0 ? -1 : System.currentTimeMillis() - caughtUpTime;
+    return "Replication: replica of " + primary + ", " + Math.max(primarySequence - appliedSequence, 0)
+        + " records behind, caught up " + caughtUpAge + " ms ago, " + appliedRecords.sum() + " records applied";
+  }
+
+  /**
+   * Promotes a replica, or makes a replica follow another primary.
+   **/
+  public static void main(String[] args) {
+    if (args.length < 2 || (args[1].equals("follow") && args.length < 3)) {
+      System.out.println("Usage: ReplicationNode host:port promote|describe|follow [host:port of primary]");
+      return;
+    }
+    try {
+      ReplicationService node = (ReplicationService) ClusterNode.locateRegistry(args[0]).lookup(ReplicationService.class.getName());
+      switch (args[1]) {
+        case "promote":
+          node.promote();
+          break;
+        case "follow":
+          node.follow(args[2]);
+          break;
+        default:
+          break;
+      }
+      System.out.println(node.describe());
+    } catch (Exception e) {
+      System.err.println("An error has occurred!!\r\n" + e.toString());
+    }
+  }
+}
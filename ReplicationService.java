@@ -0,0 +1,36 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface used to copy the cases of a primary server to read replicas.
+ * Replicas pull the journal records of the primary and apply them to their own cases.
+ * Nodes are named by the address of their registry, e.g. localhost:8080.
+ **/
+public interface ReplicationService extends Remote {
+
+  /**
+   * Returns the committed records after the given sequence, at most the given number of them,
+   * or null if they are no longer kept and the replica must fetch a snapshot.
+   **/
+  byte[] fetchRecords(long afterSequence, int maxRecords) throws RemoteException;
+
+  /**
+   * Returns all the cases, preceded by the sequence of the records to apply on top of them.
+   **/
+  byte[] fetchSnapshot() throws RemoteException;
+
+  /**
+   * Makes this replica the primary, e.g. once the primary has died.
+   **/
+  void promote() throws RemoteException;
+
+  /**
+   * Makes this replica copy another primary, e.g. after another replica was promoted.
+   **/
+  void follow(String primary) throws RemoteException;
+
+  /**
+   * Returns the role of the node and how far behind its primary it is.
+   **/
+  String describe() throws RemoteException;
+}
@@ -0,0 +1,103 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact history of the rounds of an iterated case.
+ * The decisions of a round take two bits (bit 0 prisoner 1 betrayed, bit 1 prisoner 2 betrayed)
+ * and only the most recent rounds are kept, so the memory used does not grow with the length
+ * of the game. The number of times each outcome happened is counted over all the rounds.
+ * Not thread safe. Guarded by the lock of the case.
+ **/
+public class RoundHistory {
+
+  public static final int MAX_KEPT_ROUNDS = 4096; /*Rounds kept in the history. Takes 1 KB. */
+
+  private static final int ROUNDS_PER_WORD = Long.SIZE / Case.NUMBER_PRISONERS;
+  private static final int NUMBER_OUTCOMES = 1 << Case.NUMBER_PRISONERS;
+
+  private final int keptRounds;
+  private final long[] decisions;
+  private final long[] outcomeCounts = new long[NUMBER_OUTCOMES];
+  private int roundsPlayed;
+
+  /**
+   * Object constructor. Keeps every round of shorter games.
+   **/
+  public RoundHistory(int totalRounds) {
+    int wordsNeeded = (Math.min(totalRounds, MAX_KEPT_ROUNDS) + ROUNDS_PER_WORD - 1) / ROUNDS_PER_WORD;
+    this.decisions = new long[wordsNeeded];
+    this.keptRounds = wordsNeeded * ROUNDS_PER_WORD;
+  }
+
+  /**
+   * Method used to add the decisions of the round just played. Overwrites the oldest round once the history is full.
+   **/
+  public void addRound(boolean prisoner1Betrayed, boolean prisoner2Betrayed) {
+    int outcome = (prisoner1Betrayed ? 1 : 0) | (prisoner2Betrayed ? 2 : 0);
+    int slot = roundsPlayed % keptRounds;
+    int shift = (slot % ROUNDS_PER_WORD) * Case.NUMBER_PRISONERS;
+    int word = slot / ROUNDS_PER_WORD;
+    decisions[word] = (decisions[word] & ~(3L << shift)) | ((long) outcome << shift);
+    outcomeCounts[outcome]++;
+    roundsPlayed++;
+  }
+
+  public int getRoundsPlayed() {
+    return roundsPlayed;
+  }
+
+  /**
+   * Returns true if the round is still kept in the history.
+   **/
+  public boolean isRoundKept(int round) {
+    return round >= 0 && round < roundsPlayed && round >= roundsPlayed - keptRounds;
+  }
+
+  /**
+   * Returns true if the prisoner betrayed the partner in the round.
+   **/
+  public boolean hasBetrayedInRound(int prisonerID, int round) {
+    if (!isRoundKept(round)) {
+      throw new IllegalArgumentException("Round is not in the history!");
+    }
+    int slot = round % keptRounds;
+    int shift = (slot % ROUNDS_PER_WORD) * Case.NUMBER_PRISONERS + prisonerID;
+    return (decisions[slot / ROUNDS_PER_WORD] >>> shift & 1L) != 0;
+  }
+
+  /**
+   * Returns the number of rounds in which both prisoners made the given decisions.
+   **/
+  public long getOutcomeCount(boolean prisoner1Betrayed, boolean prisoner2Betrayed) {
+    return outcomeCounts[(prisoner1Betrayed ? 1 : 0) | (prisoner2Betrayed ? 2 : 0)];
+  }
+
+  /**
+   * Method used to write the history to a snapshot.
+   **/
+  public void writeTo(DataOutput output) throws IOException {
+    output.writeInt(roundsPlayed);
+    for (long count : outcomeCounts) {
+      output.writeLong(count);
+    }
+    for (long word : decisions) {
+      output.writeLong(word);
+    }
+  }
+
+  /**
+   * Method used to read a history written by writeTo.
+   **/
+  public static RoundHistory readFrom(DataInput input, int totalRounds) throws IOException {
+    RoundHistory history = new RoundHistory(totalRounds);
+    history.roundsPlayed = input.readInt();
+    for (int outcome = 0; outcome < NUMBER_OUTCOMES; outcome++) {
+      history.outcomeCounts[outcome] = input.readLong();
+    }
+    for (int word = 0; word < history.decisions.length; word++) {
+      history.decisions[word] = input.readLong();
+    }
+    return history;
+  }
+}
@@ -0,0 +1,158 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the final sentences of prisoners, so repeated polls do not have to find the case.
+ * Each slot is one long holding the case ID, prisoner ID, sentence and a stamp, and a prisoner
+ * can only be in one slot, so a new entry simply replaces whatever was there.
+ * The stamp changes on every write. An entry is only stored if its slot has not changed since
+ * the sentence was read, so a sentence read before an invalidation is never stored after it.
+ *
+ * Slot layout (lowest bit first):
+ * 0 entry valid, 1 prisoner ID, 2-9 sentence, 10-41 case ID, 42-63 stamp.
+ **/
+public class SentenceCache {
+
+  public static final int MISS = -1; /*Returned when the sentence is not cached. */
+
+  private static final long VALID_BIT = 1L;
+  private static final int PRISONER_SHIFT = 1;
+  private static final int SENTENCE_SHIFT = 2;
+  private static final long SENTENCE_MASK = 0xFFL;
+  private static final int CASE_SHIFT = 10;
+  private static final int STAMP_SHIFT = 42;
+  private static final long ENTRY_MASK = (1L << STAMP_SHIFT) - 1;
+  private static final long KEY_MASK = ENTRY_MASK & ~(SENTENCE_MASK << SENTENCE_SHIFT);
+
+  private final AtomicLongArray slots;
+  private final int slotMask;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder hitNanos = new LongAdder();
+  private final LongAdder missNanos = new LongAdder();
+
+  /**
+   * Object constructor. The capacity is rounded up to a power of two.
+   **/
+  public SentenceCache(int capacity) {
+    if (capacity <= 0 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Capacity is not valid!");
+    }
+    int slotCount = Integer.highestOneBit(capacity);
+    if (slotCount < capacity) {
+      slotCount <<= 1;
+    }
+    this.slots = new AtomicLongArray(slotCount);
+    this.slotMask = slotCount - 1;
+  }
+
+  /**
+   * Returns the cached sentence of the prisoner, or MISS.
+   **/
+  public int get(int caseID, int prisonerID) {
+    long slot = slots.get(slotIndex(caseID, prisonerID));
+    if ((slot & KEY_MASK) == key(caseID, prisonerID)) {
+      return (int) ((slot >>> SENTENCE_SHIFT) & SENTENCE_MASK);
+    }
+    return MISS;
+  }
+
+  /**
+   * Returns the current stamp of the slot of the prisoner. Must be read before the sentence is read from the case.
+   **/
+  public long stamp(int caseID, int prisonerID) {
+    return slots.get(slotIndex(caseID, prisonerID));
+  }
+
+  /**
+   * Method used to store a final sentence read after the stamp was taken.
+   * Does nothing if the slot has changed since, e.g. because the sentence was invalidated.
+   **/
+  public void put(long stamp, int caseID, int prisonerID, int sentence) {
+    if (sentence < 0 || sentence > SENTENCE_MASK) {
+      return;
+    }
+    long entry = key(caseID, prisonerID) | ((long) sentence << SENTENCE_SHIFT);
+    slots.compareAndSet(slotIndex(caseID, prisonerID), stamp, entry | nextStamp(stamp));
+  }
+
+  /**
+   * Method used to drop the cached sentence of the prisoner once it has changed.
+   **/
+  public void invalidate(int caseID, int prisonerID) {
+    int index = slotIndex(caseID, prisonerID);
+    long slot;
+    do {
+      slot = slots.get(index);
+    }
+    while (!slots.compareAndSet(index, slot, nextStamp(slot)));
+  }
+
+  /**
+   * Method used to drop every cached sentence, e.g. once all the cases have been replaced.
+   **/
+  public void invalidateAll() {
+    for (int index = 0; index < slots.length(); index++) {
+      long slot;
+      do {
+        slot = slots.get(index);
+      }
+      while (!slots.compareAndSet(index, slot, nextStamp(slot)));
+    }
+  }
+
+  /**
+   * Method used to count a lookup and the time spent answering it.
+   **/
+  public void recordLookup(boolean hit, long elapsedNanos) {
+    if (hit) {
+      hits.increment();
+      hitNanos.add(elapsedNanos);
+    } else {
+      misses.increment();
+      missNanos.add(elapsedNanos);
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the fraction of lookups answered from the cache.
+   **/
+  public double getHitRate() {
+    long hitCount = hits.sum();
+    long lookups = hitCount + misses.sum();
+    return lookups == 0 ? 0 : (double) hitCount / lookups;
+  }
+
+  /**
+   * Returns the hit rate and the average time of hits and misses.
+   **/
+  public String describe() {
+    long hitCount = hits.sum();
+    long missCount = misses.sum();
+    return String.format("Sentence cache: %d hits, %d misses (%.1f%% hits), %.0f ns per hit, %.0f ns per miss",
+        hitCount, missCount, 100 * getHitRate(), hitCount == 0 ? 0.0 : (double) hitNanos.sum() / hitCount,
+        missCount == 0 ? 0.0 : (double) missNanos.sum() / missCount);
+  }
+
+  private int slotIndex(int caseID, int prisonerID) {
+    /*Spread sequential case IDs over the table. */
+    int hash = (caseID * 2 + prisonerID) * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & slotMask;
+  }
+
+  private static long key(int caseID, int prisonerID) {
+    return VALID_BIT | ((long) (prisonerID & 1) << PRISONER_SHIFT) | ((caseID & 0xFFFFFFFFL) << CASE_SHIFT);
+  }
+
+  private static long nextStamp(long slot) {
+    return ((slot >>> STAMP_SHIFT) + 1) << STAMP_SHIFT;
+  }
+}
@@ -0,0 +1,11 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface for the remote listener exported by the client.
+ * The server calls it back as soon as the sentence of the case becomes available.
+ **/
+public interface SentenceListener extends Remote {
+
+  void sentenceAvailable(int caseID, int prisonerID) throws RemoteException;
+}
@@ -0,0 +1,37 @@
+import java.rmi.RemoteException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class responsible for delivering sentence callbacks to the clients.
+ * Callbacks are remote calls, so they are sent from a separate thread pool
+ * instead of the thread that holds the lock of the case.
+ **/
+public class SentenceNotifier {
+
+  /* Number of threads used to deliver the callbacks. */
+  private static final int NOTIFIER_THREADS = 4;
+
+  private static final ExecutorService notifierPool = Executors.newFixedThreadPool(NOTIFIER_THREADS, runnable -> {
+    Thread notifierThread = new Thread(runnable, "sentence-notifier");
+    notifierThread.setDaemon(true); /*Do not keep the server alive.*/
+    return notifierThread;
+  });
+
+  private SentenceNotifier() {
+  }
+
+  /**
+   * Method used to send the callback to the listener without blocking the caller.
+   **/
+  public static void notifyListener(SentenceListener listener, int caseID, int prisonerID) {
+    notifierPool.execute(() -> {
+      try {
+        listener.sentenceAvailable(caseID, prisonerID);
+      } catch (RemoteException e) {
+        /*Client is no longer reachable. It can still poll for the sentence. */
+        System.err.println("Unable to notify prisoner " + prisonerID + " of case " + caseID + ": " + e.getMessage());
+      }
+    });
+  }
+}
@@ -0,0 +1,36 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class responsible for creating the executor that runs service requests.
+ * In virtual thread mode each request gets its own virtual thread, so requests that block
+ * (long polls, durable writes) park cheaply instead of holding a platform thread.
+ **/
+public class ServerExecutors {
+
+  public static final String PLATFORM_MODE = "platform";
+  public static final String VIRTUAL_MODE = "virtual";
+
+  private ServerExecutors() {
+  }
+
+  /**
+   * Returns an executor for the given mode. Falls back to platform threads if the
+   * running Java version has no virtual threads (before Java 21).
+   **/
+  public static ExecutorService newRequestExecutor(String mode) {
+    if (VIRTUAL_MODE.equalsIgnoreCase(mode)) {
+      try {
+        /*Looked up by reflection so the server still builds and runs on older Java versions. */
+        Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        return (ExecutorService) factory.invoke(null);
+      } catch (ReflectiveOperationException e) {
+        System.err.println("Virtual threads are not available on this Java version. Using platform threads.");
+      }
+    } else if (!PLATFORM_MODE.equalsIgnoreCase(mode)) {
+      throw new IllegalArgumentException("Unknown thread mode: " + mode);
+    }
+    return Executors.newCachedThreadPool();
+  }
+}
@@ -0,0 +1,180 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the remote methods and of the cases held by the server.
+ * Services are wrapped so every call is timed, whichever transport it came through,
+ * and the metrics can be read through JMX or as text from a small HTTP endpoint.
+ **/
+public class ServerMetrics implements ServerMetricsMBean {
+
+  public static final String JMX_DOMAIN = "PrisonServer";
+  public static final String DUMP_PATH = "/metrics";
+  private static final long CASE_COUNT_MAX_AGE_MILLIS = 1000; /*Counts of one scrape are reused for this long. */
+
+  private final PrisonerDatabaseHandler dbHandler;
+  private final Map<String, MethodMetrics> methodMetrics = new ConcurrentHashMap<>();
+  /* Metrics of each method, found once per method instead of by name on every call. */
+  private final Map<Method, MethodMetrics> metricsByMethod = new ConcurrentHashMap<>();
+  private volatile boolean registered; /*Set once the MBeans are registered. */
+  /* Cases by status, counted with one scan of all the cases and shared by the getters of one scrape. */
+  private long[] caseCounts;
+  private long caseCountTime;
+
+  public ServerMetrics(PrisonerDatabaseHandler dbHandler) {
+    this.dbHandler = dbHandler;
+  }
+
+  /**
+   * Returns the service wrapped so the calls to the methods of the interface are recorded.
+   * Exceptions thrown by the service are counted as errors and thrown on unchanged.
+   **/
+  public <T> T instrument(Class<T> serviceInterface, T service) {
+    Object proxy = Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[] {serviceInterface}, (target, method, args) -> {
+      if (method.getDeclaringClass() == Object.class) {
+        return method.invoke(service, args);
+      }
+      MethodMetrics metrics = metricsByMethod.computeIfAbsent(method, this::newMethodMetrics);
+      long startTime = System.nanoTime();
+      boolean failed = true;
+      try {
+        Object result = method.invoke(service, args);
+        failed = false;
+        return result;
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      } finally {
+        metrics.record(System.nanoTime() - startTime, failed);
+      }
+    });
+    return serviceInterface.cast(proxy);
+  }
+
+  /**
+   * Returns the metrics of the method, or null if it has not been called.
+   * Overloaded methods are named with their parameters, e.g. getSentence(long) and getSentence(LoginDetails).
+   **/
+  public MethodMetrics getMethodMetrics(String methodName) {
+    return methodMetrics.get(methodName);
+  }
+
+  /**
+   * Returns the number of cases in each status. Counting scans every case, so the counts are
+   * reused by the getters read in the same scrape. Scrapes at once wait for a single scan.
+   **/
+  private synchronized long[] getCaseCounts() {
+    long now = System.currentTimeMillis();
+    if (caseCounts == null || now - caseCountTime > CASE_COUNT_MAX_AGE_MILLIS) {
+      caseCounts = dbHandler.countCasesByStatus();
+      caseCountTime = now;
+    }
+    return caseCounts;
+  }
+
+  @Override
+  public long getOpenCases() {
+    return getCaseCounts()[Case.caseStatus.OPEN.ordinal()];
+  }
+
+  @Override
+  public long getWaitingReplyCases() {
+    return getCaseCounts()[Case.caseStatus.WAITING_REPLY.ordinal()];
+  }
+
+  @Override
+  public long getDecisionMadeCases() {
+    return getCaseCounts()[Case.caseStatus.DECISION_MADE.ordinal()];
+  }
+
+  @Override
+  public String dump() {
+    StringBuilder text = new StringBuilder();
+    long[] caseCounts = getCaseCounts();
+    for (Case.caseStatus status : Case.caseStatus.values()) {
+      text.append(String.format("cases{status=%s} %d%n", status, caseCounts[status.ordinal()]));
+    }
+    for (MethodMetrics metrics : new TreeMap<>(methodMetrics).values()) {
+      text.append(String.format("method{name=%s} calls=%d errors=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n",
+          metrics.getMethodName(), metrics.getCalls(), metrics.getErrors(), metrics.getMeanMicros(),
+          metrics.getP50Micros(), metrics.getP99Micros(), metrics.getP999Micros(), metrics.getMaxMicros()));
+    }
+    return text.toString();
+  }
+
+  /**
+   * Method used to register the metrics with the platform MBean server.
+   * Methods called for the first time afterwards are registered when they are first called.
+   **/
+  public void registerMBeans() throws JMException {
+    MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    mbeanServer.registerMBean(this, new ObjectName(JMX_DOMAIN + ":type=Server"));
+    registered = true;
+    for (MethodMetrics metrics : methodMetrics.values()) {
+      registerMBean(metrics);
+    }
+  }
+
+  /**
+   * Method used to serve the text dump over HTTP at /metrics on the given port.
+   **/
+  public HttpServer startHttpEndpoint(int port) throws IOException {
+    HttpServer httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+    httpServer.createContext(DUMP_PATH, exchange -> {
+      byte[] body = dump().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream output = exchange.getResponseBody()) {
+        output.write(body);
+      }
+    });
+    httpServer.start();
+    return httpServer;
+  }
+
+  private MethodMetrics newMethodMetrics(Method method) {
+    MethodMetrics metrics = methodMetrics.computeIfAbsent(methodName(method), MethodMetrics::new);
+    if (registered) {
+      registerMBean(metrics);
+    }
+    return metrics;
+  }
+
+  private static void registerMBean(MethodMetrics metrics) {
+    try {
+      ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Method,name=" + ObjectName.quote(metrics.getMethodName()));
+      MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+      mbeanServer.registerMBean(metrics, name);
+    } catch (InstanceAlreadyExistsException e) {
+      /*Registered by another thread. */
+    } catch (JMException e) {
+      System.err.println("Unable to register metrics of " + metrics.getMethodName() + ": " + e.toString());
+    }
+  }
+
+  /*Overloaded methods, e.g. the variants taking a session token, are told apart by their parameters. */
+  private static String methodName(Method method) {
+    long overloads = Arrays.stream(method.getDeclaringClass().getMethods())
+        .filter(other -> other.getName().equals(method.getName())).count();
+    if (overloads == 1) {
+      return method.getName();
+    }
+    return Arrays.stream(method.getParameterTypes()).map(Class::getSimpleName)
+        .collect(Collectors.joining(",", method.getName() + "(", ")"));
+  }
+}
@@ -0,0 +1,16 @@
+/**
+ * Management interface of the server metrics, as shown in JMX.
+ **/
+public interface ServerMetricsMBean {
+
+  long getOpenCases();
+
+  long getWaitingReplyCases();
+
+  long getDecisionMadeCases();
+
+  /**
+   * Returns all the metrics as text.
+   **/
+  String dump();
+}
@@ -0,0 +1,115 @@
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Table of the sessions of logged in prisoners.
+ * A session token is a long holding the slot of the session and a random number, so a
+ * token is resolved by reading one slot without any search or allocation.
+ * Sessions expire once they have not been used for the time to live.
+ **/
+public class SessionTable {
+
+  public static final long NO_SESSION = -1L; /*Returned when a token is not valid. */
+
+  private static final long EMPTY_SLOT = 0L;
+  private static final long RESERVED_SLOT = -1L; /*Slot being filled in by a login. */
+
+  private final int capacity;
+  private final long timeToLiveNanos;
+  private final AtomicLongArray tokens; /*Token of the session in each slot. Written last, read first. */
+  private final AtomicLongArray expiryTimes;
+  private final int[] caseIDs;
+  private final int[] prisonerIDs;
+  private final AtomicInteger nextSlot = new AtomicInteger();
+  private final SecureRandom tokenRandom = new SecureRandom();
+
+  public SessionTable(int capacity, long timeToLive, TimeUnit unit) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity is not valid!");
+    }
+    this.capacity = capacity;
+    this.timeToLiveNanos = unit.toNanos(timeToLive);
+    this.tokens = new AtomicLongArray(capacity);
+    this.expiryTimes = new AtomicLongArray(capacity);
+    this.caseIDs = new int[capacity];
+    this.prisonerIDs = new int[capacity];
+  }
+
+  /**
+   * Method used to open a session for an authenticated prisoner. Returns the session token.
+   **/
+  public long open(int caseID, int prisonerID) {
+    long now = System.nanoTime();
+    int firstSlot = Math.floorMod(nextSlot.getAndIncrement(), capacity);
+    for (int probe = 0; probe < capacity; probe++) {
+      int slot = (firstSlot + probe) % capacity;
+      long currentToken = tokens.get(slot);
+      boolean slotFree = currentToken == EMPTY_SLOT || (currentToken != RESERVED_SLOT && expiryTimes.get(slot) - now < 0);
+      if (slotFree && tokens.compareAndSet(slot, currentToken, RESERVED_SLOT)) {
+        caseIDs[slot] = caseID;
+        prisonerIDs[slot] = prisonerID;
+        expiryTimes.set(slot, now + timeToLiveNanos);
+        long token = newToken(slot);
+        tokens.set(slot, token); /*Publishes the session. */
+        return token;
+      }
+    }
+    throw new IllegalStateException("Too many sessions are open!");
+  }
+
+  /**
+   * Method used to find the session of a token. Returns the case ID and prisoner ID packed as
+   * (caseID << 32 | prisonerID), or NO_SESSION if the token is not valid or has expired.
+   * Use getCaseID and getPrisonerID to unpack it.
+   **/
+  public long resolve(long token) {
+    int slot = (int) (token >>> 32);
+    if (token == EMPTY_SLOT || slot < 0 || slot >= capacity || tokens.get(slot) != token) {
+      return NO_SESSION;
+    }
+    long now = System.nanoTime();
+    long expiryTime = expiryTimes.get(slot);
+    if (expiryTime - now < 0) {
+      return NO_SESSION;
+    }
+    long login = ((long) caseIDs[slot] << 32) | prisonerIDs[slot];
+    /*The slot may have been reused while it was read. */
+    if (tokens.get(slot) != token) {
+      return NO_SESSION;
+    }
+    /*Extend the session, but only write once half of its time has passed. */
+    if (expiryTime - now < timeToLiveNanos / 2) {
+      expiryTimes.lazySet(slot, now + timeToLiveNanos);
+    }
+    return login;
+  }
+
+  /**
+   * Method used to end a session. Does nothing if the token is not valid.
+   **/
+  public void close(long token) {
+    int slot = (int) (token >>> 32);
+    if (slot >= 0 && slot < capacity) {
+      tokens.compareAndSet(slot, token, EMPTY_SLOT);
+    }
+  }
+
+  public static int getCaseID(long login) {
+    return (int) (login >>> 32);
+  }
+
+  public static int getPrisonerID(long login) {
+    return (int) login;
+  }
+
+  private long newToken(int slot) {
+    int nonce;
+    do {
+      nonce = tokenRandom.nextInt();
+    }
+    while (slot == 0 && nonce == 0); /*Token must not look like an empty slot. */
+    return ((long) slot << 32) | (nonce & 0xFFFFFFFFL);
+  }
+}
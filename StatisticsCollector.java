@@ -0,0 +1,166 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the totals of the decisions, sentences and appeals as they happen, so they never have to be
+ * counted from the cases. Counters are striped (LongAdder), so the RMI threads recording at the same time
+ * do not contend. Besides the totals since start, each second and each minute has its own counters in a ring,
+ * and a recent window is read by adding up the slots it covers, a fixed amount of work whatever the number of cases.
+ * Counts recorded while a slot is being reused for a new period can be lost, so windows are approximate.
+ **/
+public class StatisticsCollector {
+
+  public static final int MAX_WINDOW_SECONDS = 3600; /*Longest window that can be read. */
+  private static final int SECOND_SLOTS = 60; /*Windows up to a minute are read by the second. */
+  private static final int MINUTE_SLOTS = 60; /*Longer windows are read by the minute. */
+
+  /**
+   * Counters of one period. A slot is reused once its period has left the ring.
+   **/
+  private static class PeriodSlot {
+    private volatile long period = -1;
+    private final LongAdder[] counters = newCounters();
+
+    /*Returns the counters of the period, starting them again if the slot held an older one. */
+    LongAdder[] countersOf(long currentPeriod) {
+      if (period != currentPeriod) {
+        synchronized (this) {
+          if (period != currentPeriod) {
+            for (LongAdder counter : counters) {
+              counter.reset();
+            }
+            period = currentPeriod;
+          }
+        }
+      }
+      return counters;
+    }
+  }
+
+  private final LongSupplier clock; /*Time in milliseconds. */
+  private final LongAdder[] totals = newCounters();
+  private final PeriodSlot[] secondSlots = newSlots(SECOND_SLOTS);
+  private final PeriodSlot[] minuteSlots = newSlots(MINUTE_SLOTS);
+
+  public StatisticsCollector() {
+    this(System::currentTimeMillis);
+  }
+
+  public StatisticsCollector(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Method used to count the decision of a prisoner.
+   **/
+  public void recordDecision(boolean betrayedPartner) {
+    LongAdder[][] counterSets = counterSets();
+    add(counterSets, DecisionStatistics.DECISIONS);
+    if (betrayedPartner) {
+      add(counterSets, DecisionStatistics.BETRAYALS);
+    }
+  }
+
+  /**
+   * Method used to count a case once its decision has been made, with the sentences after the reduction.
+   **/
+  public void recordCaseDecided(int[] sentences) {
+    LongAdder[][] counterSets = counterSets();
+    add(counterSets, DecisionStatistics.CASES_DECIDED);
+    for (int sentence : sentences) {
+      if (sentence >= 0) {
+        add(counterSets, DecisionStatistics.SENTENCES + Math.min(sentence, Case.MAX_SENTENCE));
+      }
+    }
+  }
+
+  /**
+   * Method used to count a decided appeal, with the new sentence if it passed.
+   **/
+  public void recordAppeal(boolean appealPassed, int newSentence) {
+    LongAdder[][] counterSets = counterSets();
+    add(counterSets, DecisionStatistics.APPEALS);
+    if (appealPassed) {
+      add(counterSets, DecisionStatistics.APPEALS_PASSED);
+      add(counterSets, DecisionStatistics.APPEAL_SENTENCES + Math.max(Math.min(newSentence, Case.MAX_SENTENCE), 0));
+    }
+  }
+
+  /*Counters of all time, of the current second and of the current minute. Found once for each event. */
+  private LongAdder[][] counterSets() {
+    long second = TimeUnit.MILLISECONDS.toSeconds(clock.getAsLong());
+    long minute = second / 60;
+    return new LongAdder[][] {totals,
+        secondSlots[(int) (second % SECOND_SLOTS)].countersOf(second),
+        minuteSlots[(int) (minute % MINUTE_SLOTS)].countersOf(minute)};
+  }
+
+  private static void add(LongAdder[][] counterSets, int counter) {
+    for (LongAdder[] counters : counterSets) {
+      counters[counter].increment();
+    }
+  }
+
+  /**
+   * Returns the totals since the server started.
+   **/
+  public DecisionStatistics getStatistics() {
+    return new DecisionStatistics(DecisionStatistics.ALL_TIME, sum(totals, new long[DecisionStatistics.NUMBER_COUNTERS]));
+  }
+
+  /**
+   * Returns the totals of the last given number of seconds, including the current one.
+   * Windows longer than a minute are rounded up to whole minutes.
+   **/
+  public DecisionStatistics getStatistics(int windowSeconds) {
+    if (windowSeconds == DecisionStatistics.ALL_TIME) {
+      return getStatistics();
+    }
+    if (windowSeconds < 0 || windowSeconds > MAX_WINDOW_SECONDS) {
+      throw new IllegalArgumentException("Window must be between 1 and " + MAX_WINDOW_SECONDS + " seconds!");
+    }
+    long now = clock.getAsLong();
+    long[] counters = new long[DecisionStatistics.NUMBER_COUNTERS];
+    if (windowSeconds <= SECOND_SLOTS) {
+      sumPeriods(secondSlots, TimeUnit.MILLISECONDS.toSeconds(now), windowSeconds, counters);
+    } else {
+      int windowMinutes = (windowSeconds + 59) / 60;
+      sumPeriods(minuteSlots, TimeUnit.MILLISECONDS.toMinutes(now), windowMinutes, counters);
+    }
+    return new DecisionStatistics(windowSeconds, counters);
+  }
+
+  /*Slots holding an older period than the window covers are skipped. */
+  private static void sumPeriods(PeriodSlot[] slots, long currentPeriod, int periods, long[] counters) {
+    for (PeriodSlot slot : slots) {
+      long period = slot.period;
+      if (period > currentPeriod - periods && period <= currentPeriod) {
+        sum(slot.counters, counters);
+      }
+    }
+  }
+
+  private static long[] sum(LongAdder[] adders, long[] counters) {
+    for (int index = 0; index < adders.length; index++) {
+      counters[index] += adders[index].sum();
+    }
+    return counters;
+  }
+
+  private static LongAdder[] newCounters() {
+    LongAdder[] counters = new LongAdder[DecisionStatistics.NUMBER_COUNTERS];
+    for (int index = 0; index < counters.length; index++) {
+      counters[index] = new LongAdder();
+    }
+    return counters;
+  }
+
+  private static PeriodSlot[] newSlots(int numberOfSlots) {
+    PeriodSlot[] slots = new PeriodSlot[numberOfSlots];
+    for (int index = 0; index < numberOfSlots; index++) {
+      slots[index] = new PeriodSlot();
+    }
+    return slots;
+  }
+}
@@ -0,0 +1,18 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface for the statistics service. Reports how prisoners decide and what sentences they get.
+ **/
+public interface StatisticsService extends Remote {
+
+  /**
+   * Returns the totals since the server started.
+   **/
+  DecisionStatistics getStatistics() throws RemoteException;
+
+  /**
+   * Returns the totals of the last given number of seconds, up to an hour.
+   **/
+  DecisionStatistics getStatistics(int windowSeconds) throws RemoteException;
+}
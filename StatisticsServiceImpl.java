@@ -0,0 +1,46 @@
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * This class is responsible for implementing the statistics service.
+ * Totals are kept by the collector the other services record into, so reading them does not touch any case.
+ **/
+public class StatisticsServiceImpl implements StatisticsService {
+
+  private final StatisticsCollector statistics;
+
+  public StatisticsServiceImpl(StatisticsCollector statistics) {
+    this.statistics = Objects.requireNonNull(statistics);
+  }
+
+  @Override
+  public DecisionStatistics getStatistics() throws RemoteException {
+    return statistics.getStatistics();
+  }
+
+  @Override
+  public DecisionStatistics getStatistics(int windowSeconds) throws RemoteException {
+    return statistics.getStatistics(windowSeconds);
+  }
+
+  /**
+   * Prints the statistics of a running server, over the given window in seconds if one is given.
+   * The statistics of all the nodes of a cluster are merged when -Dcluster.nodes is set.
+   **/
+  public static void main(String[] args) {
+    try {
+      StatisticsService statisticsStub;
+      if (System.getProperty("cluster.nodes") != null) {
+        statisticsStub = new ClusterRouter(Arrays.asList(System.getProperty("cluster.nodes").split(",")));
+      } else {
+        statisticsStub = (StatisticsService) LocateRegistry.getRegistry(Integer.getInteger("server.port", PrisonServer.PORT_NUMBER))
+            .lookup(StatisticsService.class.getName());
+      }
+      System.out.println(args.length > 0 ? statisticsStub.getStatistics(Integer.parseInt(args[0])) : statisticsStub.getStatistics());
+    } catch (Exception e) {
+      System.err.println("An error has occurred!!\r\n" + e.toString());
+    }
+  }
+}
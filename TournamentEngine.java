@@ -0,0 +1,141 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * In-process simulation of the prisoner's dilemma over many synthetic cases.
+ * Each pair of prisoners following the given strategies plays one iterated case of a number
+ * of rounds. The pairs are split between the threads of a fork/join pool and every
+ * worker counts into its own result, which are merged at the end.
+ * Cases can also be created and retired through a PrisonerDatabaseHandler to measure the case store.
+ **/
+public class TournamentEngine {
+
+  private static final long PAIRS_PER_TASK = 4096; /*Below this a task plays its pairs instead of splitting. */
+
+  private final PrisonerStrategy[] strategies;
+  private final int rounds;
+  private final PrisonerDatabaseHandler dbHandler;
+
+  /**
+   * Object constructor. The handler may be null, in which case the cases are not stored.
+   **/
+  public TournamentEngine(PrisonerStrategy prisoner1Strategy, PrisonerStrategy prisoner2Strategy, int rounds,
+                          PrisonerDatabaseHandler dbHandler) {
+    if (rounds <= 0) {
+      throw new IllegalArgumentException("Number of rounds is not valid!");
+    }
+    this.strategies = new PrisonerStrategy[]{prisoner1Strategy, prisoner2Strategy};
+    this.rounds = rounds;
+    this.dbHandler = dbHandler;
+  }
+
+  /**
+   * Method used to play the given number of pairs on the pool.
+   **/
+  public TournamentResult run(long pairs, ForkJoinPool pool) {
+    return pool.invoke(new PairRange(0, pairs));
+  }
+
+  /**
+   * Task that plays a range of pairs, splitting it in two while it is large.
+   **/
+  private class PairRange extends RecursiveTask<TournamentResult> {
+    private static final long serialVersionUID = 1L; /*Serializable through ForkJoinTask, but never sent. */
+
+    private final long firstPair;
+    private final long endPair;
+
+    PairRange(long firstPair, long endPair) {
+      this.firstPair = firstPair;
+      this.endPair = endPair;
+    }
+
+    @Override
+    protected TournamentResult compute() {
+      if (endPair - firstPair <= PAIRS_PER_TASK) {
+        TournamentResult result = new TournamentResult();
+        for (long pair = firstPair; pair < endPair; pair++) {
+          playPair(result);
+        }
+        return result;
+      }
+      long middle = (firstPair + endPair) >>> 1;
+      PairRange secondHalf = new PairRange(middle, endPair);
+      secondHalf.fork();
+      TournamentResult firstResult = new PairRange(firstPair, middle).compute();
+      return firstResult.merge(secondHalf.join());
+    }
+  }
+
+  /**
+   * Plays all the rounds of one pair of prisoners. The previous moves are read from the history of the case.
+   **/
+  private void playPair(TournamentResult result) {
+    CaseView playedCase = dbHandler == null ? new Case(0, null, rounds) : dbHandler.createCase(rounds);
+    boolean[] betrayedPartner = new boolean[Case.NUMBER_PRISONERS];
+    for (int round = 0; round < rounds; round++) {
+      for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+        boolean partnerBetrayed = round > 0 && playedCase.hasBetrayedInRound(1 - prisonerID, round - 1);
+        betrayedPartner[prisonerID] = strategies[prisonerID].decide(round, partnerBetrayed);
+      }
+      for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+        playedCase.logPrisonerDecision(prisonerID, betrayedPartner[prisonerID]);
+      }
+      result.recordRound(betrayedPartner);
+    }
+    result.recordCase(playedCase.getSentences());
+    if (dbHandler != null) {
+      dbHandler.retireCase(playedCase.getCaseID());
+    }
+  }
+
+  /**
+   * Runs a tournament from the command line and prints the results.
+   * Arguments: pairs rounds strategy1 strategy2 [threads] [--store]
+   **/
+  public static void main(String[] args) {
+    if (args.length < 4) {
+      System.out.println("Usage: TournamentEngine pairs rounds strategy1 strategy2 [threads] [--store]");
+      System.out.println("Strategies: ALWAYS_BETRAY, ALWAYS_COOPERATE, RANDOM, TIT_FOR_TAT");
+      return;
+    }
+    long pairs = Long.parseLong(args[0]);
+    int rounds = Integer.parseInt(args[1]);
+    PrisonerStrategy prisoner1Strategy = PrisonerStrategy.valueOf(args[2].toUpperCase());
+    PrisonerStrategy prisoner2Strategy = PrisonerStrategy.valueOf(args[3].toUpperCase());
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean useStore = false;
+    for (int index = 4; index < args.length; index++) {
+      if (args[index].equals("--store")) {
+        useStore = true;
+      } else {
+        threads = Integer.parseInt(args[index]);
+      }
+    }
+
+    TournamentEngine engine = new TournamentEngine(prisoner1Strategy, prisoner2Strategy, rounds,
+        useStore ? new PrisonerDatabaseHandler() : null);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    long startTime = System.nanoTime();
+    TournamentResult result = engine.run(pairs, pool);
+    double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+    pool.shutdown();
+
+    System.out.printf("Played %d cases of %d rounds on %d threads in %.2f s (%.0f cases per minute, %.0f ns per round).%n",
+        result.getCasesPlayed(), rounds, threads, elapsedSeconds, result.getCasesPlayed() / elapsedSeconds * 60,
+        elapsedSeconds * 1e9 / result.getRoundsPlayed());
+    for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+      System.out.printf("Prisoner %d (%s): betrayed %.1f%% of the time, average sentence %.2f years.%n",
+          prisonerID, engine.strategies[prisonerID], 100.0 * result.getBetrayals(prisonerID) / result.getRoundsPlayed(),
+          result.getAverageSentence(prisonerID));
+      StringBuilder histogram = new StringBuilder("  Sentences:");
+      for (int sentence = 0; sentence <= Case.MAX_SENTENCE; sentence++) {
+        long count = result.getSentenceCount(prisonerID, sentence);
+        if (count > 0) {
+          histogram.append(' ').append(sentence).append('=').append(count);
+        }
+      }
+      System.out.println(histogram);
+    }
+  }
+}
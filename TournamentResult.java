@@ -0,0 +1,77 @@
+/**
+ * Totals collected while running a tournament.
+ * Each worker fills in its own result and the results are merged once the workers are done,
+ * so no counter is shared between threads.
+ **/
+public class TournamentResult {
+
+  private long casesPlayed;
+  private long roundsPlayed;
+  private final long[] betrayals = new long[Case.NUMBER_PRISONERS];
+  /* Number of times each final sentence was given, for each prisoner. */
+  private final long[][] sentenceHistogram = new long[Case.NUMBER_PRISONERS][Case.MAX_SENTENCE + 1];
+
+  /**
+   * Method used to add the decisions of one round.
+   **/
+  public void recordRound(boolean[] betrayedPartner) {
+    roundsPlayed++;
+    for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+      if (betrayedPartner[prisonerID]) {
+        betrayals[prisonerID]++;
+      }
+    }
+  }
+
+  /**
+   * Method used to add the final sentences of one case.
+   **/
+  public void recordCase(int[] sentences) {
+    casesPlayed++;
+    for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+      sentenceHistogram[prisonerID][sentences[prisonerID]]++;
+    }
+  }
+
+  /**
+   * Method used to add the totals of another result to this one.
+   **/
+  public TournamentResult merge(TournamentResult other) {
+    casesPlayed += other.casesPlayed;
+    roundsPlayed += other.roundsPlayed;
+    for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+      betrayals[prisonerID] += other.betrayals[prisonerID];
+      for (int sentence = 0; sentence <= Case.MAX_SENTENCE; sentence++) {
+        sentenceHistogram[prisonerID][sentence] += other.sentenceHistogram[prisonerID][sentence];
+      }
+    }
+    return this;
+  }
+
+  public long getCasesPlayed() {
+    return casesPlayed;
+  }
+
+  public long getRoundsPlayed() {
+    return roundsPlayed;
+  }
+
+  public long getBetrayals(int prisonerID) {
+    return betrayals[prisonerID];
+  }
+
+  public long getSentenceCount(int prisonerID, int sentence) {
+    return sentenceHistogram[prisonerID][sentence];
+  }
+
+  /**
+   * Returns the average final sentence of the prisoner.
+   **/
+  public double getAverageSentence(int prisonerID) {
+    long totalYears = 0;
+    for (int sentence = 0; sentence <= Case.MAX_SENTENCE; sentence++) {
+      totalYears += sentence * sentenceHistogram[prisonerID][sentence];
+    }
+    return casesPlayed == 0 ? 0 : (double) totalYears / casesPlayed;
+  }
+}
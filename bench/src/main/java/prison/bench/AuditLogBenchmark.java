@@ -0,0 +1,80 @@
+package prison.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.AuditLog;
+import prison.PrisonerDatabaseHandler;
+import prison.ProsecutorService.Command;
+import prison.ProsecutorServiceImpl;
+
+/**
+ * Latency of logDecision from several threads at once, with every decision recorded through the
+ * audit log and without any audit log. The sample time mode reports the p99 of the call itself.
+ * A new audit file is used for each iteration and deleted after it.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class AuditLogBenchmark {
+
+  private static final int BUFFER_CAPACITY = 8192;
+
+  @Param({"BLOCK", "DROP"})
+  public AuditLog.Backpressure backpressure;
+
+  private PrisonerDatabaseHandler dbHandler;
+  private ProsecutorServiceImpl plainService;
+  private ProsecutorServiceImpl auditedService;
+  private Path auditFile;
+  private AuditLog auditLog;
+
+  @Setup
+  public void createService() {
+    dbHandler = new PrisonerDatabaseHandler();
+    plainService = new ProsecutorServiceImpl(dbHandler);
+  }
+
+  @Setup(Level.Iteration)
+  public void openAuditLog() throws IOException {
+    auditFile = Files.createTempFile("audit-benchmark", ".log");
+    auditLog = new AuditLog(auditFile, BUFFER_CAPACITY, backpressure);
+    auditedService = new ProsecutorServiceImpl(dbHandler, auditLog);
+  }
+
+  @TearDown(Level.Iteration)
+  public void deleteAuditLog() throws IOException {
+    auditLog.close();
+    Files.deleteIfExists(auditFile);
+  }
+
+  @Benchmark
+  public boolean withAuditLog(LogDecisionBenchmark.Prisoners prisoners) throws RemoteException {
+    return auditedService.logDecision(prisoners.nextLogin(dbHandler), Command.BETRAY);
+  }
+
+  @Benchmark
+  public boolean withoutAuditLog(LogDecisionBenchmark.Prisoners prisoners) throws RemoteException {
+    return plainService.logDecision(prisoners.nextLogin(dbHandler), Command.BETRAY);
+  }
+}
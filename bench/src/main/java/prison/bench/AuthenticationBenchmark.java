@@ -0,0 +1,118 @@
+package prison.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.Case;
+import prison.CaseView;
+import prison.PrisonerDatabaseHandler;
+import prison.ProsecutorService.LoginDetails;
+import prison.ProsecutorServiceImpl;
+
+/**
+ * Checks of the login details sent with every call, made in process so the network is left out.
+ * Calls on a decided case are made with the login details and with a session token. The argument is
+ * first read from its serialized form, through a new object stream as RMI does for every call.
+ * Run with -prof gc to compare the bytes allocated for each call.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class AuthenticationBenchmark {
+
+  private ProsecutorServiceImpl prosecutorService;
+  private LoginDetails validLogin;
+  private LoginDetails invalidLogin;
+  private byte[] serializedLogin;
+  private byte[] serializedToken;
+
+  @Setup
+  public void createService() throws IOException {
+    PrisonerDatabaseHandler dbHandler = new PrisonerDatabaseHandler();
+    prosecutorService = new ProsecutorServiceImpl(dbHandler);
+    validLogin = new LoginDetails();
+    validLogin.setCaseID(0);
+    validLogin.setPrisonerID(1);
+    invalidLogin = new LoginDetails();
+    invalidLogin.setCaseID(Integer.MAX_VALUE);
+    invalidLogin.setPrisonerID(1);
+    CaseView decidedCase = dbHandler.createCase();
+    decidedCase.logPrisonerDecision(Case.PRISONER1_ID, true);
+    decidedCase.logPrisonerDecision(Case.PRISONER2_ID, false);
+    LoginDetails decidedLogin = new LoginDetails();
+    decidedLogin.setCaseID(decidedCase.getCaseID());
+    decidedLogin.setPrisonerID(Case.PRISONER1_ID);
+    long sessionToken = prosecutorService.login(decidedLogin);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeObject(decidedLogin);
+    }
+    serializedLogin = bytes.toByteArray();
+    bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeLong(sessionToken);
+    }
+    serializedToken = bytes.toByteArray();
+  }
+
+  @Benchmark
+  public boolean validLogin() throws RemoteException {
+    return prosecutorService.userAuthentication(validLogin);
+  }
+
+  @Benchmark
+  public boolean invalidLogin() throws RemoteException {
+    return prosecutorService.userAuthentication(invalidLogin);
+  }
+
+  @Benchmark
+  public boolean hasDecisionBeenMadeWithDetails() throws IOException, ClassNotFoundException {
+    return prosecutorService.hasDecisionBeenMade(readLogin());
+  }
+
+  @Benchmark
+  public boolean hasDecisionBeenMadeWithToken() throws IOException {
+    return prosecutorService.hasDecisionBeenMade(readToken());
+  }
+
+  @Benchmark
+  public int getSentenceWithDetails() throws IOException, ClassNotFoundException {
+    return prosecutorService.getSentence(readLogin());
+  }
+
+  @Benchmark
+  public int getSentenceWithToken() throws IOException {
+    return prosecutorService.getSentence(readToken());
+  }
+
+  private LoginDetails readLogin() throws IOException, ClassNotFoundException {
+    try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(serializedLogin))) {
+      return (LoginDetails) input.readObject();
+    }
+  }
+
+  private long readToken() throws IOException {
+    try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(serializedToken))) {
+      return input.readLong();
+    }
+  }
+}
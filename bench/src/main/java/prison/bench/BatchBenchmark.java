@@ -0,0 +1,101 @@
+package prison.bench;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.Case;
+import prison.CaseView;
+import prison.PrisonerDatabaseHandler;
+import prison.ProsecutorService;
+import prison.ProsecutorService.BatchResult;
+import prison.ProsecutorService.LoginDetails;
+import prison.ProsecutorServiceImpl;
+
+/**
+ * The sentences of many decided cases read through RMI over the loopback interface,
+ * either with one batch call or with one call for each case.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class BatchBenchmark {
+
+  @Param({"16", "128"})
+  public int batchSize;
+
+  private Registry registry;
+  private ProsecutorServiceImpl prosecutorImpl;
+  private ProsecutorService prosecutorStub;
+  private int[] caseIDs;
+  private int[] prisonerIDs;
+  private LoginDetails[] logins;
+
+  @Setup
+  public void startServer() throws IOException, NotBoundException {
+    PrisonerDatabaseHandler dbHandler = new PrisonerDatabaseHandler();
+    caseIDs = new int[batchSize];
+    prisonerIDs = new int[batchSize];
+    logins = new LoginDetails[batchSize];
+    for (int index = 0; index < batchSize; index++) {
+      CaseView decidedCase = dbHandler.createCase();
+      decidedCase.logPrisonerDecision(Case.PRISONER1_ID, true);
+      decidedCase.logPrisonerDecision(Case.PRISONER2_ID, false);
+      caseIDs[index] = decidedCase.getCaseID();
+      prisonerIDs[index] = Case.PRISONER1_ID;
+      logins[index] = new LoginDetails();
+      logins[index].setCaseID(caseIDs[index]);
+      logins[index].setPrisonerID(prisonerIDs[index]);
+    }
+    prosecutorImpl = new ProsecutorServiceImpl(dbHandler);
+    int registryPort;
+    try (ServerSocket freePort = new ServerSocket(0)) {
+      registryPort = freePort.getLocalPort();
+    }
+    registry = LocateRegistry.createRegistry(registryPort);
+    registry.rebind(ProsecutorService.class.getName(), UnicastRemoteObject.exportObject(prosecutorImpl, 0));
+    prosecutorStub = (ProsecutorService) LocateRegistry.getRegistry("localhost", registryPort)
+        .lookup(ProsecutorService.class.getName());
+  }
+
+  @TearDown
+  public void stopServer() throws RemoteException {
+    UnicastRemoteObject.unexportObject(prosecutorImpl, true);
+    UnicastRemoteObject.unexportObject(registry, true);
+  }
+
+  @Benchmark
+  public BatchResult batchCall() throws RemoteException {
+    return prosecutorStub.getSentences(caseIDs, prisonerIDs);
+  }
+
+  @Benchmark
+  public int singleCalls() throws RemoteException {
+    int totalSentences = 0;
+    for (LoginDetails login : logins) {
+      totalSentences += prosecutorStub.getSentence(login);
+    }
+    return totalSentences;
+  }
+}
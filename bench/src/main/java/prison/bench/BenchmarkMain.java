@@ -0,0 +1,71 @@
+package prison.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH options, but writes the results as JSON unless another
+ * format is asked for, so that runs of different releases can be compared.
+ **/
+public class BenchmarkMain {
+
+  public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+  public static void main(String[] args) throws IOException, RunnerException, CommandLineOptionException {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers()
+        || commandLine.shouldListResultFormats() || commandLine.shouldListWithParams()) {
+      /*Nothing to run, so JMH itself prints what was asked for. */
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+    if (!commandLine.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!commandLine.getResult().hasValue()) {
+      options.result(DEFAULT_RESULT_FILE);
+    }
+    new Runner(options.build()).run();
+  }
+
+  /**
+   * Runs the benchmarks of the given class once for each number of threads given on the command line,
+   * or for 1, 2, 4 and 8 threads, then prints how each score changes with the threads.
+   * JMH takes the number of threads from its options rather than from a parameter, so this is the
+   * same as running the class with -t for each number.
+   **/
+  public static void runWithThreads(Class<?> benchmarkClass, String[] args) throws RunnerException {
+    String[] threadCounts = args.length > 0 ? args : new String[] {"1", "2", "4", "8"};
+    List<RunResult> results = new ArrayList<>();
+    for (String threadCount : threadCounts) {
+      Options options = new OptionsBuilder()
+          .include(benchmarkClass.getName() + ".")
+          .threads(Integer.parseInt(threadCount))
+          .build();
+      results.addAll(new Runner(options).run());
+    }
+    System.out.println();
+    System.out.printf("%-70s %8s %14s %10s%n", "Benchmark", "Threads", "Score", "Units");
+    for (RunResult result : results) {
+      BenchmarkParams params = result.getParams();
+      StringBuilder name = new StringBuilder(params.getBenchmark().substring(benchmarkClass.getName().length() + 1));
+      for (String key : params.getParamsKeys()) {
+        name.append(' ').append(key).append('=').append(params.getParam(key));
+      }
+      System.out.printf("%-70s %8d %14.3f %10s%n", name, params.getThreads(),
+          result.getPrimaryResult().getScore(), result.getPrimaryResult().getScoreUnit());
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package prison.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.Case;
+
+/**
+ * Cost of logging the decisions of a case kept on the heap, without a journal.
+ * The second decision also works out the sentence reductions of both prisoners.
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaseBenchmark {
+
+  @Param({"true", "false"})
+  public boolean betrayedPartner;
+
+  private int nextCaseID;
+
+  /**
+   * Opens a case and logs the decision of one prisoner.
+   **/
+  @Benchmark
+  public Case firstDecision() {
+    Case newCase = new Case(nextCaseID++);
+    newCase.logPrisonerDecision(Case.PRISONER1_ID, betrayedPartner);
+    return newCase;
+  }
+
+  /**
+   * Opens a case and logs the decisions of both prisoners, so the sentences are reduced.
+   **/
+  @Benchmark
+  public int[] decideCase() {
+    Case newCase = new Case(nextCaseID++);
+    newCase.logPrisonerDecision(Case.PRISONER1_ID, betrayedPartner);
+    newCase.logPrisonerDecision(Case.PRISONER2_ID, !betrayedPartner);
+    return newCase.getSentences();
+  }
+}
@@ -0,0 +1,51 @@
+package prison.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.CaseIdAllocator;
+
+/**
+ * New case IDs handed out by many threads at once, from the striped blocks of CaseIdAllocator
+ * and from one shared counter, which every thread increments.
+ * The IDs are reset before each iteration, so they never run out.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class CaseIdAllocatorBenchmark {
+
+  private CaseIdAllocator allocator;
+  private AtomicInteger sharedCounter;
+
+  @Setup(Level.Iteration)
+  public void resetIDs() {
+    allocator = new CaseIdAllocator(0);
+    sharedCounter = new AtomicInteger();
+  }
+
+  @Benchmark
+  public int stripedBlocks() {
+    return allocator.nextID();
+  }
+
+  @Benchmark
+  public int sharedCounter() {
+    return sharedCounter.getAndIncrement();
+  }
+}
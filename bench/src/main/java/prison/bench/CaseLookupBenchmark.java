@@ -0,0 +1,142 @@
+package prison.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import prison.Case;
+import prison.CaseView;
+import prison.MappedCaseTable;
+import prison.PrisonerDatabaseHandler;
+
+/**
+ * Lookups of cases by many threads at once, as done by every call of the services.
+ * Half of the cases are decided and moved to the archive, so both kinds of lookup are measured.
+ * The cases are kept either on the heap or in a memory-mapped table in a temporary file.
+ * The footprint benchmark reports the heap taken by the cases, measured after a full collection,
+ * and the bytes mapped off the heap, both for each case. Run with -prof gc for the allocation and
+ * collections of the lookups themselves.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class CaseLookupBenchmark {
+
+  @Param({"100000"})
+  public int numberOfCases;
+
+  @Param({"heap", "mapped"})
+  public String backend;
+
+  private PrisonerDatabaseHandler dbHandler;
+  private MappedCaseTable caseTable;
+  private Path tableFile;
+  private int firstCaseID;
+  private long heapBytes;
+  private long mappedBytes;
+
+  @Setup
+  public void createCases() throws IOException {
+    long heapBefore = usedHeap();
+    if (backend.equals("mapped")) {
+      tableFile = Files.createTempFile("case-lookup", ".table");
+      /*Room for the cases created at startup as well. */
+      caseTable = new MappedCaseTable(tableFile, numberOfCases + 1024);
+      dbHandler = new PrisonerDatabaseHandler(caseTable);
+    } else {
+      dbHandler = new PrisonerDatabaseHandler();
+    }
+    firstCaseID = dbHandler.createCase().getCaseID();
+    for (int index = 1; index < numberOfCases; index++) {
+      dbHandler.createCase();
+    }
+    for (int index = 0; index < numberOfCases; index += 2) {
+      CaseView archivedCase = dbHandler.getCase(firstCaseID + index);
+      archivedCase.logPrisonerDecision(Case.PRISONER1_ID, true);
+      archivedCase.logPrisonerDecision(Case.PRISONER2_ID, false);
+      dbHandler.archiveCase(firstCaseID + index);
+    }
+    heapBytes = usedHeap() - heapBefore;
+    mappedBytes = caseTable == null ? 0 : (long) caseTable.getCapacity() * Long.BYTES;
+  }
+
+  @TearDown
+  public void deleteTable() throws IOException {
+    if (caseTable != null) {
+      caseTable.close();
+      Files.deleteIfExists(tableFile);
+    }
+  }
+
+  @Benchmark
+  public CaseView getLiveCase() {
+    return dbHandler.getCase(firstCaseID + (ThreadLocalRandom.current().nextInt(numberOfCases) | 1));
+  }
+
+  @Benchmark
+  public CaseView getArchivedCase() {
+    return dbHandler.getCase(firstCaseID + (ThreadLocalRandom.current().nextInt(numberOfCases) & ~1));
+  }
+
+  @Benchmark
+  public boolean isCaseValid() {
+    return dbHandler.isCaseValid(firstCaseID + ThreadLocalRandom.current().nextInt(numberOfCases));
+  }
+
+  /**
+   * A lookup of a live case, reporting the footprint of the cases next to it.
+   * One thread only, as the counters of all threads would be added up.
+   **/
+  @Benchmark
+  @Threads(1)
+  public CaseView footprint(Footprint footprint) {
+    footprint.heapBytesPerCase = (double) heapBytes / numberOfCases / footprint.iterations;
+    footprint.mappedBytesPerCase = (double) mappedBytes / numberOfCases / footprint.iterations;
+    return getLiveCase();
+  }
+
+  private static long usedHeap() {
+    System.gc();
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  /**
+   * Bytes taken by each case on the heap and in the mapped table.
+   * JMH adds up event counters over the measurement iterations, so each iteration reports its share.
+   **/
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Footprint {
+
+    public double heapBytesPerCase;
+    public double mappedBytesPerCase;
+    private int iterations;
+
+    @Setup(Level.Trial)
+    public void countIterations(BenchmarkParams params) {
+      iterations = params.getMeasurement().getCount();
+    }
+  }
+}
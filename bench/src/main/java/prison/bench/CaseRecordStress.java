@@ -0,0 +1,238 @@
+package prison.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import prison.Case;
+import prison.CaseRecord;
+import prison.MappedCaseTable;
+
+/**
+ * Stress check of the transitions of CaseRecord. In each round two threads log the decisions of
+ * the two prisoners of the same cases at once, a third reduces the sentences of the prisoners who
+ * have decided, as appeals do, and a fourth reads the cases and checks that every state it sees is
+ * consistent, and that a sentence never goes up or below 0. Both the cases on the heap and the
+ * cases of a mapped table are checked.
+ * Exits with status 1 if any state was not consistent.
+ * Run with: java -cp target/benchmarks.jar prison.bench.CaseRecordStress [rounds]
+ **/
+public class CaseRecordStress {
+
+  private static final int CASES_PER_ROUND = 4096;
+  private static final int DEFAULT_ROUNDS = 200;
+  private static final int APPEAL_REDUCTION = 2; /*Most years taken off by one appeal. */
+
+  private final AtomicLong violations = new AtomicLong();
+  private final AtomicLong statesRead = new AtomicLong();
+  private final AtomicLong appealsSent = new AtomicLong();
+
+  public static void main(String[] args) throws Exception {
+    int rounds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROUNDS;
+    CaseRecordStress stress = new CaseRecordStress();
+    for (int round = 0; round < rounds; round++) {
+      stress.heapRound();
+      stress.mappedRound();
+    }
+    System.out.println("Rounds: " + rounds + ", states read: " + stress.statesRead.get()
+        + ", appeals sent: " + stress.appealsSent.get() + ", violations: " + stress.violations.get());
+    if (stress.violations.get() > 0) {
+      System.exit(1);
+    }
+  }
+
+  private void heapRound() throws InterruptedException {
+    Case[] cases = new Case[CASES_PER_ROUND];
+    for (int caseID = 0; caseID < CASES_PER_ROUND; caseID++) {
+      cases[caseID] = new Case(caseID);
+    }
+    AtomicInteger casesDecided = new AtomicInteger();
+    int[] lastSentences = newSentenceBounds();
+    runRound(prisonerID -> {
+      for (Case currentCase : cases) {
+        if (currentCase.logPrisonerDecision(prisonerID, ThreadLocalRandom.current().nextBoolean())) {
+          casesDecided.incrementAndGet();
+        }
+      }
+    }, () -> {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      Case currentCase = cases[random.nextInt(CASES_PER_ROUND)];
+      /*Not changed if the prisoner has not decided yet. */
+      currentCase.reducePrisonSentence(random.nextInt(Case.NUMBER_PRISONERS), random.nextInt(APPEAL_REDUCTION + 1));
+      appealsSent.incrementAndGet();
+    }, () -> {
+      for (int caseID = 0; caseID < CASES_PER_ROUND; caseID++) {
+        checkHeapCase(cases[caseID], lastSentences, caseID);
+      }
+    });
+    checkDecided(casesDecided.get());
+    for (int caseID = 0; caseID < CASES_PER_ROUND; caseID++) {
+      checkHeapCase(cases[caseID], lastSentences, caseID);
+      check(cases[caseID].isSentencingAvailable());
+    }
+  }
+
+  /**
+   * Both sentences are read from one state, so they must be both known or both unknown.
+   * A decided case stays decided.
+   **/
+  private void checkHeapCase(Case currentCase, int[] lastSentences, int caseID) {
+    int[] sentences = currentCase.getSentences();
+    boolean known = sentences[0] != Case.SENTENCE_UNKNOWN;
+    check(known == (sentences[1] != Case.SENTENCE_UNKNOWN));
+    if (known) {
+      for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+        checkSentence(sentences[prisonerID], lastSentences, caseID, prisonerID);
+      }
+      check(currentCase.isSentencingAvailable());
+    }
+    statesRead.incrementAndGet();
+  }
+
+  private void mappedRound() throws IOException, InterruptedException {
+    Path tableFile = Files.createTempFile("case-record-stress", ".table");
+    MappedCaseTable caseTable = new MappedCaseTable(tableFile, CASES_PER_ROUND);
+    try {
+      for (int caseID = 0; caseID < CASES_PER_ROUND; caseID++) {
+        caseTable.create(caseID);
+      }
+      AtomicInteger casesDecided = new AtomicInteger();
+      int[] lastVersions = new int[CASES_PER_ROUND];
+      int[] lastSentences = newSentenceBounds();
+      runRound(prisonerID -> {
+        for (int caseID = 0; caseID < CASES_PER_ROUND; caseID++) {
+          if (caseTable.logDecision(caseID, prisonerID, ThreadLocalRandom.current().nextBoolean())) {
+            casesDecided.incrementAndGet();
+          }
+        }
+      }, () -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        caseTable.reduceSentence(random.nextInt(CASES_PER_ROUND), random.nextInt(Case.NUMBER_PRISONERS),
+            random.nextInt(APPEAL_REDUCTION + 1));
+        appealsSent.incrementAndGet();
+      }, () -> {
+        for (int caseID = 0; caseID < CASES_PER_ROUND; caseID++) {
+          lastVersions[caseID] = checkRecord(caseTable.getRecord(caseID), lastVersions[caseID], lastSentences, caseID);
+        }
+      });
+      checkDecided(casesDecided.get());
+      for (int caseID = 0; caseID < CASES_PER_ROUND; caseID++) {
+        long record = caseTable.getRecord(caseID);
+        checkRecord(record, lastVersions[caseID], lastSentences, caseID);
+        check(String.valueOf(CaseRecord.getStatus(record)).equals("DECISION_MADE"));
+      }
+    } finally {
+      caseTable.close();
+      Files.deleteIfExists(tableFile);
+    }
+  }
+
+  /**
+   * The status must match the prisoners that have decided, and the version never goes back.
+   * Returns the version of the record.
+   **/
+  private int checkRecord(long record, int lastVersion, int[] lastSentences, int caseID) {
+    int decided = 0;
+    for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+      if (CaseRecord.hasDecided(record, prisonerID)) {
+        decided++;
+        checkSentence(CaseRecord.getSentence(record, prisonerID), lastSentences, caseID, prisonerID);
+      }
+    }
+    /*The status type is not public, so it is compared by name. */
+    String expectedStatus = decided == 0 ? "OPEN" : decided == 1 ? "WAITING_REPLY" : "DECISION_MADE";
+    check(CaseRecord.isPresent(record) && String.valueOf(CaseRecord.getStatus(record)).equals(expectedStatus));
+    check(CaseRecord.getVersion(record) >= lastVersion);
+    statesRead.incrementAndGet();
+    return CaseRecord.getVersion(record);
+  }
+
+  /**
+   * Exactly one of the two decisions of each case reports the case decided.
+   **/
+  private void checkDecided(int casesDecided) {
+    check(casesDecided == CASES_PER_ROUND);
+  }
+
+  /**
+   * Sentences are only ever reduced, by the decision of the case and by appeals, and never below 0.
+   * Keeps the sentence read as the highest the prisoner can have from now on.
+   **/
+  private void checkSentence(int sentence, int[] lastSentences, int caseID, int prisonerID) {
+    int index = caseID * Case.NUMBER_PRISONERS + prisonerID;
+    check(isValidSentence(sentence) && sentence <= lastSentences[index]);
+    lastSentences[index] = sentence;
+  }
+
+  /**
+   * Returns the highest sentence of each prisoner of a round, before any has been read.
+   **/
+  private static int[] newSentenceBounds() {
+    int[] lastSentences = new int[CASES_PER_ROUND * Case.NUMBER_PRISONERS];
+    Arrays.fill(lastSentences, Case.MAX_SENTENCE);
+    return lastSentences;
+  }
+
+  private static boolean isValidSentence(int sentence) {
+    return sentence >= 0 && sentence <= Case.MAX_SENTENCE;
+  }
+
+  private void check(boolean consistent) {
+    if (!consistent) {
+      violations.incrementAndGet();
+    }
+  }
+
+  /**
+   * Starts one writer for each prisoner, then an appeal writer and a reader that keep going until both writers are done.
+   **/
+  private void runRound(PrisonerWriter writer, Runnable appealWriter, Runnable reader) throws InterruptedException {
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch writersDone = new CountDownLatch(Case.NUMBER_PRISONERS);
+    Thread[] threads = new Thread[Case.NUMBER_PRISONERS + 2];
+    for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+      int writerPrisonerID = prisonerID;
+      threads[prisonerID] = new Thread(() -> {
+        awaitQuietly(start);
+        try {
+          writer.logDecisions(writerPrisonerID);
+        } finally {
+          writersDone.countDown();
+        }
+      });
+    }
+    Runnable[] untilWritersDone = {appealWriter, reader};
+    for (int index = 0; index < untilWritersDone.length; index++) {
+      Runnable task = untilWritersDone[index];
+      threads[Case.NUMBER_PRISONERS + index] = new Thread(() -> {
+        awaitQuietly(start);
+        while (writersDone.getCount() > 0) {
+          task.run();
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private interface PrisonerWriter {
+    void logDecisions(int prisonerID);
+  }
+}
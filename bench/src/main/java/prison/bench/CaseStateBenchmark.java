@@ -0,0 +1,79 @@
+package prison.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.Case;
+
+/**
+ * Sentences of a decided case read by three threads while a fourth keeps changing the case.
+ * The packed read loads the state of the case once, as Case does now. The locked read takes a
+ * lock shared with the writer around the same read, as the sentences were read before they were packed.
+ **/
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaseStateBenchmark {
+
+  private final ReentrantLock stateLock = new ReentrantLock();
+  private Case decidedCase;
+
+  @Setup
+  public void createCase() {
+    decidedCase = new Case(0);
+    decidedCase.logPrisonerDecision(0, true);
+    decidedCase.logPrisonerDecision(1, false);
+  }
+
+  @Benchmark
+  @Group("packed")
+  @GroupThreads(3)
+  public int[] packedRead() {
+    return decidedCase.getSentences();
+  }
+
+  @Benchmark
+  @Group("packed")
+  @GroupThreads(1)
+  public void packedWrite() {
+    decidedCase.reducePrisonSentence(0, 0);
+  }
+
+  @Benchmark
+  @Group("locked")
+  @GroupThreads(3)
+  public int[] lockedRead() {
+    stateLock.lock();
+    try {
+      return decidedCase.getSentences();
+    } finally {
+      stateLock.unlock();
+    }
+  }
+
+  @Benchmark
+  @Group("locked")
+  @GroupThreads(1)
+  public void lockedWrite() {
+    stateLock.lock();
+    try {
+      decidedCase.reducePrisonSentence(0, 0);
+    } finally {
+      stateLock.unlock();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package prison.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import prison.Case;
+import prison.PrisonerDatabaseHandler;
+
+/**
+ * Cases looked up and created by many threads at once, as by the RMI threads of the server.
+ * The cases are kept by PrisonerDatabaseHandler in its concurrent map, and by a HashMap behind one lock,
+ * which is how they were kept before. The given percentage of calls creates a case and the others
+ * look up one of the cases created before. The cases are created again before each iteration.
+ * Run with: java -cp target/benchmarks.jar prison.bench.CaseStoreBenchmark [threads...]
+ * to run it with 1, 2, 4 and 8 threads (or the numbers given) and compare the scores.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaseStoreBenchmark {
+
+  private static final int NUMBER_OF_CASES = 10000;
+
+  @Param({"10"})
+  public int createPercent;
+
+  private PrisonerDatabaseHandler dbHandler;
+  private SynchronizedCaseMap synchronizedMap;
+  private int firstCaseID;
+
+  public static void main(String[] args) throws RunnerException {
+    BenchmarkMain.runWithThreads(CaseStoreBenchmark.class, args);
+  }
+
+  @Setup(Level.Iteration)
+  public void createCases() {
+    dbHandler = new PrisonerDatabaseHandler();
+    synchronizedMap = new SynchronizedCaseMap();
+    firstCaseID = dbHandler.createCase().getCaseID();
+    for (int index = 1; index < NUMBER_OF_CASES; index++) {
+      dbHandler.createCase();
+    }
+    for (int index = 0; index < NUMBER_OF_CASES; index++) {
+      synchronizedMap.createCase();
+    }
+  }
+
+  @Benchmark
+  public Object concurrentMap() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (random.nextInt(100) < createPercent) {
+      return dbHandler.createCase();
+    }
+    return dbHandler.getCase(firstCaseID + random.nextInt(NUMBER_OF_CASES));
+  }
+
+  @Benchmark
+  public Object synchronizedHashMap() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (random.nextInt(100) < createPercent) {
+      return synchronizedMap.createCase();
+    }
+    return synchronizedMap.getCase(random.nextInt(NUMBER_OF_CASES));
+  }
+
+  /**
+   * Cases kept in a HashMap, with every call holding the lock of the map.
+   **/
+  static class SynchronizedCaseMap {
+
+    private final Map<Integer, Case> mapOfCases = new HashMap<>();
+    private int nextCaseID;
+
+    synchronized Case createCase() {
+      Case newCase = new Case(nextCaseID++);
+      mapOfCases.put(newCase.getCaseID(), newCase);
+      return newCase;
+    }
+
+    synchronized Case getCase(int caseNumber) {
+      return mapOfCases.get(caseNumber);
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package prison.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.Case;
+
+/**
+ * Cost of one round of an iterated case, kept on the heap without a journal. Each call logs the
+ * decisions of both prisoners, and a new case is opened once the last round has been played.
+ * Only the round just played is worked out, so the cost of a round should not depend on how many
+ * rounds the case is played over. The cost of opening the case is shared by its rounds.
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IteratedCaseBenchmark {
+
+  @Param({"1", "10", "100", "1000", "10000"})
+  public int rounds;
+
+  private Case iteratedCase;
+  private int nextCaseID;
+  private int roundsPlayed;
+
+  @Setup
+  public void openCase() {
+    iteratedCase = new Case(nextCaseID++, null, rounds);
+  }
+
+  /**
+   * Plays one round. The first prisoner betrays every third round and the second every other round,
+   * so all four outcomes are played.
+   **/
+  @Benchmark
+  public boolean playRound() {
+    roundsPlayed++;
+    iteratedCase.logPrisonerDecision(Case.PRISONER1_ID, roundsPlayed % 3 == 0);
+    boolean decisionMade = iteratedCase.logPrisonerDecision(Case.PRISONER2_ID, (roundsPlayed & 1) == 0);
+    if (decisionMade) {
+      openCase();
+    }
+    return decisionMade;
+  }
+}
@@ -0,0 +1,184 @@
+package prison.bench;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.Case;
+import prison.PrisonerDatabaseHandler;
+import prison.ProsecutorService.Command;
+import prison.ProsecutorService.LoginDetails;
+import prison.ProsecutorServiceImpl;
+
+/**
+ * Decisions logged by many threads at once, each on cases of its own. Only the case is locked
+ * while a decision is logged, as the service does now, or the call is also synchronized on the
+ * service, as every decision was before. Each thread opens a new case once both of its prisoners
+ * have decided and retires the one before, so the calls to open and retire cases are measured too.
+ * In the shared variants the threads decide for the prisoners of a given number of cases they all
+ * pick from at random, so the threads meet on the same cases.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class LogDecisionBenchmark {
+
+  private final Object serviceLock = new Object();
+  private PrisonerDatabaseHandler dbHandler;
+  private ProsecutorServiceImpl prosecutorService;
+
+  @Setup
+  public void createService() {
+    dbHandler = new PrisonerDatabaseHandler();
+    prosecutorService = new ProsecutorServiceImpl(dbHandler);
+  }
+
+  @Benchmark
+  public boolean caseLock(Prisoners prisoners) throws RemoteException {
+    return prosecutorService.logDecision(prisoners.nextLogin(dbHandler), Command.BETRAY);
+  }
+
+  @Benchmark
+  public boolean serviceLock(Prisoners prisoners) throws RemoteException {
+    LoginDetails login = prisoners.nextLogin(dbHandler);
+    synchronized (serviceLock) {
+      return prosecutorService.logDecision(login, Command.BETRAY);
+    }
+  }
+
+  @Benchmark
+  public boolean sharedCaseLock(SharedCases sharedCases) throws RemoteException {
+    SharedCases.Claim login = sharedCases.claimLogin();
+    try {
+      return prosecutorService.logDecision(login, Command.BETRAY);
+    } finally {
+      sharedCases.decided(login);
+    }
+  }
+
+  @Benchmark
+  public boolean sharedServiceLock(SharedCases sharedCases) throws RemoteException {
+    SharedCases.Claim login = sharedCases.claimLogin();
+    try {
+      synchronized (serviceLock) {
+        return prosecutorService.logDecision(login, Command.BETRAY);
+      }
+    } finally {
+      sharedCases.decided(login);
+    }
+  }
+
+  /**
+   * Cases shared by all the threads. Each prisoner of a case is claimed by one thread, and once
+   * both have decided the case is retired and a new case takes its place.
+   **/
+  @State(Scope.Benchmark)
+  public static class SharedCases {
+
+    private static final long CLAIM_MASK = 0x3L; /*Prisoners claimed so far, in the low bits of a slot. */
+    private static final long DECIDED_ONE = 0x4L; /*Prisoners that have decided, above the claims. */
+    private static final long DECIDED_MASK = 0xCL;
+
+    @Param({"1", "4", "64"})
+    public int sharedCases;
+
+    private PrisonerDatabaseHandler dbHandler;
+    private AtomicLongArray slots; /*Case ID of each slot (high half), with its claims and decisions. */
+
+    @Setup
+    public void openCases(LogDecisionBenchmark benchmark) {
+      dbHandler = benchmark.dbHandler;
+      slots = new AtomicLongArray(sharedCases);
+      for (int slot = 0; slot < sharedCases; slot++) {
+        slots.set(slot, (long) dbHandler.createCase().getCaseID() << 32);
+      }
+    }
+
+    /**
+     * Returns the login of a prisoner of a random case that no other thread has claimed.
+     **/
+    public Claim claimLogin() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      while (true) {
+        int slot = random.nextInt(sharedCases);
+        long state = slots.get(slot);
+        int claimed = (int) (state & CLAIM_MASK);
+        if (claimed < Case.NUMBER_PRISONERS && slots.compareAndSet(slot, state, state + 1)) {
+          return new Claim(slot, (int) (state >>> 32), claimed);
+        }
+        /*Both prisoners are taken. Let the thread deciding for them run before trying again. */
+        Thread.yield();
+      }
+    }
+
+    /**
+     * Called once the prisoner of the login has decided. The last of the two replaces the case.
+     **/
+    public void decided(Claim login) {
+      long state = slots.getAndAdd(login.slot, DECIDED_ONE) + DECIDED_ONE;
+      if ((state & DECIDED_MASK) == Case.NUMBER_PRISONERS * DECIDED_ONE) {
+        /*No thread holds a login for the case any more. */
+        slots.set(login.slot, (long) dbHandler.createCase().getCaseID() << 32);
+        dbHandler.retireCase(login.getCaseID());
+      }
+    }
+
+    /**
+     * Login of a claimed prisoner, with the slot of its case.
+     **/
+    public static class Claim extends LoginDetails {
+      private static final long serialVersionUID = 1L;
+
+      private final int slot;
+
+      Claim(int slot, int caseID, int prisonerID) {
+        this.slot = slot;
+        setCaseID(caseID);
+        setPrisonerID(prisonerID);
+      }
+    }
+  }
+
+  /**
+   * The prisoners of the case a thread is logging decisions on.
+   **/
+  @State(Scope.Thread)
+  public static class Prisoners {
+
+    private final LoginDetails login = new LoginDetails();
+    private boolean caseOpen;
+
+    /**
+     * Returns the login of the next prisoner that has not decided yet.
+     **/
+    public LoginDetails nextLogin(PrisonerDatabaseHandler dbHandler) {
+      if (caseOpen && login.getPrisonerID() == Case.PRISONER1_ID) {
+        login.setPrisonerID(Case.PRISONER2_ID);
+      } else {
+        if (caseOpen) {
+          dbHandler.retireCase(login.getCaseID());
+        }
+        login.setCaseID(dbHandler.createCase().getCaseID());
+        login.setPrisonerID(Case.PRISONER1_ID);
+        caseOpen = true;
+      }
+      return login;
+    }
+  }
+}
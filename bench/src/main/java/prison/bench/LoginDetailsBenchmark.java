@@ -0,0 +1,176 @@
+package prison.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import prison.AppealOutcome;
+import prison.ProsecutorService.LoginDetails;
+
+/**
+ * Serialization of the login details, done by RMI for every call that carries them, and of the
+ * outcome of an appeal. The compact forms written by hand are compared with twins of the same
+ * fields using default serialization, as both types were sent before. The write benchmarks
+ * also report the bytes written for each object as the bytes counter. The twins have longer class
+ * names than the types they stand for, and the names are written too, so the difference is taken off.
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginDetailsBenchmark {
+
+  private LoginDetails details;
+  private DefaultLoginDetails defaultDetails;
+  private AppealOutcome outcome;
+  private DefaultAppealOutcome defaultOutcome;
+  private byte[] serializedDetails;
+  private byte[] serializedDefaultDetails;
+  private byte[] serializedOutcome;
+  private byte[] serializedDefaultOutcome;
+
+  @Setup
+  public void createObjects() throws IOException {
+    details = new LoginDetails();
+    details.setCaseID(12345);
+    details.setPrisonerID(1);
+    defaultDetails = new DefaultLoginDetails(12345, 1);
+    outcome = new AppealOutcome(true, 7);
+    defaultOutcome = new DefaultAppealOutcome(true, 7);
+    serializedDetails = serialize(details);
+    serializedDefaultDetails = serialize(defaultDetails);
+    serializedOutcome = serialize(outcome);
+    serializedDefaultOutcome = serialize(defaultOutcome);
+  }
+
+  @Benchmark
+  public byte[] writeDetails(WireSize wireSize) throws IOException {
+    return wireSize.record(serialize(details), 0);
+  }
+
+  @Benchmark
+  public byte[] writeDefaultDetails(WireSize wireSize) throws IOException {
+    return wireSize.record(serialize(defaultDetails), nameOverhead(DefaultLoginDetails.class, LoginDetails.class));
+  }
+
+  @Benchmark
+  public byte[] writeOutcome(WireSize wireSize) throws IOException {
+    return wireSize.record(serialize(outcome), 0);
+  }
+
+  @Benchmark
+  public byte[] writeDefaultOutcome(WireSize wireSize) throws IOException {
+    return wireSize.record(serialize(defaultOutcome), nameOverhead(DefaultAppealOutcome.class, AppealOutcome.class));
+  }
+
+  @Benchmark
+  public Object readDetails() throws IOException, ClassNotFoundException {
+    return deserialize(serializedDetails);
+  }
+
+  @Benchmark
+  public Object readDefaultDetails() throws IOException, ClassNotFoundException {
+    return deserialize(serializedDefaultDetails);
+  }
+
+  @Benchmark
+  public Object readOutcome() throws IOException, ClassNotFoundException {
+    return deserialize(serializedOutcome);
+  }
+
+  @Benchmark
+  public Object readDefaultOutcome() throws IOException, ClassNotFoundException {
+    return deserialize(serializedDefaultOutcome);
+  }
+
+  /**
+   * Returns how many more bytes the name of the twin takes than the name of the type it stands for.
+   **/
+  private static int nameOverhead(Class<?> twin, Class<?> type) {
+    return twin.getName().length() - type.getName().length();
+  }
+
+  private static byte[] serialize(Object value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeObject(value);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static Object deserialize(byte[] serialized) throws IOException, ClassNotFoundException {
+    try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+      return input.readObject();
+    }
+  }
+
+  /**
+   * Bytes written for the last object, reported next to the time of each write benchmark.
+   * JMH adds up event counters over the measurement iterations, so each iteration reports its share.
+   **/
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class WireSize {
+
+    public double bytes;
+    private int iterations;
+
+    @Setup(Level.Trial)
+    public void countIterations(BenchmarkParams params) {
+      iterations = params.getMeasurement().getCount();
+    }
+
+    byte[] record(byte[] serialized, int nameOverhead) {
+      bytes = (double) (serialized.length - nameOverhead) / iterations;
+      return serialized;
+    }
+  }
+
+  /**
+   * The login details with default serialization, as they were sent before.
+   **/
+  static class DefaultLoginDetails implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int caseID;
+    private final int prisonerID;
+
+    DefaultLoginDetails(int caseID, int prisonerID) {
+      this.caseID = caseID;
+      this.prisonerID = prisonerID;
+    }
+  }
+
+  /**
+   * The outcome of an appeal with default serialization.
+   **/
+  static class DefaultAppealOutcome implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean appealPassed;
+    private final int newSentence;
+
+    DefaultAppealOutcome(boolean appealPassed, int newSentence) {
+      this.appealPassed = appealPassed;
+      this.newSentence = newSentence;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package prison.bench;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.Case;
+import prison.CaseView;
+import prison.PrisonerDatabaseHandler;
+import prison.ProsecutorService;
+import prison.ProsecutorService.LoginDetails;
+import prison.ProsecutorServiceImpl;
+import prison.SentenceCache;
+import prison.ServerMetrics;
+
+/**
+ * Cost of recording the metrics of each call. The same cached sentence is read from the service
+ * directly and through the wrapper of ServerMetrics, which times the call and counts it.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MetricsProxyBenchmark {
+
+  private ProsecutorService directService;
+  private ProsecutorService instrumentedService;
+  private LoginDetails decidedLogin;
+
+  @Setup
+  public void createServices() {
+    PrisonerDatabaseHandler dbHandler = new PrisonerDatabaseHandler();
+    CaseView decidedCase = dbHandler.createCase();
+    decidedCase.logPrisonerDecision(Case.PRISONER1_ID, true);
+    decidedCase.logPrisonerDecision(Case.PRISONER2_ID, false);
+    directService = new ProsecutorServiceImpl(dbHandler, null, new SentenceCache(1024));
+    instrumentedService = new ServerMetrics(dbHandler).instrument(ProsecutorService.class, directService);
+    decidedLogin = new LoginDetails();
+    decidedLogin.setCaseID(decidedCase.getCaseID());
+    decidedLogin.setPrisonerID(Case.PRISONER1_ID);
+  }
+
+  @Benchmark
+  public int direct() throws RemoteException {
+    return directService.getSentence(decidedLogin);
+  }
+
+  @Benchmark
+  public int instrumented() throws RemoteException {
+    return instrumentedService.getSentence(decidedLogin);
+  }
+}
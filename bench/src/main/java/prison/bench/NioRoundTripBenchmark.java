@@ -0,0 +1,105 @@
+package prison.bench;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.Case;
+import prison.CaseView;
+import prison.NioTransportClient;
+import prison.NioTransportServer;
+import prison.PrisonerDatabaseHandler;
+import prison.ProsecutorService.LoginDetails;
+import prison.ProsecutorServiceImpl;
+import prison.SentenceCache;
+import prison.ServerExecutors;
+
+/**
+ * The calls of RmiRoundTripBenchmark sent over the NIO transport instead, on the loopback interface.
+ * The server holds the given number of client connections open on its one selector thread, and the
+ * calls are spread over all of them. The sample time mode reports the p99 latency.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class NioRoundTripBenchmark {
+
+  @Param({"1", "1000"})
+  public int connections;
+
+  private ExecutorService requestExecutor;
+  private NioTransportServer server;
+  private NioTransportClient[] clients;
+  private LoginDetails decidedLogin;
+
+  @Setup
+  public void startServer() throws IOException {
+    PrisonerDatabaseHandler dbHandler = new PrisonerDatabaseHandler();
+    CaseView decidedCase = dbHandler.createCase();
+    decidedCase.logPrisonerDecision(Case.PRISONER1_ID, true);
+    decidedCase.logPrisonerDecision(Case.PRISONER2_ID, false);
+    ProsecutorServiceImpl prosecutorImpl = new ProsecutorServiceImpl(dbHandler, null, new SentenceCache(1024));
+    requestExecutor = ServerExecutors.newRequestExecutor(ServerExecutors.PLATFORM_MODE);
+    server = new NioTransportServer(0, prosecutorImpl, null, requestExecutor);
+    clients = new NioTransportClient[connections];
+    for (int index = 0; index < connections; index++) {
+      clients[index] = new NioTransportClient("localhost", server.getPort());
+    }
+    decidedLogin = new LoginDetails();
+    decidedLogin.setCaseID(decidedCase.getCaseID());
+    decidedLogin.setPrisonerID(Case.PRISONER1_ID);
+  }
+
+  @TearDown
+  public void stopServer() throws IOException {
+    for (NioTransportClient client : clients) {
+      client.close();
+    }
+    server.close();
+    requestExecutor.shutdown();
+  }
+
+  @Benchmark
+  public boolean userAuthentication(Connection connection) throws RemoteException {
+    return connection.next(clients).userAuthentication(decidedLogin);
+  }
+
+  /**
+   * The sentence is final, so after the first call it is read from the sentence cache.
+   **/
+  @Benchmark
+  public int getSentence(Connection connection) throws RemoteException {
+    return connection.next(clients).getSentence(decidedLogin);
+  }
+
+  /**
+   * Connection used by a thread for its next call. Each thread goes through all the connections in turn.
+   **/
+  @State(Scope.Thread)
+  public static class Connection {
+
+    private int nextIndex;
+
+    public NioTransportClient next(NioTransportClient[] clients) {
+      nextIndex = (nextIndex + 1) % clients.length;
+      return clients[nextIndex];
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package prison.bench;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import prison.Case;
+import prison.MethodMetrics;
+import prison.PrisonerDatabaseHandler;
+import prison.ProsecutorService;
+import prison.ProsecutorService.Command;
+import prison.ProsecutorService.LoginDetails;
+import prison.ProsecutorServiceImpl;
+import prison.SentenceListener;
+
+/**
+ * Load test of the sentence callbacks. Every waiting client exports a SentenceListener and registers it
+ * through RMI over the loopback interface, then the cases are decided and the callbacks are timed from
+ * when the deciding call was sent. Prints the RMI calls made and the latency of the notifications,
+ * next to the calls the old client would have made by polling every 10 seconds over the same wait.
+ * Run with: java -cp target/benchmarks.jar prison.bench.NotificationLoadTest [clients]
+ **/
+public class NotificationLoadTest {
+
+  private static final int DEFAULT_CLIENTS = 10000;
+  private static final int DECIDING_THREADS = 8;
+  private static final long POLL_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10); /*Sleep of the old polling loop. */
+  private static final long CALLBACK_TIMEOUT_SECONDS = 120;
+
+  private final AtomicLong clientCalls = new AtomicLong();
+  private final AtomicLong callbacks = new AtomicLong();
+  private final AtomicLong pollingCalls = new AtomicLong();
+  private final MethodMetrics notificationLatency = new MethodMetrics("notification");
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+    new NotificationLoadTest().run(clients - clients % Case.NUMBER_PRISONERS);
+    System.exit(0);
+  }
+
+  private void run(int clients) throws IOException, NotBoundException, InterruptedException {
+    int cases = clients / Case.NUMBER_PRISONERS;
+    PrisonerDatabaseHandler dbHandler = new PrisonerDatabaseHandler();
+    ProsecutorServiceImpl prosecutorImpl = new ProsecutorServiceImpl(dbHandler);
+    int registryPort;
+    try (ServerSocket freePort = new ServerSocket(0)) {
+      registryPort = freePort.getLocalPort();
+    }
+    Registry registry = LocateRegistry.createRegistry(registryPort);
+    registry.rebind(ProsecutorService.class.getName(), UnicastRemoteObject.exportObject(prosecutorImpl, 0));
+    ProsecutorService prosecutorStub = (ProsecutorService) LocateRegistry.getRegistry("localhost", registryPort)
+        .lookup(ProsecutorService.class.getName());
+
+    int[] caseIDs = new int[cases];
+    for (int index = 0; index < cases; index++) {
+      caseIDs[index] = dbHandler.createCase().getCaseID();
+    }
+    CountDownLatch notified = new CountDownLatch(clients);
+    AtomicLongArray decisionSentAt = new AtomicLongArray(cases);
+    TimedListener[] listeners = new TimedListener[clients];
+    long registerStart = System.nanoTime();
+    for (int index = 0; index < cases; index++) {
+      for (int prisonerID = 0; prisonerID < Case.NUMBER_PRISONERS; prisonerID++) {
+        TimedListener listener = new TimedListener(index, decisionSentAt, notified);
+        listeners[index * Case.NUMBER_PRISONERS + prisonerID] = listener;
+        SentenceListener listenerStub = (SentenceListener) UnicastRemoteObject.exportObject(listener, 0);
+        listener.registeredAt = System.nanoTime();
+        clientCalls.incrementAndGet();
+        if (!prosecutorStub.registerSentenceListener(login(caseIDs[index], prisonerID), listenerStub)) {
+          throw new IllegalStateException("Listener was refused");
+        }
+      }
+    }
+    long registerNanos = System.nanoTime() - registerStart;
+
+    ExecutorService deciders = Executors.newFixedThreadPool(DECIDING_THREADS);
+    long decideStart = System.nanoTime();
+    for (int index = 0; index < cases; index++) {
+      int caseIndex = index;
+      deciders.execute(() -> {
+        try {
+          clientCalls.incrementAndGet();
+          prosecutorStub.logDecision(login(caseIDs[caseIndex], Case.PRISONER1_ID), Command.BETRAY);
+          decisionSentAt.set(caseIndex, System.nanoTime());
+          clientCalls.incrementAndGet();
+          prosecutorStub.logDecision(login(caseIDs[caseIndex], Case.PRISONER2_ID), Command.COOPERATE);
+        } catch (RemoteException e) {
+          System.err.println("Unable to decide case " + caseIDs[caseIndex] + ": " + e.getMessage());
+        }
+      });
+    }
+    boolean allNotified = notified.await(CALLBACK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    long decideNanos = System.nanoTime() - decideStart;
+    deciders.shutdown();
+
+    for (TimedListener listener : listeners) {
+      UnicastRemoteObject.unexportObject(listener, true);
+    }
+    UnicastRemoteObject.unexportObject(prosecutorImpl, true);
+    UnicastRemoteObject.unexportObject(registry, true);
+
+    System.out.printf("%d waiting clients on %d cases, registered in %.1f s, decided and notified in %.1f s%n",
+        clients, cases, registerNanos / 1e9, decideNanos / 1e9);
+    System.out.printf("RMI calls: %d from clients (register and decide), %d callbacks, %d in total%n",
+        clientCalls.get(), callbacks.get(), clientCalls.get() + callbacks.get());
+    System.out.printf("Notification latency: mean %.0f us, p50 %.0f us, p99 %.0f us, max %.0f us%n",
+        notificationLatency.getMeanMicros(), notificationLatency.getP50Micros(),
+        notificationLatency.getP99Micros(), notificationLatency.getMaxMicros());
+    System.out.printf("Polling every 10 s over the same wait: %d hasDecisionBeenMade calls, up to 10 s late%n",
+        pollingCalls.get());
+    if (!allNotified) {
+      System.out.println((notified.getCount()) + " clients were not notified within " + CALLBACK_TIMEOUT_SECONDS + " s");
+    }
+  }
+
+  private static LoginDetails login(int caseID, int prisonerID) {
+    LoginDetails details = new LoginDetails();
+    details.setCaseID(caseID);
+    details.setPrisonerID(prisonerID);
+    return details;
+  }
+
+  /**
+   * Listener of one waiting client. Times the callback from when the deciding call of its case was sent.
+   **/
+  private class TimedListener implements SentenceListener {
+
+    private final int caseIndex;
+    private final AtomicLongArray decisionSentAt;
+    private final CountDownLatch notified;
+    private volatile long registeredAt;
+
+    TimedListener(int caseIndex, AtomicLongArray decisionSentAt, CountDownLatch notified) {
+      this.caseIndex = caseIndex;
+      this.decisionSentAt = decisionSentAt;
+      this.notified = notified;
+    }
+
+    @Override
+    public void sentenceAvailable(int caseID, int prisonerID) {
+      long now = System.nanoTime();
+      callbacks.incrementAndGet();
+      notificationLatency.record(now - decisionSentAt.get(caseIndex), false);
+      /*The old client asked once on starting to wait and once after every sleep. */
+      pollingCalls.addAndGet(1 + (now - registeredAt) / POLL_INTERVAL_NANOS);
+      notified.countDown();
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package prison.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.PairingQueue;
+import prison.ProsecutorService.LoginDetails;
+
+/**
+ * Prisoners paired by many threads at once. Each call joins the queue and waits until another thread
+ * joins as well, so the time of a call is the time taken to be paired. The cases are numbered by a
+ * counter, so only the queue is measured. A prisoner still waiting when the iteration ends gives up
+ * after a short wait and cancels.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class PairingQueueBenchmark {
+
+  private static final long AWAIT_TIMEOUT_MILLIS = 100;
+
+  private PairingQueue pairingQueue;
+
+  @Setup(Level.Iteration)
+  public void createQueue() {
+    AtomicInteger nextCaseID = new AtomicInteger();
+    pairingQueue = new PairingQueue(nextCaseID::getAndIncrement, PairingQueue.DEFAULT_MAX_WAIT_MILLIS);
+  }
+
+  @Benchmark
+  public LoginDetails joinAndAwaitMatch() throws InterruptedException {
+    long ticket = pairingQueue.join();
+    LoginDetails match = pairingQueue.awaitMatch(ticket, AWAIT_TIMEOUT_MILLIS);
+    if (match == null && !pairingQueue.cancel(ticket)) {
+      /*Paired just before cancelling. */
+      match = pairingQueue.awaitMatch(ticket, AWAIT_TIMEOUT_MILLIS);
+    }
+    return match;
+  }
+}
@@ -0,0 +1,82 @@
+package prison.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import prison.Case;
+import prison.RandomSource;
+
+/**
+ * Sentences drawn by many threads at once, with Math.random() as they were drawn before, which
+ * every thread draws from through one shared seed, and with the thread and seeded modes of RandomSource.
+ * Run with: java -cp target/benchmarks.jar prison.bench.RandomSourceBenchmark [threads...]
+ * to run it with 1, 2, 4 and 8 threads (or the numbers given) and compare the scores.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RandomSourceBenchmark {
+
+  private static final int SENTENCE_RANGE = Case.MAX_SENTENCE - Case.MIN_SENTENCE + 1;
+
+  private RandomSource threadSource;
+  private RandomSource seededSource;
+
+  public static void main(String[] args) throws RunnerException {
+    BenchmarkMain.runWithThreads(RandomSourceBenchmark.class, args);
+  }
+
+  @Setup
+  public void createSources() {
+    threadSource = RandomSource.newRandomSource(RandomSource.THREAD_MODE, 42);
+    seededSource = RandomSource.newRandomSource(RandomSource.SEEDED_MODE, 42);
+  }
+
+  @Benchmark
+  public int mathRandom() {
+    return (int) (Math.random() * SENTENCE_RANGE) + Case.MIN_SENTENCE;
+  }
+
+  @Benchmark
+  public int threadMode(Draws draws) {
+    return threadSource.nextInt(draws.nextKey(), SENTENCE_RANGE) + Case.MIN_SENTENCE;
+  }
+
+  @Benchmark
+  public int seededMode(Draws draws) {
+    return seededSource.nextInt(draws.nextKey(), SENTENCE_RANGE) + Case.MIN_SENTENCE;
+  }
+
+  /**
+   * Keys of the draws of one thread, one for each case, so no two draws share a key.
+   **/
+  @State(Scope.Thread)
+  public static class Draws {
+
+    private static final AtomicInteger nextThread = new AtomicInteger();
+    private int caseID;
+
+    /*Each thread starts from its own range of cases. */
+    @Setup
+    public void pickCases() {
+      caseID = nextThread.getAndIncrement() << 24;
+    }
+
+    long nextKey() {
+      return RandomSource.drawKey(caseID++, Case.PRISONER1_ID, RandomSource.SENTENCE_STREAM, 0);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package prison.bench;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.Case;
+import prison.CaseView;
+import prison.PrisonerDatabaseHandler;
+import prison.ProsecutorService;
+import prison.ProsecutorService.LoginDetails;
+import prison.ProsecutorServiceImpl;
+import prison.SentenceCache;
+
+/**
+ * Calls of the prosecutor service through RMI over the loopback interface, from looking up the stub
+ * in a registry to the reply, so the cost of the transport is measured with the service.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class RmiRoundTripBenchmark {
+
+  private Registry registry;
+  private ProsecutorServiceImpl prosecutorImpl;
+  private ProsecutorService prosecutorStub;
+  private LoginDetails decidedLogin;
+
+  @Setup
+  public void startServer() throws IOException, NotBoundException {
+    PrisonerDatabaseHandler dbHandler = new PrisonerDatabaseHandler();
+    CaseView decidedCase = dbHandler.createCase();
+    decidedCase.logPrisonerDecision(Case.PRISONER1_ID, true);
+    decidedCase.logPrisonerDecision(Case.PRISONER2_ID, false);
+    prosecutorImpl = new ProsecutorServiceImpl(dbHandler, null, new SentenceCache(1024));
+    int registryPort;
+    try (ServerSocket freePort = new ServerSocket(0)) {
+      registryPort = freePort.getLocalPort();
+    }
+    registry = LocateRegistry.createRegistry(registryPort);
+    registry.rebind(ProsecutorService.class.getName(), UnicastRemoteObject.exportObject(prosecutorImpl, 0));
+    prosecutorStub = (ProsecutorService) LocateRegistry.getRegistry("localhost", registryPort)
+        .lookup(ProsecutorService.class.getName());
+    decidedLogin = new LoginDetails();
+    decidedLogin.setCaseID(decidedCase.getCaseID());
+    decidedLogin.setPrisonerID(Case.PRISONER1_ID);
+  }
+
+  @TearDown
+  public void stopServer() throws RemoteException {
+    UnicastRemoteObject.unexportObject(prosecutorImpl, true);
+    UnicastRemoteObject.unexportObject(registry, true);
+  }
+
+  @Benchmark
+  public boolean userAuthentication() throws RemoteException {
+    return prosecutorStub.userAuthentication(decidedLogin);
+  }
+
+  /**
+   * The sentence is final, so after the first call it is read from the sentence cache.
+   **/
+  @Benchmark
+  public int getSentence() throws RemoteException {
+    return prosecutorStub.getSentence(decidedLogin);
+  }
+}
@@ -0,0 +1,90 @@
+package prison.bench;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import prison.DecisionStatistics;
+import prison.PrisonerDatabaseHandler;
+import prison.ProsecutorService.Command;
+import prison.ProsecutorServiceImpl;
+import prison.StatisticsCollector;
+
+/**
+ * Cost of keeping the statistics of the decisions. Decisions and decided cases are counted by
+ * many threads at once, and read back over a window while three threads keep counting.
+ * Decisions are also logged through the prosecutor service with and without the collector.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticsBenchmark {
+
+  private static final int WINDOW_SECONDS = 60;
+
+  private final int[] sentences = {5, 2};
+  private StatisticsCollector statistics;
+  private PrisonerDatabaseHandler dbHandler;
+  private ProsecutorServiceImpl plainService;
+  private ProsecutorServiceImpl countingService;
+
+  @Setup
+  public void createServices() {
+    statistics = new StatisticsCollector();
+    dbHandler = new PrisonerDatabaseHandler();
+    plainService = new ProsecutorServiceImpl(dbHandler, null, null, null);
+    countingService = new ProsecutorServiceImpl(dbHandler, null, null, statistics);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void recordDecision() {
+    statistics.recordDecision(true);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void recordCaseDecided() {
+    statistics.recordCaseDecided(sentences);
+  }
+
+  @Benchmark
+  @Group("window")
+  @GroupThreads(3)
+  public void windowRecord() {
+    statistics.recordDecision(false);
+  }
+
+  @Benchmark
+  @Group("window")
+  @GroupThreads(1)
+  public DecisionStatistics windowRead() {
+    return statistics.getStatistics(WINDOW_SECONDS);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean logDecision(LogDecisionBenchmark.Prisoners prisoners) throws RemoteException {
+    return plainService.logDecision(prisoners.nextLogin(dbHandler), Command.BETRAY);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean logDecisionCounted(LogDecisionBenchmark.Prisoners prisoners) throws RemoteException {
+    return countingService.logDecision(prisoners.nextLogin(dbHandler), Command.BETRAY);
+  }
+}
@@ -0,0 +1,192 @@
+package prison.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import prison.Case;
+import prison.NioTransportClient;
+import prison.NioTransportServer;
+import prison.PrisonerDatabaseHandler;
+import prison.ProsecutorService;
+import prison.ProsecutorService.Command;
+import prison.ProsecutorService.LoginDetails;
+import prison.ProsecutorServiceImpl;
+import prison.ServerExecutors;
+
+/**
+ * Stress run of the thread modes of the server. The given number of prisoners all wait for their
+ * decision at once, over the NIO transport, until their partners decide. The first prisoner of each
+ * case has already decided. Once the server holds every wait, the live threads and the heap in use
+ * are printed, with the resident memory of the process where Linux reports it. The clients send the waits without blocking, so the threads printed are the server's,
+ * apart from a reader thread for each connection and the threads that decide.
+ * Virtual threads need Java 21. On older versions the virtual mode falls back to platform threads.
+ * Run with: java -cp target/benchmarks.jar prison.bench.ThreadModeStress [prisoners] [platform|virtual] [connections]
+ **/
+public class ThreadModeStress {
+
+  private static final int DEFAULT_PRISONERS = 100000;
+  private static final int DEFAULT_CONNECTIONS = 100;
+  private static final int DECIDING_THREADS = 8;
+  private static final long WAIT_MILLIS = 30000; /*Longest wait the server accepts. */
+  private static final long HOLD_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(25);
+
+  public static void main(String[] args) throws Exception {
+    int prisoners = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PRISONERS;
+    String threadMode = args.length > 1 ? args[1] : System.getProperty("server.threads", ServerExecutors.PLATFORM_MODE);
+    int connections = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CONNECTIONS;
+    run(prisoners - prisoners % Case.NUMBER_PRISONERS, threadMode, connections);
+    System.exit(0);
+  }
+
+  private static void run(int prisoners, String threadMode, int connections) throws Exception {
+    int cases = prisoners / Case.NUMBER_PRISONERS;
+    PrisonerDatabaseHandler dbHandler = new PrisonerDatabaseHandler();
+    AtomicInteger waitsHeld = new AtomicInteger();
+    ProsecutorService prosecutorService = countWaits(new ProsecutorServiceImpl(dbHandler), waitsHeld);
+    ExecutorService requestExecutor = ServerExecutors.newRequestExecutor(threadMode);
+    NioTransportServer server = new NioTransportServer(0, prosecutorService, null, requestExecutor);
+    NioTransportClient[] clients = new NioTransportClient[connections];
+    for (int index = 0; index < connections; index++) {
+      clients[index] = new NioTransportClient("localhost", server.getPort());
+    }
+    int[] caseIDs = new int[cases];
+    for (int index = 0; index < cases; index++) {
+      caseIDs[index] = dbHandler.createCase().getCaseID();
+    }
+    ExecutorService deciders = Executors.newFixedThreadPool(DECIDING_THREADS);
+    decide(deciders, clients, caseIDs, Case.PRISONER1_ID);
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long heapBefore = usedHeap();
+    long residentBefore = residentMemory();
+    int threadsBefore = threads.getThreadCount();
+    long startTime = System.nanoTime();
+    CompletableFuture<?>[] waits = new CompletableFuture<?>[prisoners];
+    for (int index = 0; index < prisoners; index++) {
+      LoginDetails details = login(caseIDs[index / Case.NUMBER_PRISONERS], index % Case.NUMBER_PRISONERS);
+      waits[index] = clients[index % connections].waitForDecisionAsync(details, WAIT_MILLIS);
+    }
+    while (waitsHeld.get() < prisoners && System.nanoTime() - startTime < HOLD_TIMEOUT_NANOS) {
+      Thread.sleep(100);
+    }
+    int held = waitsHeld.get();
+    long holdNanos = System.nanoTime() - startTime;
+    int threadsHolding = threads.getThreadCount();
+    long heapHolding = usedHeap();
+    long residentHolding = residentMemory();
+
+    decide(deciders, clients, caseIDs, Case.PRISONER2_ID);
+    int decided = 0;
+    int timedOut = 0;
+    int failed = 0;
+    for (CompletableFuture<?> wait : waits) {
+      try {
+        if (Boolean.TRUE.equals(wait.get(WAIT_MILLIS, TimeUnit.MILLISECONDS))) {
+          decided++;
+        } else {
+          timedOut++; /*Held longer than the server allows. */
+        }
+      } catch (Exception e) {
+        failed++;
+      }
+    }
+    long totalNanos = System.nanoTime() - startTime;
+    deciders.shutdown();
+
+    System.out.printf("Mode %s, %d prisoners waiting on %d connections%n", threadMode, prisoners, connections);
+    System.out.printf("Waits held by the server: %d after %.1f s%n", held, holdNanos / 1e9);
+    System.out.printf("Live threads: %d before, %d while holding the waits (peak %d)%n",
+        threadsBefore, threadsHolding, threads.getPeakThreadCount());
+    System.out.printf("Heap used after GC: %.1f MB before, %.1f MB while holding the waits, %.0f bytes for each prisoner%n",
+        heapBefore / 1e6, heapHolding / 1e6, (double) (heapHolding - heapBefore) / prisoners);
+    if (residentBefore > 0 && residentHolding > 0) {
+      /*Includes the stacks of platform threads, which are not on the heap. */
+      System.out.printf("Resident memory: %.1f MB before, %.1f MB while holding the waits%n",
+          residentBefore / 1e6, residentHolding / 1e6);
+    }
+    System.out.printf("Decisions received: %d, waits timed out: %d, failed: %d, in %.1f s%n",
+        decided, timedOut, failed, totalNanos / 1e9);
+
+    for (NioTransportClient client : clients) {
+      client.close();
+    }
+    server.close();
+    requestExecutor.shutdownNow();
+  }
+
+  /**
+   * Logs the decision of the given prisoner of every case, spread over the connections.
+   **/
+  private static void decide(ExecutorService deciders, NioTransportClient[] clients, int[] caseIDs, int prisonerID)
+      throws Exception {
+    Future<?>[] decisions = new Future<?>[caseIDs.length];
+    for (int index = 0; index < caseIDs.length; index++) {
+      NioTransportClient client = clients[index % clients.length];
+      LoginDetails details = login(caseIDs[index], prisonerID);
+      decisions[index] = deciders.submit(() -> client.logDecision(details, Command.COOPERATE));
+    }
+    for (Future<?> decision : decisions) {
+      decision.get();
+    }
+  }
+
+  /**
+   * Wraps the service so the long polls it is holding are counted.
+   **/
+  private static ProsecutorService countWaits(ProsecutorService service, AtomicInteger waitsHeld) {
+    return (ProsecutorService) Proxy.newProxyInstance(ProsecutorService.class.getClassLoader(),
+        new Class<?>[] {ProsecutorService.class}, (proxy, method, args) -> {
+          boolean isWait = method.getName().equals("waitForDecision");
+          if (isWait) {
+            waitsHeld.incrementAndGet();
+          }
+          try {
+            return method.invoke(service, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  private static LoginDetails login(int caseID, int prisonerID) {
+    LoginDetails details = new LoginDetails();
+    details.setCaseID(caseID);
+    details.setPrisonerID(prisonerID);
+    return details;
+  }
+
+  /**
+   * Returns the resident memory of the process in bytes, or -1 if it is not known.
+   **/
+  private static long residentMemory() {
+    Path status = Paths.get("/proc/self/status");
+    try {
+      if (Files.exists(status)) {
+        for (String line : Files.readAllLines(status)) {
+          if (line.startsWith("VmRSS:")) {
+            return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+          }
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      /*Not reported on this system. */
+    }
+    return -1;
+  }
+
+  private static long usedHeap() {
+    System.gc();
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+}